@@ -123,6 +123,6 @@ class EditBeaconActivity : AppCompatActivity() {
 
     private fun updateDebugText() {
         val debugText = binding.debugTextView
-        debugText.text = if (beacon.getRegressionCoefficients() == null) "No regression function yet." else "Regression coefficients:\n${beacon.getRegressionCoefficients().contentToString()}"
+        debugText.text = if (beacon.getRegressionCoefficients() == null) "No regression function yet." else "Regression (${beacon.getRegressionModel()}) coefficients:\n${beacon.getRegressionCoefficients().contentToString()}"
     }
 }
\ No newline at end of file
@@ -5,10 +5,20 @@ import com.punchthrough.blestarterappandroid.DistanceRegression
 import kotlinx.serialization.Serializable
 import kotlin.math.pow
 
+private const val MAX_GENERIC_TABLES = 4
+private const val MIN_REGRESSION_SAMPLES = 5
+private const val NO_FILTER = -1
+
 /**
  * We decided to implement a Beacon class that will store and manage all the relevant mapping data and methods
  * just so that it can be used more simply across the activities
  * Previously we were relying on referencing MainActivity
+ *
+ * Threading: beacons are edited on the main thread while the positioning worker reads
+ * their name, coordinates and distances. Edits are synchronized and each field the
+ * worker reads is volatile and replaced whole, so the worker sees either the old or the
+ * new value. Only [calculateDistance] with a context reads from disk or the
+ * [BeaconRegistry]; the worker uses the overload without one.
  */
 @Serializable(with = BeaconSerializer::class)
 class Beacon(beaconName: String,
@@ -17,40 +27,84 @@ class Beacon(beaconName: String,
              y: Double,
              z: Double
 ) {
-    var beaconName = beaconName
-    private var calibrationRSSI = calibrationRSSI
-    private var coordinates = doubleArrayOf(x, y, z)
+    @Volatile var beaconName = beaconName
+    @Volatile private var calibrationRSSI = calibrationRSSI
+    @Volatile private var coordinates = doubleArrayOf(x, y, z)
     private var buzzerSensitivity = 0
     private var beaconType = BeaconType.DEFAULT
 
-    private var regressionFunction: DistanceRegression? = null
+    @Volatile private var regressionFunction: DistanceRegression? = null
     private var triedInitialisingRegressionFunction = false
 
-    // Kalman filter variables
-    private var filteredRSSI: Double = calibrationRSSI.toDouble() // Arbitrary value
-    private var estimateError: Double = 50.0  // P - estimate uncertainty
-    private val processNoise: Double = 0.5  // Q - how much we expect RSSI to change
-    private val measurementNoise: Double = 20.0  // R - sensor noise (tune based on RSSI variance)
-    private var isInitialized: Boolean = false
+    // Distance lookup tables, rebuilt lazily after the calibration or regression changes.
+    // Tables are replaced rather than mutated, so concurrent readers see a complete one.
+    // A table built while an edit bumped tablesVersion is not kept, as it may be stale.
+    @Volatile private var regressionTable: DistanceTable? = null
+    @Volatile private var genericTables: Array<DistanceTable> = emptyArray()
+    @Volatile private var tablesVersion = 0
+
+    // Kalman filter state lives in the shared filter bank, in a filter of this beacon's own,
+    // so it survives renaming and is not shared with other beacons of the same name. It is
+    // taken on first use, so beacons that are only loaded or copied take none
+    @Volatile private var beaconId = NO_FILTER
 
     public fun calculateDistance(rssi: Int, txPower: Int, context: Context): Double {
         if (regressionFunction === null) {
             generateRegressionFunction(rssi, txPower, context)
         }
+        return calculateDistance(rssi, txPower)
+    }
 
-        if (regressionFunction !== null) {
-            val regCoeff = regressionFunction!!.coefficients
-            val nonNegRssi = -rssi.toDouble()
-            val distance = regCoeff[0] * (nonNegRssi.pow(regCoeff[1]))
-//            val distance = regCoeff[0] * exp(nonNegRssi * regCoeff[1])
-            // val distance = regCoeff[0] + regCoeff[1] * log10(nonNegRssi)
-            return distance
+    /**
+     * Distance from the regression if one has been generated (see [generateRegressionFunction]),
+     * else from the path loss model. Never reads from disk, so it is safe on a worker thread.
+     */
+    public fun calculateDistance(rssi: Int, txPower: Int): Double {
+        val table = regressionTable ?: usableRegression()?.let { regression ->
+            // The table is dropped whenever a sample is added, so it always matches the fit
+            val version = tablesVersion
+            DistanceTable(0) { rssiValue -> regression.predict(rssiValue) }.also { keepTable(version) { regressionTable = it } }
+        }
+        if (table !== null) {
+            return table.distance(rssi)
         }
         return calculateDistanceGeneric(rssi, txPower)
     }
 
     public fun calculateDistanceGeneric(rssi: Int, txPower: Int): Double {
-        return 10.0.pow((calibrationRSSI - rssi).toDouble() / (10 * txPower).toDouble())
+        return genericTable(txPower).distance(rssi)
+    }
+
+    /**
+     * [calculateDistanceGeneric] for a fractional (e.g. filtered) RSSI, interpolated
+     * so the distance changes smoothly with the RSSI.
+     */
+    public fun calculateDistanceGeneric(rssi: Double, txPower: Int): Double {
+        return genericTable(txPower).distance(rssi)
+    }
+
+    /**
+     * Log-distance path loss table for [txPower] (10 times the path loss exponent in
+     * the formula below). Callers use a couple of different values, so a few are kept.
+     */
+    private fun genericTable(txPower: Int): DistanceTable {
+        val tables = genericTables
+        for (table in tables) {
+            if (table.key == txPower) return table
+        }
+        val version = tablesVersion
+        val calibration = calibrationRSSI
+        val table = DistanceTable(txPower) { rssi ->
+            10.0.pow((calibration - rssi) / (10 * txPower).toDouble())
+        }
+        keepTable(version) { genericTables = (arrayOf(table) + genericTables).take(MAX_GENERIC_TABLES).toTypedArray() }
+        return table
+    }
+
+    // Stores a lazily built table unless an edit invalidated the tables since it was started
+    @Synchronized
+    private fun keepTable(version: Int, store: () -> Unit) {
+        if (tablesVersion == version) store()
     }
 
     /**
@@ -62,62 +116,109 @@ class Beacon(beaconName: String,
             generateRegressionFunction(rssi, txPower, context)
         }
 
-        if (regressionFunction !== null) {
-            val regCoeff = regressionFunction!!.coefficients
-            val nonNegRssi = -rssi.toDouble()
-//            val distance = regCoeff[0] * (nonNegRssi.pow(regCoeff[1]))
-//            val distance = regCoeff[0] * exp(nonNegRssi * regCoeff[1])
-            val distance = regCoeff[0]* nonNegRssi.pow(regCoeff[1])
-            return distance
+        val regression = usableRegression()
+        if (regression !== null) {
+            return regression.predict(rssi.toDouble())
         }
 
         return -1.0;
     }
 
+    /**
+     * The regression, once it has enough samples to be trusted over the path loss model.
+     */
+    private fun usableRegression(): DistanceRegression? {
+        return regressionFunction?.takeIf { it.sampleCount >= MIN_REGRESSION_SAMPLES && it.model != null }
+    }
+
     /**
      * Attempts to generate a [DistanceRegression] for this beacon,
      * based on collected RSSI values.
      * @return whether or not a regression function was successfully generated.
      */
+    @Synchronized
     public fun generateRegressionFunction(rssi: Int, txPower: Int, context: Context): Boolean {
         if (triedInitialisingRegressionFunction) return false
 
         triedInitialisingRegressionFunction = true
 
-        val rssiCollection = RssiCollection.readFromFile(
-            context,
-            BeaconData.getBeaconMacAddress(this).toString(),
-            this.beaconName
-        )
+        // Streamed, so the recordings in the file are never held in memory
+        val regression = DistanceRegression()
+        RssiCollection.forEachMeasurement(context, BeaconData.getBeaconMacAddress(this).toString()) {
+            addToRegression(regression, it)
+        }
+        return useRegression(regression)
+    }
 
-        val measurements = rssiCollection.getMeasurements().filter { it.getType() == RssiValue.CollectionType.AVERAGE }
-        val yVal = DoubleArray(measurements.size)
-        val xVal = DoubleArray(measurements.size)
+    /**
+     * Replaces this beacon's [DistanceRegression] with one fitted to the AVERAGE
+     * measurements of [rssiCollection], without reading from disk.
+     * @return whether the regression has enough samples to be used.
+     */
+    @Synchronized
+    public fun loadRegression(rssiCollection: RssiCollection): Boolean {
+        triedInitialisingRegressionFunction = true
 
-        val oneMetreRssi = measurements.find { it.getMeasuredDistance() == 1.0 }
-        if (oneMetreRssi != null) {
-            calibrationRSSI = oneMetreRssi.getMeasuredRssi().toInt()
+        val regression = DistanceRegression()
+        for (measurement in rssiCollection.getMeasurements()) {
+            addToRegression(regression, measurement)
         }
+        return useRegression(regression)
+    }
+
+    /**
+     * Adds one calibration measurement to the regression in O(1), so distances follow
+     * the calibration as it is recorded.
+     */
+    @Synchronized
+    public fun addCalibrationMeasurement(measurement: RssiValue) {
+        if (measurement.getType() != RssiValue.CollectionType.AVERAGE) return
 
-        if (measurements.size > 4) {
-            for ((i, rssiVal) in measurements.withIndex()) {
-                yVal[i] = rssiVal.getMeasuredRssi() // it sooooo has to do with my indexing fuckkk
-                xVal[i] = rssiVal.getMeasuredDistance()
-            }
-            regressionFunction = DistanceRegression(xVal, yVal)
-            return true
+        val regression = regressionFunction ?: DistanceRegression().also { regressionFunction = it }
+        addToRegression(regression, measurement)
+        invalidateDistanceTables()
+    }
+
+    /**
+     * Adds an AVERAGE [measurement] to [regression]; the one at 1 m also sets the calibration RSSI.
+     */
+    private fun addToRegression(regression: DistanceRegression, measurement: RssiValue) {
+        if (measurement.getType() != RssiValue.CollectionType.AVERAGE) return
+
+        regression.add(measurement.getMeasuredDistance(), measurement.getMeasuredRssi())
+        if (measurement.getMeasuredDistance() == 1.0) {
+            calibrationRSSI = measurement.getMeasuredRssi().toInt()
         }
+    }
 
-        return false
+    private fun useRegression(regression: DistanceRegression): Boolean {
+        regressionFunction = regression
+        invalidateDistanceTables()
+        return usableRegression() !== null
+    }
+
+    /**
+     * @return the model the regression currently selects, or null if there is none yet.
+     */
+    public fun getRegressionModel(): DistanceRegression.Model? {
+        return regressionFunction?.model
     }
 
     public fun getRegressionCoefficients(): DoubleArray? {
         return regressionFunction?.coefficients
     }
 
+    @Synchronized
     public fun clearRegression() {
         regressionFunction = null
         triedInitialisingRegressionFunction = false
+        invalidateDistanceTables()
+    }
+
+    private fun invalidateDistanceTables() {
+        tablesVersion++
+        regressionTable = null
+        genericTables = emptyArray()
     }
 
     public fun getCalibrationRSSI(): Int {
@@ -153,36 +254,65 @@ class Beacon(beaconName: String,
         return beaconName;
     }
 
+    @Synchronized
     public fun updateData(beaconName: String, calibrationRSSI: Int, x: Double, y: Double, z: Double) {
         this.beaconName = beaconName
         this.calibrationRSSI = calibrationRSSI
         this.coordinates = doubleArrayOf(x, y, z)
+        invalidateDistanceTables()
     }
 
-    public fun updateFilteredRSSI(measuredRSSI: Int): Double {
-        if (!isInitialized) {
-            filteredRSSI = measuredRSSI.toDouble()
-            isInitialized = true
-            return filteredRSSI
-        }
+    /**
+     * ID of this beacon's filter in the shared [BeaconFilterBank], unique to this instance.
+     * Fingerprints key beacons by name instead (see [BeaconIdTable]).
+     */
+    public fun getBeaconId(): Int {
+        val id = beaconId
+        return if (id != NO_FILTER) id else takeFilter()
+    }
 
-        // Prediction step
-        val predictedError = estimateError + processNoise
+    @Synchronized
+    private fun takeFilter(): Int {
+        if (beaconId == NO_FILTER) beaconId = BeaconFilterBank.getInstance().newFilter()
+        return beaconId
+    }
 
-        // Update step
-        val kalmanGain = predictedError / (predictedError + measurementNoise)
-        filteredRSSI += kalmanGain * (measuredRSSI - filteredRSSI)
-        estimateError = (1 - kalmanGain) * predictedError
+    /**
+     * Returns this beacon's filter to the shared bank for reuse, once the [BeaconRegistry]
+     * drops the beacon. Filtering it again takes a new, unsampled filter.
+     */
+    @Synchronized
+    public fun releaseFilter() {
+        if (beaconId == NO_FILTER) return
+        BeaconFilterBank.getInstance().releaseFilter(beaconId)
+        beaconId = NO_FILTER
+    }
 
-        return filteredRSSI
+    /**
+     * Filters one RSSI sample; to filter a whole scan at once use [BeaconFilterBank.update].
+     */
+    public fun updateFilteredRSSI(measuredRSSI: Int): Double {
+        return updateFilteredRSSI(measuredRSSI, System.currentTimeMillis())
     }
 
+    /**
+     * Filters one RSSI sample measured at [timestamp] (epoch millis), e.g. when replaying a recording.
+     */
+    public fun updateFilteredRSSI(measuredRSSI: Int, timestamp: Long): Double {
+        return BeaconFilterBank.getInstance().update(getBeaconId(), measuredRSSI.toDouble(), timestamp)
+    }
+
+    /**
+     * @return the filtered RSSI, or the calibration RSSI if no sample has been filtered yet.
+     */
     public fun getFilteredRSSI(): Double {
-        return filteredRSSI
+        val id = beaconId
+        if (id == NO_FILTER) return calibrationRSSI.toDouble()
+        return BeaconFilterBank.getInstance().filtered(id, calibrationRSSI.toDouble())
     }
 
     public fun resetKalmanFilter() {
-        this.filteredRSSI = calibrationRSSI.toDouble()
-        this.isInitialized = false
+        val id = beaconId
+        if (id != NO_FILTER) BeaconFilterBank.getInstance().reset(id)
     }
 }
\ No newline at end of file
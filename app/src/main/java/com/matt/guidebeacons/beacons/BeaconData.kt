@@ -19,7 +19,7 @@ class BeaconData {
      * To add new built-in beacons, edit `/res/raw/default_beacons.json` instead.
      * @see[getBeaconProjects]
      */
-    private val beaconProjects = mutableMapOf(
+    private val beaconProjects = BeaconRegistry().apply { putAll(listOf(
         "80:EC:CC:CD:33:28" to Beacon("Losing Things", -60, 0.0, 1.0, 0.0),
         "80:EC:CC:CD:33:7C" to Beacon("Happy Mornings", -57, 1.0, 2.0, 0.0),
         "80:EC:CC:CD:33:7E" to Beacon("STEM", -59, 2.0, 2.0, 0.0),
@@ -28,16 +28,23 @@ class BeaconData {
         "00:3C:84:28:77:AB" to Beacon("Dance", -60, 1.00, 1.0, 0.0),
         "D8:F2:C8:9B:33:34" to Beacon("Origin", -62, 0.0, 0.0, 0.0),
         "6C:B2:FD:34:CE:9E" to Beacon("Bee", -75, 0.5, 0.5, 0.0)
-    )
+    )) }
 
     /**
-     * Map of MAC addresses to [Beacon] instances.
-     * Since MAC address strings are being used as keys, they are case-sensitive.
+     * Map of MAC addresses to [Beacon] instances, backed by the [BeaconRegistry].
+     * MAC addresses are matched case-insensitively.
      */
     fun getBeaconProjects(): MutableMap<String, Beacon> {
         return beaconProjects
     }
 
+    /**
+     * The [BeaconRegistry] behind [getBeaconProjects], for lookups by `Long` MAC address or beacon ID.
+     */
+    fun getBeaconRegistry(): BeaconRegistry {
+        return beaconProjects
+    }
+
     /**
      * Technically clears existing beacons and copies the passed in beacons into the existing map,
      * to avoid replacing the map reference. This is done to prevent breaking
@@ -49,13 +56,11 @@ class BeaconData {
     }
 
     /**
-     * Filters [beaconProjects] to find the MAC address for the given beacon.
+     * Looks up the MAC address for the given beacon in the registry's reverse index.
      * @return a MAC address string if the beacon is found, null otherwise.
      */
     fun getBeaconMacAddress(beacon: Beacon): String? {
-        val filtered = beaconProjects.filterValues { it == beacon }
-
-        return if (filtered.keys.isEmpty()) null else filtered.keys.first()
+        return beaconProjects.macAddressOf(beacon)
     }
 
 
@@ -76,6 +81,13 @@ class BeaconData {
             return getInstance().getBeaconProjects()
         }
 
+        /**
+         * @see[BeaconData.getBeaconRegistry]
+         */
+        fun getBeaconRegistry(): BeaconRegistry {
+            return getInstance().getBeaconRegistry()
+        }
+
         /**
          * @see[BeaconData.getBeaconMacAddress]
          */
@@ -0,0 +1,149 @@
+package com.matt.guidebeacons.beacons
+
+import kotlin.math.max
+
+/**
+ * Scalar Kalman filters smoothing the RSSI of every beacon, stored in parallel primitive
+ * arrays indexed by beacon ID (see [BeaconIdTable]).
+ * Process noise grows with the time since a beacon's last sample, so a beacon that has
+ * not been heard for a while adapts faster to its next reading. Samples closer together
+ * than [MIN_SAMPLE_INTERVAL] seconds are treated as that far apart.
+ * @param processNoisePerSecond Q per second of elapsed time - how much we expect RSSI to change
+ * @param measurementNoise R - sensor noise (tune based on RSSI variance)
+ * @param initialError P of a beacon's first sample - estimate uncertainty
+ */
+class BeaconFilterBank(
+    private val beaconIds: BeaconIdTable = BeaconIdTable.getInstance(),
+    private val processNoisePerSecond: Double = 0.5,
+    private val measurementNoise: Double = 20.0,
+    private val initialError: Double = 50.0
+) {
+    private var filtered = DoubleArray(0)
+    private var estimateError = DoubleArray(0)
+    private var lastSample = LongArray(0)
+
+    // Released filter IDs, handed out again before new ones
+    private val freeFilters = ArrayList<Int>()
+
+    /**
+     * Filters one sample of beacon [id] taken at [timestampMillis].
+     * @return the filtered RSSI.
+     */
+    @Synchronized
+    fun update(id: Int, rssi: Double, timestampMillis: Long): Double {
+        ensureCapacity(id + 1)
+        updateFilter(id, rssi, timestampMillis)
+        return filtered[id]
+    }
+
+    /**
+     * Filters a whole scan: the first [count] entries of [ids] and [rssi], all taken at
+     * [timestampMillis].
+     */
+    @Synchronized
+    fun update(ids: IntArray, rssi: IntArray, count: Int, timestampMillis: Long) {
+        var size = beaconIds.size
+        for (i in 0 until count) size = max(size, ids[i] + 1)
+        ensureCapacity(size)
+        for (i in 0 until count) {
+            updateFilter(ids[i], rssi[i].toDouble(), timestampMillis)
+        }
+    }
+
+    /**
+     * @return the filtered RSSI of beacon [id], or [default] if it has not been sampled.
+     */
+    @Synchronized
+    fun filtered(id: Int, default: Double = Double.NaN): Double {
+        return if (isSampled(id)) filtered[id] else default
+    }
+
+    /**
+     * Copies every beacon's filtered RSSI into [out], indexed by ID, with NaN for beacons
+     * that have not been sampled.
+     * @return the number of IDs copied, at most `out.size`.
+     */
+    @Synchronized
+    fun snapshot(out: DoubleArray): Int {
+        val count = minOf(out.size, filtered.size)
+        for (id in 0 until count) {
+            out[id] = if (lastSample[id] != NEVER) filtered[id] else Double.NaN
+        }
+        for (id in count until minOf(out.size, beaconIds.size)) out[id] = Double.NaN
+        return minOf(out.size, beaconIds.size)
+    }
+
+    /**
+     * @return the ID of an unsampled filter, reusing a released one if there is any.
+     */
+    @Synchronized
+    fun newFilter(): Int {
+        return if (freeFilters.isEmpty()) beaconIds.newId() else freeFilters.removeAt(freeFilters.size - 1)
+    }
+
+    /**
+     * Returns filter [id] from [newFilter] for reuse, once its owner will not be filtered again.
+     */
+    @Synchronized
+    fun releaseFilter(id: Int) {
+        reset(id)
+        freeFilters.add(id)
+    }
+
+    /** Forgets beacon [id]'s filter state; its next sample starts it again. */
+    @Synchronized
+    fun reset(id: Int) {
+        if (id < lastSample.size) lastSample[id] = NEVER
+    }
+
+    private fun isSampled(id: Int): Boolean = id < lastSample.size && lastSample[id] != NEVER
+
+    private fun updateFilter(id: Int, rssi: Double, timestampMillis: Long) {
+        if (lastSample[id] == NEVER) {
+            filtered[id] = rssi
+            estimateError[id] = initialError
+            lastSample[id] = timestampMillis
+            return
+        }
+
+        // Prediction step
+        val elapsedSeconds = max((timestampMillis - lastSample[id]) / 1000.0, MIN_SAMPLE_INTERVAL)
+        val predictedError = estimateError[id] + processNoisePerSecond * elapsedSeconds
+
+        // Update step
+        val kalmanGain = predictedError / (predictedError + measurementNoise)
+        filtered[id] += kalmanGain * (rssi - filtered[id])
+        estimateError[id] = (1 - kalmanGain) * predictedError
+        lastSample[id] = max(timestampMillis, lastSample[id])
+    }
+
+    private fun ensureCapacity(size: Int) {
+        if (size <= filtered.size) return
+        val capacity = max(size, filtered.size * 2)
+        filtered = filtered.copyOf(capacity)
+        estimateError = estimateError.copyOf(capacity)
+        val grown = LongArray(capacity) { NEVER }
+        lastSample.copyInto(grown)
+        lastSample = grown
+    }
+
+    companion object {
+        /** Smallest time between samples the process noise is scaled by, in seconds */
+        const val MIN_SAMPLE_INTERVAL = 0.1
+        private const val NEVER = Long.MIN_VALUE
+
+        @Volatile
+        private var instance: BeaconFilterBank? = null
+
+        /**
+         * Bank shared by all beacons, with a filter per [Beacon] instance (see [newFilter]),
+         * so beacons with the same name do not share one. The [BeaconRegistry] releases the
+         * filters of beacons it drops.
+         */
+        fun getInstance(): BeaconFilterBank {
+            return instance ?: synchronized(this) {
+                instance ?: BeaconFilterBank(BeaconIdTable()).also { instance = it }
+            }
+        }
+    }
+}
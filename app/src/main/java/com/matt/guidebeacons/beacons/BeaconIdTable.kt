@@ -0,0 +1,79 @@
+package com.matt.guidebeacons.beacons
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Interns beacon keys (names or MAC addresses) to dense integer IDs starting at 0,
+ * so per-beacon state can be stored in primitive arrays indexed by ID instead of
+ * maps keyed by strings.
+ * IDs are never reused or removed, so arrays sized with [size] stay valid for every
+ * ID handed out so far.
+ */
+class BeaconIdTable {
+    private val ids = ConcurrentHashMap<String, Int>()
+    private val keys = ArrayList<String>()
+
+    /**
+     * Number of IDs handed out so far; every ID is in `0 until size`.
+     */
+    @Volatile
+    var size = 0
+        private set
+
+    /**
+     * @return the ID for [key], assigning the next free one if it has not been seen before.
+     */
+    fun intern(key: String): Int {
+        return ids[key] ?: synchronized(this) {
+            ids[key] ?: keys.size.also { id ->
+                keys.add(key)
+                // Publish the new size before the ID, so a reader that sees the ID also
+                // sees a size covering it
+                size = keys.size
+                ids[key] = id
+            }
+        }
+    }
+
+    /**
+     * @return a new ID that no key interns to, for state that belongs to one object
+     * rather than to a key. Its [keyOf] is empty.
+     */
+    fun newId(): Int {
+        synchronized(this) {
+            keys.add("")
+            size = keys.size
+            return keys.size - 1
+        }
+    }
+
+    /**
+     * @return the ID for [key], or -1 if it has not been interned.
+     */
+    fun find(key: String): Int {
+        return ids[key] ?: -1
+    }
+
+    /**
+     * @return the key that was interned as [id].
+     */
+    fun keyOf(id: Int): String {
+        synchronized(this) {
+            return keys[id]
+        }
+    }
+
+    companion object {
+        @Volatile
+        private var instance: BeaconIdTable? = null
+
+        /**
+         * Table shared by the positioning pipeline, keyed by beacon name.
+         */
+        fun getInstance(): BeaconIdTable {
+            return instance ?: synchronized(this) {
+                instance ?: BeaconIdTable().also { instance = it }
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.matt.guidebeacons.beacons
+
+import java.util.IdentityHashMap
+
+/**
+ * Registry of the known beacons, keyed by MAC address.
+ *
+ * MAC addresses are stored as 48-bit `Long`s in an open-addressing hash table (linear
+ * probing, backward-shift deletion), so looking up a scanned address parses it rather
+ * than hashing the string, and does not allocate. Each beacon gets a dense integer ID in
+ * the order it was added, for arrays indexed by beacon, and a reverse index finds a
+ * [Beacon]'s MAC address without a scan. IDs are never reused, even once the registry is
+ * cleared, so tables others keep by ID cannot mistake a new beacon for an old one.
+ * Beacons that are removed, replaced or cleared release their filter (see
+ * [Beacon.releaseFilter]), so reloading beacons does not grow the filter bank.
+ *
+ * The registry is also the [MutableMap] of MAC address strings to [Beacon]s returned by
+ * [BeaconData.getBeaconProjects], iterating in the order beacons were added. Keys match
+ * case-insensitively, and adding a key that is not a MAC address throws
+ * [IllegalArgumentException].
+ */
+class BeaconRegistry : AbstractMutableMap<String, Beacon>() {
+    companion object {
+        private const val EMPTY = -1L
+        private const val INITIAL_CAPACITY = 16
+        private val HEX_DIGITS = "0123456789ABCDEF".toCharArray()
+
+        /**
+         * @return [address] ("AA:BB:CC:DD:EE:FF", either case) as a 48-bit number, or -1
+         * if it is not a MAC address.
+         */
+        fun parseMacAddress(address: String): Long {
+            if (address.length != 17) return -1L
+            var mac = 0L
+            for (i in 0 until 17) {
+                val c = address[i]
+                if (i % 3 == 2) {
+                    if (c != ':') return -1L
+                    continue
+                }
+                val digit = Character.digit(c, 16)
+                if (digit < 0) return -1L
+                mac = (mac shl 4) or digit.toLong()
+            }
+            return mac
+        }
+
+        /**
+         * @return [mac] as an upper-case "AA:BB:CC:DD:EE:FF" MAC address.
+         */
+        fun formatMacAddress(mac: Long): String {
+            val chars = CharArray(17)
+            for (octet in 0 until 6) {
+                val value = (mac ushr (40 - 8 * octet)).toInt() and 0xff
+                chars[octet * 3] = HEX_DIGITS[value ushr 4]
+                chars[octet * 3 + 1] = HEX_DIGITS[value and 0xf]
+                if (octet < 5) chars[octet * 3 + 2] = ':'
+            }
+            return String(chars)
+        }
+    }
+
+    // Hash table of MAC addresses (EMPTY if free) and the ID stored with each
+    private var tableKeys = LongArray(INITIAL_CAPACITY * 2) { EMPTY }
+    private var tableIds = IntArray(INITIAL_CAPACITY * 2)
+
+    // By ID, null for removed IDs
+    private var beacons = arrayOfNulls<Beacon>(INITIAL_CAPACITY)
+    private var addresses = arrayOfNulls<String>(INITIAL_CAPACITY)
+    private var macs = LongArray(INITIAL_CAPACITY)
+    private var nextId = 0
+    private var count = 0
+
+    private val idsByBeacon = IdentityHashMap<Beacon, Int>()
+
+    override val size: Int
+        get() = count
+
+    /** One more than the largest ID handed out; arrays indexed by ID need this many entries */
+    val idLimit: Int
+        get() = nextId
+
+    /**
+     * @return the ID of the beacon with MAC address [mac], or -1 if there is none.
+     */
+    fun idOf(mac: Long): Int {
+        if (mac < 0) return -1
+        val slot = slotOf(mac)
+        return if (tableKeys[slot] == EMPTY) -1 else tableIds[slot]
+    }
+
+    /**
+     * @return the ID of the beacon with MAC address [address], or -1 if there is none.
+     */
+    fun idOf(address: String): Int = idOf(parseMacAddress(address))
+
+    /**
+     * @return the ID of [beacon], or -1 if it is not registered.
+     */
+    fun idOf(beacon: Beacon): Int = idsByBeacon[beacon] ?: -1
+
+    /**
+     * @return the beacon with ID [id], or null if there is none.
+     */
+    fun beaconAt(id: Int): Beacon? = if (id in 0 until nextId) beacons[id] else null
+
+    /**
+     * @return the MAC address of the beacon with ID [id], or null if there is none.
+     */
+    fun macAddressAt(id: Int): String? = if (id in 0 until nextId) addresses[id] else null
+
+    /**
+     * @return the MAC address [beacon] is registered under, or null if it is not registered.
+     */
+    fun macAddressOf(beacon: Beacon): String? = macAddressAt(idOf(beacon))
+
+    operator fun get(mac: Long): Beacon? = beaconAt(idOf(mac))
+
+    override fun get(key: String): Beacon? = beaconAt(idOf(key))
+
+    override fun containsKey(key: String): Boolean = idOf(key) >= 0
+
+    override fun containsValue(value: Beacon): Boolean = idsByBeacon.containsKey(value)
+
+    override fun put(key: String, value: Beacon): Beacon? {
+        val mac = parseMacAddress(key)
+        require(mac >= 0) { "Not a MAC address: $key" }
+
+        val existing = idOf(mac)
+        if (existing >= 0) {
+            val previous = beacons[existing]
+            if (previous != null && idsByBeacon[previous] == existing) {
+                idsByBeacon.remove(previous)
+                if (previous !== value) previous.releaseFilter()
+            }
+            beacons[existing] = value
+            idsByBeacon[value] = existing
+            return previous
+        }
+
+        if ((count + 1) * 2 > tableKeys.size) rehash(tableKeys.size * 2)
+        if (nextId == beacons.size) {
+            val capacity = beacons.size * 2
+            beacons = beacons.copyOf(capacity)
+            addresses = addresses.copyOf(capacity)
+            macs = macs.copyOf(capacity)
+        }
+        val id = nextId++
+        val slot = slotOf(mac)
+        tableKeys[slot] = mac
+        tableIds[slot] = id
+        beacons[id] = value
+        addresses[id] = key
+        macs[id] = mac
+        idsByBeacon[value] = id
+        count++
+        return null
+    }
+
+    override fun remove(key: String): Beacon? {
+        val mac = parseMacAddress(key)
+        return if (mac < 0) null else remove(mac)
+    }
+
+    /**
+     * Removes the beacon with MAC address [mac].
+     * @return the removed beacon, or null if there was none.
+     */
+    fun remove(mac: Long): Beacon? {
+        val slot = slotOf(mac)
+        if (tableKeys[slot] == EMPTY) return null
+        val id = tableIds[slot]
+        removeSlot(slot)
+
+        val beacon = beacons[id]
+        beacons[id] = null
+        addresses[id] = null
+        if (beacon != null && idsByBeacon[beacon] == id) {
+            idsByBeacon.remove(beacon)
+            beacon.releaseFilter()
+        }
+        count--
+        return beacon
+    }
+
+    /** Removes every beacon; beacons added later get new IDs. */
+    override fun clear() {
+        for (beacon in idsByBeacon.keys) beacon.releaseFilter()
+        tableKeys.fill(EMPTY)
+        beacons.fill(null)
+        addresses.fill(null)
+        idsByBeacon.clear()
+        count = 0
+    }
+
+    override val entries: MutableSet<MutableMap.MutableEntry<String, Beacon>>
+        get() = EntrySet()
+
+    private inner class EntrySet : AbstractMutableSet<MutableMap.MutableEntry<String, Beacon>>() {
+        override val size: Int
+            get() = count
+
+        override fun add(element: MutableMap.MutableEntry<String, Beacon>): Boolean {
+            throw UnsupportedOperationException()
+        }
+
+        override fun iterator(): MutableIterator<MutableMap.MutableEntry<String, Beacon>> {
+            return object : MutableIterator<MutableMap.MutableEntry<String, Beacon>> {
+                private var next = nextUsedId(0)
+                private var current = -1
+
+                override fun hasNext(): Boolean = next < nextId
+
+                override fun next(): MutableMap.MutableEntry<String, Beacon> {
+                    if (next >= nextId) throw NoSuchElementException()
+                    current = next
+                    next = nextUsedId(next + 1)
+                    return Entry(current)
+                }
+
+                override fun remove() {
+                    check(current >= 0)
+                    this@BeaconRegistry.remove(macs[current])
+                    current = -1
+                }
+            }
+        }
+    }
+
+    private inner class Entry(private val id: Int) : MutableMap.MutableEntry<String, Beacon> {
+        override val key: String = addresses[id]!!
+        override val value: Beacon
+            get() = beacons[id] ?: throw IllegalStateException("Beacon $key was removed")
+
+        override fun setValue(newValue: Beacon): Beacon = put(key, newValue)!!
+
+        override fun equals(other: Any?): Boolean {
+            return other is Map.Entry<*, *> && other.key == key && other.value == value
+        }
+
+        override fun hashCode(): Int = key.hashCode() xor value.hashCode()
+
+        override fun toString(): String = "$key=$value"
+    }
+
+    private fun nextUsedId(from: Int): Int {
+        var id = from
+        while (id < nextId && beacons[id] == null) id++
+        return id
+    }
+
+    private fun hash(mac: Long): Int {
+        val h = mac * -0x61c8864680b583ebL // 2^64 / golden ratio
+        return (h xor (h ushr 32)).toInt()
+    }
+
+    /**
+     * @return the slot holding [mac], or the empty slot ending its probe sequence.
+     */
+    private fun slotOf(mac: Long): Int {
+        val mask = tableKeys.size - 1
+        var slot = hash(mac) and mask
+        while (true) {
+            val key = tableKeys[slot]
+            if (key == mac || key == EMPTY) return slot
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Empties [slot], moving later entries of its probe sequence back so lookups need no
+     * tombstones.
+     */
+    private fun removeSlot(slot: Int) {
+        val mask = tableKeys.size - 1
+        var hole = slot
+        var next = (hole + 1) and mask
+        while (tableKeys[next] != EMPTY) {
+            val home = hash(tableKeys[next]) and mask
+            // The entry can fill the hole if the hole is no further along its probe than it is
+            if (((next - home) and mask) >= ((next - hole) and mask)) {
+                tableKeys[hole] = tableKeys[next]
+                tableIds[hole] = tableIds[next]
+                hole = next
+            }
+            next = (next + 1) and mask
+        }
+        tableKeys[hole] = EMPTY
+    }
+
+    private fun rehash(tableSize: Int) {
+        tableKeys = LongArray(tableSize) { EMPTY }
+        tableIds = IntArray(tableSize)
+        for (id in 0 until nextId) {
+            if (beacons[id] == null) continue
+            val slot = slotOf(macs[id])
+            tableKeys[slot] = macs[id]
+            tableIds[slot] = id
+        }
+    }
+}
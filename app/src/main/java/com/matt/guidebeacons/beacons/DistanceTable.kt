@@ -0,0 +1,34 @@
+package com.matt.guidebeacons.beacons
+
+import kotlin.math.floor
+
+/**
+ * Precomputed RSSI-to-distance conversion for every integer RSSI a BLE scan can report,
+ * so converting an RSSI is an array lookup rather than a `pow`.
+ * Fractional RSSI (e.g. Kalman filtered) is linearly interpolated between the integer
+ * entries; the distance models are smooth, so this is within a fraction of a percent.
+ * RSSI outside the table falls back to evaluating [model] directly.
+ * @param key identifies the parameters the table was built with (e.g. path loss exponent).
+ * @param model distance for an RSSI.
+ */
+class DistanceTable(val key: Int, private val model: (Double) -> Double) {
+    companion object {
+        const val MIN_RSSI = -127
+        const val MAX_RSSI = 20
+    }
+
+    private val distances = DoubleArray(MAX_RSSI - MIN_RSSI + 1) { model((MIN_RSSI + it).toDouble()) }
+
+    fun distance(rssi: Int): Double {
+        if (rssi < MIN_RSSI || rssi > MAX_RSSI) return model(rssi.toDouble())
+        return distances[rssi - MIN_RSSI]
+    }
+
+    fun distance(rssi: Double): Double {
+        if (!(rssi >= MIN_RSSI && rssi < MAX_RSSI)) return model(rssi)
+        val lower = floor(rssi)
+        val index = lower.toInt() - MIN_RSSI
+        val fraction = rssi - lower
+        return distances[index] + fraction * (distances[index + 1] - distances[index])
+    }
+}
@@ -2,8 +2,28 @@ package com.matt.guidebeacons.beacons
 
 import android.content.Context
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.Transient
 import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.double
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.longOrNull
+import java.io.File
+import java.text.ParseException
+import java.text.SimpleDateFormat
+import java.util.Locale
+import kotlin.math.sqrt
 
+/**
+ * The RSSI values collected for one beacon.
+ * Saved to an append-only [RssiMeasurementLog], so [writeToFile] only writes what changed
+ * since the last save; [exportJson] writes the whole collection as JSON on request.
+ * Running [Statistics] are kept per (collection type, measured distance) as values are
+ * added, so averages and variances never need a pass over the measurements.
+ */
 @OptIn(kotlinx.serialization.InternalSerializationApi::class)
 @Serializable
 class RssiCollection private constructor(
@@ -19,16 +39,158 @@ class RssiCollection private constructor(
 
     private val measurements = mutableListOf<RssiValue>()
 
-    fun getMeasurements() : MutableList<RssiValue> {
+    // Log record index of each of the first appendedCount measurements; the rest are unsaved
+    @Transient private var recordIndices = IntArray(0)
+    @Transient private var appendedCount = 0
+    // Record indices of removed measurements, to be logged as deleted on the next save
+    @Transient private var pendingDeletes = IntArray(0)
+    @Transient private var pendingDeleteCount = 0
+    @Transient private var log: RssiMeasurementLog? = null
+    // Statistics for each collection type, keyed by measured distance
+    @Transient private val statistics = Array(RssiValue.CollectionType.values().size) { HashMap<Double, Statistics>() }
+
+    /**
+     * Count, mean and variance of the RSSI values in one (collection type, distance)
+     * bucket, updated one value at a time with Welford's algorithm.
+     */
+    class Statistics internal constructor() {
+        var count = 0
+            private set
+        var mean = 0.0
+            private set
+        // Sum of squared differences from the mean
+        private var m2 = 0.0
+        // Values of this bucket kept in the measurement list
+        internal var stored = 0
+
+        /** Population variance, as the collected values are the whole sample of interest */
+        val variance: Double
+            get() = if (count > 0) m2 / count else Double.NaN
+
+        val standardDeviation: Double
+            get() = sqrt(variance)
+
+        internal fun add(rssi: Double) {
+            count++
+            val delta = rssi - mean
+            mean += delta / count
+            m2 += delta * (rssi - mean)
+        }
+
+        internal fun remove(rssi: Double) {
+            if (count <= 1) {
+                count = 0
+                mean = 0.0
+                m2 = 0.0
+                return
+            }
+            val previousMean = (count * mean - rssi) / (count - 1)
+            m2 = maxOf(0.0, m2 - (rssi - previousMean) * (rssi - mean))
+            mean = previousMean
+            count--
+        }
+    }
+
+    fun getMeasurements() : List<RssiValue> {
         return measurements
     }
 
+    fun add(value: RssiValue) {
+        measurements.add(value)
+        bucket(value.getType(), value.getMeasuredDistance()).apply {
+            add(value.getMeasuredRssi())
+            stored++
+        }
+    }
+
+    /**
+     * Adds [rssi] to the statistics of ([type], [distance]) without keeping it as a
+     * measurement, e.g. for samples that are only recorded to be averaged.
+     */
+    fun record(type: RssiValue.CollectionType, distance: Double, rssi: Double) {
+        bucket(type, distance).add(rssi)
+    }
+
+    /**
+     * @return the statistics of the values of [type] measured at [distance], or null if there are none.
+     */
+    fun getStatistics(type: RssiValue.CollectionType, distance: Double) : Statistics? {
+        return statistics[type.ordinal][distance]
+    }
+
+    /**
+     * Clears the statistics of ([type], [distance]), removing any of its values kept as
+     * measurements. Without such values (see [record]) this is O(1).
+     */
+    fun clearStatistics(type: RssiValue.CollectionType, distance: Double) {
+        val cleared = statistics[type.ordinal].remove(distance) ?: return
+        if (cleared.stored > 0) {
+            removeAll { it.getType() == type && it.getMeasuredDistance() == distance }
+        }
+    }
+
+    private fun bucket(type: RssiValue.CollectionType, distance: Double) : Statistics {
+        return statistics[type.ordinal].getOrPut(distance) { Statistics() }
+    }
+
+    /**
+     * Removes every measurement matching [predicate].
+     * @return the number of measurements removed.
+     */
+    fun removeAll(predicate: (RssiValue) -> Boolean) : Int {
+        var kept = 0
+        var keptAppended = 0
+        for (i in measurements.indices) {
+            val value = measurements[i]
+            if (predicate(value)) {
+                if (i < appendedCount) queueDelete(recordIndices[i])
+                statistics[value.getType().ordinal][value.getMeasuredDistance()]?.let {
+                    it.remove(value.getMeasuredRssi())
+                    it.stored--
+                }
+                continue
+            }
+            if (i < appendedCount) recordIndices[keptAppended++] = recordIndices[i]
+            measurements[kept++] = value
+        }
+        val removed = measurements.size - kept
+        measurements.subList(kept, measurements.size).clear()
+        appendedCount = keptAppended
+        return removed
+    }
+
     /**
+     * Appends the measurements added and removed since the last save to the log,
+     * compacting it once most of its records are deleted.
+     */
+    fun writeToFile(context: Context) {
+        val log = log ?: RssiMeasurementLog(File(context.filesDir, getLogFileName(macAddress))).also { log = it }
+        timber.log.Timber.i("Saving RSSI collection for ${macAddress} (${readableName}) to ${log.file.path}")
+
+        if (recordIndices.size < measurements.size) {
+            recordIndices = recordIndices.copyOf(maxOf(measurements.size, recordIndices.size * 2))
+        }
+        val first = log.append(readableName, measurements, appendedCount, pendingDeletes, pendingDeleteCount)
+        for (i in appendedCount until measurements.size) {
+            recordIndices[i] = first + (i - appendedCount)
+        }
+        appendedCount = measurements.size
+        pendingDeleteCount = 0
+
+        if (log.needsCompaction()) {
+            timber.log.Timber.i("Compacting ${log.file.path}")
+            log.compact(readableName, measurements)
+            for (i in measurements.indices) recordIndices[i] = i
+        }
+    }
+
+    /**
+     * Writes the whole collection to a JSON file beside the log.
      * @return The JSON string that was written to file.
      */
-    fun writeToFile(context: Context, prettyPrint: Boolean = false) : String {
-        val fileName = getFileName(macAddress)
-        timber.log.Timber.i("Saving RSSI collection for ${macAddress} (${readableName}) to ${context.filesDir.path}/${fileName}")
+    fun exportJson(context: Context, prettyPrint: Boolean = false) : String {
+        val fileName = getJsonFileName(macAddress)
+        timber.log.Timber.i("Exporting RSSI collection for ${macAddress} (${readableName}) to ${context.filesDir.path}/${fileName}")
         val writer = Json { this.prettyPrint = prettyPrint }
         val json = writer.encodeToString(serializer(), this)
         context.openFileOutput(fileName, Context.MODE_PRIVATE).use {
@@ -38,32 +200,108 @@ class RssiCollection private constructor(
         return json
     }
 
+    private fun queueDelete(recordIndex: Int) {
+        if (pendingDeleteCount == pendingDeletes.size) {
+            pendingDeletes = pendingDeletes.copyOf(maxOf(16, pendingDeletes.size * 2))
+        }
+        pendingDeletes[pendingDeleteCount++] = recordIndex
+    }
+
     companion object {
-        private fun getFileName(macAddress: String) : String {
-            return "rssi_${macAddress.replace(':', '-')}.json"
+        private fun getFileStem(macAddress: String) : String {
+            return "rssi_${macAddress.replace(':', '-')}"
+        }
+
+        private fun getLogFileName(macAddress: String) : String {
+            return "${getFileStem(macAddress)}.log"
+        }
+
+        private fun getJsonFileName(macAddress: String) : String {
+            return "${getFileStem(macAddress)}.json"
         }
 
         /**
          * Attempts to read existing collected RSSI values from file using the given MAC address.
+         * A collection only saved as JSON by an older version is moved into a log.
          * If there is no existing file, creates a new [RssiCollection] instead.
          * @param[macAddress] the MAC address for the beacon the collection of RSSI values belong to.
          * @param[readableName] see [RssiCollection.readableName].
          */
         fun readFromFile(context: Context, macAddress: String, readableName: String) : RssiCollection {
-            val fileName = getFileName(macAddress)
-
-            val file = java.io.File(context.filesDir, fileName)
-            if (file.exists()) {
-                timber.log.Timber.i("Reading ${context.filesDir.path}/${fileName}")
-                context.openFileInput(fileName).bufferedReader().use {
-                    val reader = Json { ignoreUnknownKeys = true }
-                    return reader.decodeFromString(it.readText())
-                }
+            val collection = RssiCollection(macAddress, readableName)
+            val log = RssiMeasurementLog(File(context.filesDir, getLogFileName(macAddress)))
+            collection.log = log
+
+            if (log.file.exists()) {
+                timber.log.Timber.i("Reading ${log.file.path}")
+                log.read { index, value -> collection.addAppended(index, value) }
+                return collection
             }
-            else {
-                timber.log.Timber.i("${context.filesDir.path}/${fileName} does not exist, creating memory instance")
-                return RssiCollection(macAddress, readableName)
+
+            val jsonFile = File(context.filesDir, getJsonFileName(macAddress))
+            if (jsonFile.exists()) {
+                timber.log.Timber.i("Moving ${jsonFile.path} into ${log.file.path}")
+                readJson(jsonFile) { collection.add(it) }
+                collection.writeToFile(context)
+                return collection
             }
+
+            timber.log.Timber.i("${log.file.path} does not exist, creating memory instance")
+            return collection
+        }
+
+        /**
+         * Streams the saved RSSI values for [macAddress] to [action], oldest first,
+         * without holding the collection in memory.
+         */
+        fun forEachMeasurement(context: Context, macAddress: String, action: (RssiValue) -> Unit) {
+            val logFile = File(context.filesDir, getLogFileName(macAddress))
+            if (logFile.exists()) {
+                RssiMeasurementLog(logFile).read { _, value -> action(value) }
+                return
+            }
+            val jsonFile = File(context.filesDir, getJsonFileName(macAddress))
+            if (jsonFile.exists()) {
+                readJson(jsonFile, action)
+            }
+        }
+
+        /**
+         * Reads the measurements of a JSON collection, accepting both epoch millisecond
+         * timestamps and the [java.util.Date.toString] timestamps older versions wrote.
+         */
+        private fun readJson(file: File, action: (RssiValue) -> Unit) {
+            val root = Json.parseToJsonElement(file.readText()).jsonObject
+            val dateFormat = SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US)
+            for (element in root["measurements"]?.jsonArray ?: return) {
+                val measurement = element.jsonObject
+                action(
+                    RssiValue(
+                        measurement.getValue("measuredRssi").jsonPrimitive.double,
+                        measurement.getValue("measuredDistance").jsonPrimitive.double,
+                        parseTimestamp(measurement, dateFormat),
+                        RssiValue.CollectionType.valueOf(measurement.getValue("type").jsonPrimitive.content)
+                    )
+                )
+            }
+        }
+
+        private fun parseTimestamp(measurement: JsonObject, dateFormat: SimpleDateFormat) : Long {
+            val timestamp = measurement["timestamp"] as? JsonPrimitive ?: return 0L
+            timestamp.longOrNull?.let { return it }
+            return try {
+                dateFormat.parse(timestamp.content)?.time ?: 0L
+            } catch (e: ParseException) {
+                0L
+            }
+        }
+    }
+
+    private fun addAppended(recordIndex: Int, value: RssiValue) {
+        if (appendedCount == recordIndices.size) {
+            recordIndices = recordIndices.copyOf(maxOf(16, recordIndices.size * 2))
         }
+        add(value)
+        recordIndices[appendedCount++] = recordIndex
     }
-}
\ No newline at end of file
+}
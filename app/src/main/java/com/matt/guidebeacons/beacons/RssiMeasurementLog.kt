@@ -0,0 +1,224 @@
+package com.matt.guidebeacons.beacons
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.BitSet
+
+/**
+ * Append-only binary log of the RSSI measurements collected for one beacon.
+ *
+ * Saving appends only what changed since the last save: new measurements, and delete
+ * records naming the measurement records that were removed. A save therefore costs the
+ * size of the change, not of the whole collection. Once at least half the records are
+ * deleted, the log is compacted by rewriting its live records to a new file.
+ *
+ * Layout (big-endian):
+ * - header: magic, version, readable name ([NAME_SIZE] bytes, length + UTF-8)
+ * - measurement record: tag, collection type, RSSI, distance, timestamp (epoch millis)
+ * - delete record: tag, index of the measurement record it removes
+ *
+ * A record cut short (e.g. the app was killed mid-save) is ignored, and truncated away
+ * before the next append.
+ */
+class RssiMeasurementLog(val file: File) {
+    companion object {
+        private const val MAGIC = 0x52534c47 // "RSLG"
+        private const val VERSION = 1
+        private const val NAME_SIZE = 64
+        private const val HEADER_SIZE = 8 + NAME_SIZE
+        private const val MEASUREMENT = 1
+        private const val DELETE = 2
+        private const val MEASUREMENT_SIZE = 2 + 3 * 8
+        private const val DELETE_SIZE = 1 + 4
+        /** Fewest deleted records worth rewriting the log for */
+        private const val MIN_COMPACTION_DELETES = 64
+
+        private val collectionTypes = RssiValue.CollectionType.values()
+    }
+
+    /** Measurement records in the file, including deleted ones */
+    var recordCount = 0
+        private set
+
+    /** Measurement records removed by a delete record */
+    var deletedCount = 0
+        private set
+
+    // Length of the header and complete records, 0 if there is no valid log, -1 until scanned
+    private var validLength = -1L
+    private var deleted = BitSet()
+
+    /**
+     * Streams the live measurements to [action], oldest first, with their record index.
+     * @return the readable name in the header, or null if there is no valid log.
+     */
+    fun read(action: (index: Int, value: RssiValue) -> Unit): String? {
+        // Delete records follow the records they remove, so find them all first
+        val name = scan() ?: return null
+        openInput().use { input ->
+            input.readFully(ByteArray(HEADER_SIZE))
+            var offset = HEADER_SIZE.toLong()
+            var index = 0
+            while (offset < validLength) {
+                if (input.readByte().toInt() == MEASUREMENT) {
+                    val type = collectionTypes[input.readByte().toInt()]
+                    val rssi = input.readDouble()
+                    val distance = input.readDouble()
+                    val timestamp = input.readLong()
+                    if (!deleted[index]) action(index, RssiValue(rssi, distance, timestamp, type))
+                    index++
+                    offset += MEASUREMENT_SIZE
+                } else {
+                    input.readInt()
+                    offset += DELETE_SIZE
+                }
+            }
+        }
+        return name
+    }
+
+    /**
+     * Appends delete records for the first [deleteCount] record indices in [deletes],
+     * then measurement records for `values[from until values.size]`. Starts a new log
+     * if there is no valid one.
+     * @return the record index of `values[from]`.
+     */
+    fun append(readableName: String, values: List<RssiValue>, from: Int, deletes: IntArray, deleteCount: Int): Int {
+        if (validLength < 0) scan()
+        if (validLength == 0L) {
+            writeLog(file, readableName, emptyList())
+            validLength = HEADER_SIZE.toLong()
+        } else if (file.length() > validLength) {
+            RandomAccessFile(file, "rw").use { it.setLength(validLength) }
+        }
+
+        val first = recordCount
+        DataOutputStream(BufferedOutputStream(FileOutputStream(file, true))).use { output ->
+            for (i in 0 until deleteCount) {
+                val index = deletes[i]
+                if (index !in 0 until recordCount || deleted[index]) continue
+                output.writeByte(DELETE)
+                output.writeInt(index)
+                deleted.set(index)
+                deletedCount++
+                validLength += DELETE_SIZE
+            }
+            for (i in from until values.size) {
+                writeMeasurement(output, values[i])
+                recordCount++
+                validLength += MEASUREMENT_SIZE
+            }
+        }
+        return first
+    }
+
+    /** Whether enough of the log is deleted that [compact] is worth its cost */
+    fun needsCompaction(): Boolean {
+        return deletedCount >= MIN_COMPACTION_DELETES && deletedCount * 2 >= recordCount
+    }
+
+    /**
+     * Replaces the log with one holding only [values], whose record indices become
+     * their positions in the list. The new log is written beside the old one and
+     * renamed over it, so a failed compaction leaves the old log intact.
+     */
+    fun compact(readableName: String, values: List<RssiValue>) {
+        val compacted = File(file.path + ".tmp")
+        writeLog(compacted, readableName, values)
+        if (!compacted.renameTo(file)) {
+            compacted.delete()
+            throw IOException("Could not replace ${file.path}")
+        }
+        recordCount = values.size
+        deletedCount = 0
+        deleted = BitSet()
+        validLength = HEADER_SIZE + values.size.toLong() * MEASUREMENT_SIZE
+    }
+
+    /**
+     * Reads the header and record counts, and finds the deleted records.
+     * @return the readable name, or null if there is no valid log.
+     */
+    private fun scan(): String? {
+        recordCount = 0
+        deletedCount = 0
+        deleted = BitSet()
+        validLength = 0L
+        if (!file.exists()) return null
+
+        openInput().use { input ->
+            val name = try {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) return null
+                val nameBytes = ByteArray(NAME_SIZE)
+                input.readFully(nameBytes)
+                val length = ((nameBytes[0].toInt() and 0xff) shl 8 or (nameBytes[1].toInt() and 0xff))
+                    .coerceAtMost(NAME_SIZE - 2)
+                String(nameBytes, 2, length, Charsets.UTF_8)
+            } catch (e: EOFException) {
+                return null
+            }
+
+            var length = HEADER_SIZE.toLong()
+            while (true) {
+                val tag = input.read()
+                try {
+                    when (tag) {
+                        MEASUREMENT -> {
+                            val type = input.readByte().toInt()
+                            if (type !in collectionTypes.indices) break
+                            input.readFully(ByteArray(MEASUREMENT_SIZE - 2))
+                            recordCount++
+                            length += MEASUREMENT_SIZE
+                        }
+                        DELETE -> {
+                            val index = input.readInt()
+                            if (index in 0 until recordCount && !deleted[index]) {
+                                deleted.set(index)
+                                deletedCount++
+                            }
+                            length += DELETE_SIZE
+                        }
+                        else -> break // end of file, or not a record
+                    }
+                } catch (e: EOFException) {
+                    break
+                }
+            }
+            validLength = length
+            return name
+        }
+    }
+
+    private fun openInput(): DataInputStream {
+        return DataInputStream(BufferedInputStream(FileInputStream(file)))
+    }
+
+    private fun writeLog(target: File, readableName: String, values: List<RssiValue>) {
+        DataOutputStream(BufferedOutputStream(FileOutputStream(target))).use { output ->
+            output.writeInt(MAGIC)
+            output.writeInt(VERSION)
+            var nameBytes = readableName.toByteArray(Charsets.UTF_8)
+            if (nameBytes.size > NAME_SIZE - 2) nameBytes = nameBytes.copyOf(NAME_SIZE - 2)
+            output.writeShort(nameBytes.size)
+            output.write(nameBytes)
+            output.write(ByteArray(NAME_SIZE - 2 - nameBytes.size))
+            for (value in values) writeMeasurement(output, value)
+        }
+    }
+
+    private fun writeMeasurement(output: DataOutputStream, value: RssiValue) {
+        output.writeByte(MEASUREMENT)
+        output.writeByte(value.getType().ordinal)
+        output.writeDouble(value.getMeasuredRssi())
+        output.writeDouble(value.getMeasuredDistance())
+        output.writeLong(value.getTimestamp())
+    }
+}
@@ -1,18 +1,17 @@
 package com.matt.guidebeacons.beacons
 
 import kotlinx.serialization.Serializable
-import java.util.Calendar
 
 @OptIn(kotlinx.serialization.InternalSerializationApi::class)
 @Serializable
 class RssiValue(
     private val measuredRssi: Double,
     private val measuredDistance: Double,
-    private val timestamp: String,
+    private val timestamp: Long,
     private val type: CollectionType) {
 
     constructor(measuredRssi: Double, measuredDistance: Double, type: CollectionType)
-        : this(measuredRssi, measuredDistance, Calendar.getInstance().time.toString(), type)
+        : this(measuredRssi, measuredDistance, System.currentTimeMillis(), type)
 
     fun getMeasuredRssi() : Double {
         return measuredRssi
@@ -27,10 +26,10 @@ class RssiValue(
     }
 
     /**
-     * String representation of the time the RSSI value was captured, for potential sorting/tracking
-     * @see[java.util.Date]
+     * Time the RSSI value was captured in epoch milliseconds, for sorting/tracking
+     * @see[System.currentTimeMillis]
      */
-    fun getTimestamp() : String {
+    fun getTimestamp() : Long {
         return timestamp
     }
 
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import java.util.Arrays
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.random.Random
+
+/**
+ * Affinity propagation clustering of 2D points.
+ *
+ * Messages are stored in flat row-major [DoubleArray]s and each iteration is O(n²):
+ * - responsibilities use the row max and second max of a(i,k') + s(i,k'),
+ * - availabilities use per-column sums of positive responsibilities,
+ * instead of the naive O(n³) inner loops. Messages are damped in place, with one more
+ * matrix for the undamped responsibilities, and rows are updated in parallel on [pool]
+ * once there are at least [PARALLEL_THRESHOLD] points.
+ *
+ * Update order matches the original implementation: availabilities are computed from
+ * the undamped responsibilities, then both are damped.
+ *
+ * The four n x n buffers are allocated per call and released when it returns, since an
+ * instance lives as long as its calculator but clusters rarely. Calls are synchronized,
+ * as the buffers are fields.
+ */
+class AffinityPropagation(
+    private val dampingFactor: Double = 0.9,
+    private val maxIterations: Int = 100,
+    private val convergenceThreshold: Double = 1e-6,
+    private val pool: ForkJoinPool = BatchTrilateration.sharedPool(),
+    seed: Long = 0L
+) {
+    companion object {
+        private const val MIN_SIMILARITY = -1000.0
+        private const val NOISE_SCALE = 1e-10
+        private const val PARALLEL_THRESHOLD = 128
+        private const val ROWS_PER_TASK = 32
+    }
+
+    class Result(
+        /** Cluster index per point, indexing [centerIndices]; -1 if there are no clusters */
+        val labels: IntArray,
+        /** Point index of each cluster exemplar */
+        val centerIndices: IntArray,
+        val iterations: Int
+    )
+
+    private val random = Random(seed)
+
+    private var similarities = DoubleArray(0)
+    private var responsibilities = DoubleArray(0)
+    private var rawResponsibilities = DoubleArray(0)
+    private var availabilities = DoubleArray(0)
+    private var positiveColumnSums = DoubleArray(0)
+    private var rawDiagonal = DoubleArray(0)
+    private var rowMaxChange = DoubleArray(0)
+
+    /**
+     * Clusters points by negative squared euclidean distance, with tiny deterministic
+     * noise to break ties and the median similarity as every point's preference.
+     */
+    @Synchronized
+    fun cluster(x: DoubleArray, y: DoubleArray, n: Int = x.size): Result {
+        allocate(n)
+        try {
+            buildSimilarities(x, y, n, similarities)
+            return propagate(n)
+        } finally {
+            release()
+        }
+    }
+
+    /**
+     * Clusters from a precomputed row-major n x n similarity matrix whose diagonal
+     * already holds the preferences. The matrix is copied.
+     */
+    @Synchronized
+    fun clusterSimilarities(s: DoubleArray, n: Int): Result {
+        allocate(n)
+        try {
+            System.arraycopy(s, 0, similarities, 0, n * n)
+            return propagate(n)
+        } finally {
+            release()
+        }
+    }
+
+    /**
+     * Fills [out] (row-major, n x n) with similarities as used by [cluster].
+     */
+    fun buildSimilarities(x: DoubleArray, y: DoubleArray, n: Int, out: DoubleArray) {
+        for (i in 0 until n) {
+            val row = i * n
+            for (j in 0 until n) {
+                if (i != j) {
+                    val dx = x[i] - x[j]
+                    val dy = y[i] - y[j]
+                    val noise = (random.nextDouble() - 0.5) * NOISE_SCALE
+                    out[row + j] = -(dx * dx + dy * dy) + noise
+                } else {
+                    out[row + j] = 0.0
+                }
+            }
+        }
+
+        // Set preferences (diagonal) to median of non-zero off-diagonal similarities,
+        // using the responsibility buffer as sort scratch
+        val scratch = if (out === similarities) responsibilities else DoubleArray(n * n)
+        var count = 0
+        for (i in 0 until n * n) {
+            if (i % (n + 1) != 0 && out[i] != 0.0) scratch[count++] = out[i]
+        }
+        val median = if (count == 0) {
+            MIN_SIMILARITY
+        } else {
+            Arrays.sort(scratch, 0, count)
+            if (count % 2 == 0) (scratch[count / 2 - 1] + scratch[count / 2]) / 2.0 else scratch[count / 2]
+        }
+        for (i in 0 until n) {
+            out[i * n + i] = median
+        }
+    }
+
+    private fun allocate(n: Int) {
+        similarities = DoubleArray(n * n)
+        responsibilities = DoubleArray(n * n)
+        rawResponsibilities = DoubleArray(n * n)
+        availabilities = DoubleArray(n * n)
+        positiveColumnSums = DoubleArray(n)
+        rawDiagonal = DoubleArray(n)
+        rowMaxChange = DoubleArray(n)
+    }
+
+    private fun release() {
+        similarities = DoubleArray(0)
+        responsibilities = DoubleArray(0)
+        rawResponsibilities = DoubleArray(0)
+        availabilities = DoubleArray(0)
+    }
+
+    private fun propagate(n: Int): Result {
+        if (n == 0) return Result(IntArray(0), IntArray(0), 0)
+
+        var iteration = 0
+        var converged = false
+        while (!converged && iteration < maxIterations) {
+            forRows(n) { from, to -> updateResponsibilities(n, from, to) }
+            forRows(n) { from, to -> sumPositiveColumns(n, from, to) }
+            forRows(n) { from, to -> updateAvailabilitiesAndDamp(n, from, to) }
+
+            var maxChange = 0.0
+            for (i in 0 until n) maxChange = max(maxChange, rowMaxChange[i])
+            converged = maxChange < convergenceThreshold
+            iteration++
+        }
+
+        // Identify clusters
+        var centerCount = 0
+        for (i in 0 until n) {
+            if (responsibilities[i * n + i] + availabilities[i * n + i] > 0) centerCount++
+        }
+        val centers = IntArray(centerCount)
+        centerCount = 0
+        for (i in 0 until n) {
+            if (responsibilities[i * n + i] + availabilities[i * n + i] > 0) centers[centerCount++] = i
+        }
+
+        // Assign points to the most similar exemplar
+        val labels = IntArray(n)
+        for (i in 0 until n) {
+            var maxVal = Double.NEGATIVE_INFINITY
+            var best = -1
+            for (c in centers.indices) {
+                val value = similarities[i * n + centers[c]]
+                if (value > maxVal) {
+                    maxVal = value
+                    best = c
+                }
+            }
+            labels[i] = best
+        }
+
+        return Result(labels, centers, iteration)
+    }
+
+    /** r(i,k) = s(i,k) - max_{k' != k} (a(i,k') + s(i,k')), undamped, into the raw buffer */
+    private fun updateResponsibilities(n: Int, from: Int, to: Int) {
+        val s = similarities
+        val a = availabilities
+        val rNext = rawResponsibilities
+        for (i in from until to) {
+            val row = i * n
+            var first = Double.NEGATIVE_INFINITY
+            var second = Double.NEGATIVE_INFINITY
+            var argFirst = -1
+            for (k in 0 until n) {
+                val v = a[row + k] + s[row + k]
+                if (v > first) {
+                    second = first
+                    first = v
+                    argFirst = k
+                } else if (v > second) {
+                    second = v
+                }
+            }
+            for (k in 0 until n) {
+                rNext[row + k] = s[row + k] - if (k == argFirst) second else first
+            }
+        }
+    }
+
+    /** Column sums of max(0, r(i',k)) over i' != k, and the raw diagonal, for columns [from, to) */
+    private fun sumPositiveColumns(n: Int, from: Int, to: Int) {
+        val rNext = rawResponsibilities
+        Arrays.fill(positiveColumnSums, from, to, 0.0)
+        for (i in 0 until n) {
+            val row = i * n
+            for (k in from until to) {
+                if (k != i) positiveColumnSums[k] += max(0.0, rNext[row + k])
+            }
+        }
+        for (k in from until to) rawDiagonal[k] = rNext[k * n + k]
+    }
+
+    /**
+     * Availabilities from the undamped responsibilities, then damping and change tracking for
+     * both. Each message is read before it is damped in place; the column sums and raw
+     * diagonal already hold everything other rows need.
+     */
+    private fun updateAvailabilitiesAndDamp(n: Int, from: Int, to: Int) {
+        val r = responsibilities
+        val rNext = rawResponsibilities
+        val a = availabilities
+        val keep = dampingFactor
+        val take = 1 - dampingFactor
+        for (i in from until to) {
+            val row = i * n
+            var change = 0.0
+            for (k in 0 until n) {
+                val idx = row + k
+                val rawR = rNext[idx]
+                val rawA = if (i != k) {
+                    min(0.0, rawDiagonal[k] + positiveColumnSums[k] - max(0.0, rawR))
+                } else {
+                    positiveColumnSums[k]
+                }
+                val dampedR = rawR * take + r[idx] * keep
+                val dampedA = rawA * take + a[idx] * keep
+                change = max(change, max(abs(r[idx] - dampedR), abs(a[idx] - dampedA)))
+                r[idx] = dampedR
+                a[idx] = dampedA
+            }
+            rowMaxChange[i] = change
+        }
+    }
+
+    private inline fun forRows(n: Int, crossinline body: (Int, Int) -> Unit) {
+        if (n < PARALLEL_THRESHOLD) {
+            body(0, n)
+        } else {
+            pool.invoke(RowTask(0, n) { from, to -> body(from, to) })
+        }
+    }
+
+    private class RowTask(
+        private val from: Int,
+        private val to: Int,
+        private val body: (Int, Int) -> Unit
+    ) : RecursiveAction() {
+        override fun compute() {
+            if (to - from <= ROWS_PER_TASK) {
+                body(from, to)
+            } else {
+                val mid = (from + to) ushr 1
+                invokeAll(RowTask(from, mid, body), RowTask(mid, to, body))
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import android.annotation.SuppressLint
+import android.bluetooth.le.BluetoothLeScanner
+import android.bluetooth.le.ScanCallback
+import android.bluetooth.le.ScanResult
+import android.bluetooth.le.ScanSettings
+
+/**
+ * [BeaconScanner] backed by the platform [BluetoothLeScanner].
+ * Callers must hold the Bluetooth scan permissions.
+ */
+class AndroidBeaconScanner(
+    private val scanner: BluetoothLeScanner,
+    private val settings: ScanSettings
+) : BeaconScanner<ScanResult> {
+    private var callback: ScanCallback? = null
+
+    @SuppressLint("MissingPermission")
+    override fun startScan(listener: ScanListener<ScanResult>) {
+        stopScan()
+        val scanCallback = object : ScanCallback() {
+            override fun onScanResult(callbackType: Int, result: ScanResult) {
+                listener.onScanResult(result.device.address, result.rssi, result)
+            }
+
+            override fun onBatchScanResults(results: MutableList<ScanResult>) {
+                for (result in results) {
+                    listener.onScanResult(result.device.address, result.rssi, result)
+                }
+            }
+
+            override fun onScanFailed(errorCode: Int) {
+                listener.onScanFailed(errorCode)
+            }
+        }
+        callback = scanCallback
+        scanner.startScan(null, settings, scanCallback)
+    }
+
+    @SuppressLint("MissingPermission")
+    override fun stopScan() {
+        val scanCallback = callback ?: return
+        callback = null
+        scanner.stopScan(scanCallback)
+    }
+}
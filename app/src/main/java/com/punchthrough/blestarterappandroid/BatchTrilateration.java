@@ -0,0 +1,179 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Solves many independent trilateration problems in parallel, e.g. when replaying
+ * recorded scans offline to tune the solver.
+ *
+ * <p>Problems are passed as packed arrays with a fixed stride of {@code maxBeacons}
+ * beacons per problem:
+ * <ul>
+ *   <li>{@code initialGuesses}: N x [x, y, z]</li>
+ *   <li>{@code coordinates}: N x maxBeacons x [x, y, z]</li>
+ *   <li>{@code distances}: N x maxBeacons</li>
+ *   <li>{@code beaconCounts} (optional): how many of the maxBeacons slots each problem uses</li>
+ * </ul>
+ * Results are returned packed as N x [x, y, z].
+ *
+ * <p>Work is split recursively on a {@link ForkJoinPool}. Each worker thread keeps
+ * its own {@link TrilaterationFunction} workspace, so solving does not allocate
+ * per problem.
+ */
+public class BatchTrilateration {
+
+    /** Problems solved by a leaf task before it stops splitting */
+    private static final int DEFAULT_CHUNK_SIZE = 256;
+
+    /**
+     * Lazily created pool shared by the positioning code. {@link ForkJoinPool#commonPool()}
+     * is only available from API 24.
+     */
+    private static final class SharedPool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+
+    static ForkJoinPool sharedPool() {
+        return SharedPool.INSTANCE;
+    }
+
+    private final ForkJoinPool pool;
+    private final int maxBeacons;
+    private final int chunkSize;
+    private final ThreadLocal<TrilaterationFunction> workspaces;
+
+    /**
+     * Creates a batch solver running on the shared pool.
+     *
+     * @param maxBeacons Beacon stride of the packed input arrays
+     */
+    public BatchTrilateration(int maxBeacons) {
+        this(sharedPool(), maxBeacons, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param pool       Pool to run the solves on
+     * @param maxBeacons Beacon stride of the packed input arrays
+     * @param chunkSize  Number of problems solved serially by a single task
+     */
+    public BatchTrilateration(ForkJoinPool pool, int maxBeacons, int chunkSize) {
+        if (maxBeacons <= 0) {
+            throw new IllegalArgumentException("maxBeacons must be positive, got " + maxBeacons);
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive, got " + chunkSize);
+        }
+        this.pool = pool;
+        this.maxBeacons = maxBeacons;
+        this.chunkSize = chunkSize;
+        // ThreadLocal.withInitial needs API 26
+        this.workspaces = new ThreadLocal<TrilaterationFunction>() {
+            @Override
+            protected TrilaterationFunction initialValue() {
+                return new TrilaterationFunction(maxBeacons);
+            }
+        };
+    }
+
+    /**
+     * Solves all problems, using every slot of every problem.
+     *
+     * @see #solveAll(double[], double[], double[], int[])
+     */
+    public double[] solveAll(double[] initialGuesses, double[] coordinates, double[] distances) {
+        return solveAll(initialGuesses, coordinates, distances, null);
+    }
+
+    /**
+     * Solves all problems in parallel.
+     *
+     * @param initialGuesses Packed initial guesses, length N * 3
+     * @param coordinates    Packed beacon positions, length N * maxBeacons * 3
+     * @param distances      Packed measured distances, length N * maxBeacons
+     * @param beaconCounts   Beacons used per problem (each <= maxBeacons), or null to use all
+     * @return Packed estimated positions, length N * 3
+     */
+    public double[] solveAll(double[] initialGuesses, double[] coordinates, double[] distances,
+                             int[] beaconCounts) {
+        if (initialGuesses.length % 3 != 0) {
+            throw new IllegalArgumentException("initialGuesses length must be a multiple of 3, got " + initialGuesses.length);
+        }
+        int n = initialGuesses.length / 3;
+        if (coordinates.length != n * maxBeacons * 3) {
+            throw new IllegalArgumentException("Expected " + (n * maxBeacons * 3) + " coordinates, got " + coordinates.length);
+        }
+        if (distances.length != n * maxBeacons) {
+            throw new IllegalArgumentException("Expected " + (n * maxBeacons) + " distances, got " + distances.length);
+        }
+        if (beaconCounts != null && beaconCounts.length != n) {
+            throw new IllegalArgumentException("Expected " + n + " beacon counts, got " + beaconCounts.length);
+        }
+
+        double[] results = new double[n * 3];
+        pool.invoke(new SolveTask(initialGuesses, coordinates, distances, beaconCounts, results, 0, n));
+        return results;
+    }
+
+    private class SolveTask extends RecursiveAction {
+        private final double[] initialGuesses;
+        private final double[] coordinates;
+        private final double[] distances;
+        private final int[] beaconCounts;
+        private final double[] results;
+        private final int from;
+        private final int to;
+
+        SolveTask(double[] initialGuesses, double[] coordinates, double[] distances,
+                  int[] beaconCounts, double[] results, int from, int to) {
+            this.initialGuesses = initialGuesses;
+            this.coordinates = coordinates;
+            this.distances = distances;
+            this.beaconCounts = beaconCounts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                solveRange();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(
+                    new SolveTask(initialGuesses, coordinates, distances, beaconCounts, results, from, mid),
+                    new SolveTask(initialGuesses, coordinates, distances, beaconCounts, results, mid, to));
+        }
+
+        private void solveRange() {
+            TrilaterationFunction solver = workspaces.get();
+            for (int p = from; p < to; p++) {
+                int count = (beaconCounts == null) ? maxBeacons : beaconCounts[p];
+                solver.setProblem(
+                        initialGuesses, 3 * p,
+                        coordinates, 3 * maxBeacons * p,
+                        distances, maxBeacons * p,
+                        count);
+                solver.solve(results, 3 * p);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import com.matt.guidebeacons.beacons.BeaconRegistry
+import java.util.Random
+import kotlin.math.ceil
+import kotlin.math.log10
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+
+/**
+ * Simulates the advertisements a phone hears while walking through a field of beacons,
+ * for testing positioning at venue scale (tens to thousands of beacons) without hardware.
+ *
+ * Each beacon advertises every [advertisingIntervalMillis] at its own phase. The RSSI of an
+ * advertisement follows the log-distance path loss model the calculators assume (see
+ * [WeightedCentroidCalculator]), RSSI = calibration RSSI - 10 * n * log10(d), plus Gaussian
+ * shadowing noise of [shadowingSigma] dB. Advertisements are lost with probability
+ * [dropoutProbability], and those weaker than [sensitivity] are never heard.
+ *
+ * Runs are reproducible for a given [seed]. [record] writes a run as a [ScanRecording]
+ * to replay through the calculators with [ScanReplay] and [registry]; the
+ * [Trajectory] is the ground truth.
+ *
+ * @param beacons the layout, e.g. from [grid]; beacon heights are ignored.
+ * @param pathLossExponent n in the model above.
+ */
+class BeaconFieldSimulator(
+    val beacons: List<Beacon>,
+    private val pathLossExponent: Double = 2.0,
+    private val shadowingSigma: Double = 4.0,
+    private val dropoutProbability: Double = 0.1,
+    private val advertisingIntervalMillis: Long = 100L,
+    private val sensitivity: Int = -100,
+    seed: Long = 0L
+) {
+    companion object {
+        // Locally administered MAC addresses, numbered by beacon index
+        private const val MAC_PREFIX = 0x02_00_00_00_00_00L
+        private const val MIN_DISTANCE = 0.1 // m
+
+        /**
+         * @return [count] beacons in a square grid, [spacing] metres apart, offset from the
+         * origin (which [WeightedCentroidCalculator] rejects) by half a spacing.
+         */
+        fun grid(count: Int, spacing: Double, calibrationRSSI: Int = -59): List<Beacon> {
+            val side = ceil(sqrt(count.toDouble())).toInt()
+            return List(count) {
+                val x = (it % side + 0.5) * spacing
+                val y = (it / side + 0.5) * spacing
+                Beacon("simulated$it", calibrationRSSI, x, y, 1.0)
+            }
+        }
+
+        /** @return the simulated MAC address of the beacon at [index]. */
+        fun macAddressOf(index: Int): Long = MAC_PREFIX + index
+    }
+
+    init {
+        require(dropoutProbability in 0.0..1.0) { "dropoutProbability must be in [0, 1]" }
+        require(advertisingIntervalMillis > 0) { "advertisingIntervalMillis must be positive" }
+    }
+
+    /**
+     * A walk along straight segments between waypoints at a constant speed.
+     * @param x waypoint x coordinates, in m.
+     * @param y waypoint y coordinates, in m.
+     * @param speed walking speed, in m/s.
+     */
+    class Trajectory(private val x: DoubleArray, private val y: DoubleArray, private val speed: Double = 1.0) {
+        // Walking time from the start to each waypoint
+        private val arrivalMillis = DoubleArray(x.size)
+
+        init {
+            require(x.isNotEmpty() && x.size == y.size) { "need as many x as y coordinates, and at least one" }
+            require(speed > 0.0) { "speed must be positive" }
+            for (i in 1 until x.size) {
+                val dx = x[i] - x[i - 1]
+                val dy = y[i] - y[i - 1]
+                arrivalMillis[i] = arrivalMillis[i - 1] + sqrt(dx * dx + dy * dy) / speed * 1000.0
+            }
+        }
+
+        /** Time it takes to walk to the last waypoint */
+        val durationMillis: Long
+            get() = ceil(arrivalMillis.last()).toLong()
+
+        /**
+         * Writes the position [elapsedMillis] into the walk to [out] as (x, y); the walk
+         * stays at its ends outside of its duration.
+         */
+        fun locate(elapsedMillis: Long, out: DoubleArray) {
+            val time = elapsedMillis.toDouble()
+            var segment = 1
+            while (segment < x.size && arrivalMillis[segment] < time) segment++
+            if (time <= 0.0 || segment == x.size) {
+                val end = if (time <= 0.0) 0 else x.size - 1
+                out[0] = x[end]
+                out[1] = y[end]
+                return
+            }
+            val span = arrivalMillis[segment] - arrivalMillis[segment - 1]
+            val fraction = if (span <= 0.0) 1.0 else (time - arrivalMillis[segment - 1]) / span
+            out[0] = x[segment - 1] + (x[segment] - x[segment - 1]) * fraction
+            out[1] = y[segment - 1] + (y[segment] - y[segment - 1]) * fraction
+        }
+    }
+
+    private val random = Random(seed)
+    private val beaconX = DoubleArray(beacons.size) { beacons[it].getCoordinates()[0] }
+    private val beaconY = DoubleArray(beacons.size) { beacons[it].getCoordinates()[1] }
+    private val calibrationRSSI = IntArray(beacons.size) { beacons[it].getCalibrationRSSI() }
+    // Beacons in order of their advertising phase, so every interval is emitted in time order
+    private val phaseMillis = LongArray(beacons.size) { (random.nextDouble() * advertisingIntervalMillis).toLong() }
+    private val phaseOrder = beacons.indices.sortedBy { phaseMillis[it] }.toIntArray()
+
+    /**
+     * @return a registry of [beacons] under their simulated MAC addresses (see [macAddressOf]).
+     */
+    fun registry(): BeaconRegistry {
+        val registry = BeaconRegistry()
+        for (i in beacons.indices) registry[BeaconRegistry.formatMacAddress(macAddressOf(i))] = beacons[i]
+        return registry
+    }
+
+    /**
+     * Walks [trajectory] from [startTimestamp] (epoch millis) for [durationMillis], by
+     * default until its end, passing each advertisement heard to [action] in time order,
+     * with the index of its beacon.
+     * @return the number of advertisements heard.
+     */
+    fun run(
+        trajectory: Trajectory,
+        startTimestamp: Long = 0L,
+        durationMillis: Long = trajectory.durationMillis,
+        action: (timestamp: Long, beaconIndex: Int, rssi: Int) -> Unit
+    ): Int {
+        val user = DoubleArray(2)
+        var heard = 0
+        var intervalStart = 0L
+        while (intervalStart <= durationMillis) {
+            for (beacon in phaseOrder) {
+                val elapsed = intervalStart + phaseMillis[beacon]
+                if (elapsed > durationMillis) break
+                if (random.nextDouble() < dropoutProbability) continue
+
+                trajectory.locate(elapsed, user)
+                val rssi = sampleRSSI(beacon, user[0], user[1])
+                if (rssi < sensitivity) continue
+                action(startTimestamp + elapsed, beacon, rssi)
+                heard++
+            }
+            intervalStart += advertisingIntervalMillis
+        }
+        return heard
+    }
+
+    /**
+     * Records a [run] of [trajectory] with [recorder], under the beacons' simulated MAC
+     * addresses. The recording starts at the recorder's start timestamp.
+     * @return the number of advertisements recorded.
+     */
+    fun record(trajectory: Trajectory, recorder: ScanRecorder, startTimestamp: Long): Int {
+        return run(trajectory, startTimestamp, trajectory.durationMillis) { timestamp, beaconIndex, rssi ->
+            recorder.record(timestamp, macAddressOf(beaconIndex), rssi)
+        }
+    }
+
+    private fun sampleRSSI(beacon: Int, userX: Double, userY: Double): Int {
+        val dx = beaconX[beacon] - userX
+        val dy = beaconY[beacon] - userY
+        val distance = sqrt(dx * dx + dy * dy).coerceAtLeast(MIN_DISTANCE)
+        val rssi = calibrationRSSI[beacon] - 10 * pathLossExponent * log10(distance) +
+            shadowingSigma * random.nextGaussian()
+        return rssi.roundToInt()
+    }
+}
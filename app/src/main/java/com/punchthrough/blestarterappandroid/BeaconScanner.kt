@@ -0,0 +1,39 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+/**
+ * Source of BLE advertisements, so scan handling can be driven by a fake scanner in JVM
+ * tests. [T] is the platform's result type, passed through untouched.
+ */
+interface BeaconScanner<T> {
+    fun startScan(listener: ScanListener<T>)
+
+    fun stopScan()
+}
+
+/**
+ * Receives the advertisements of a [BeaconScanner].
+ */
+interface ScanListener<T> {
+    /**
+     * @param address MAC address of the advertising device.
+     */
+    fun onScanResult(address: String, rssi: Int, result: T)
+
+    fun onScanFailed(errorCode: Int) {}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * Picks the [maxBeacons] visible beacons with the best geometry for solving, so solvers
+ * run on a small, well-conditioned subset however many beacons are in range.
+ *
+ * A subset is scored by its geometric dilution of precision (GDOP) for 2D ranging from
+ * the user's estimated position: sqrt(trace((H^T W H)^-1)), where the rows of H are the
+ * unit vectors from the user to each beacon, and W weights each by 1 / d^2, as ranging
+ * error grows with the distance d. H^T W H is 2x2, so it is kept as three running sums
+ * and adding or removing a beacon updates the score in O(1).
+ *
+ * Selections are incremental: the beacons selected for the previous scan that are still
+ * visible are kept, the subset is filled greedily, and then beacons are swapped while a
+ * swap lowers the GDOP by more than [SWAP_GAIN]. Selecting costs O(visible beacons *
+ * [maxBeacons]) per pass.
+ *
+ * Not thread safe; the previous selection is kept between calls.
+ */
+class BeaconSelector(private val maxBeacons: Int = DEFAULT_MAX_BEACONS) {
+    companion object {
+        const val DEFAULT_MAX_BEACONS = 6
+        // Relative GDOP improvement a swap must make, so near ties do not flap between scans
+        private const val SWAP_GAIN = 0.05
+        private const val MAX_SWAP_PASSES = 4
+        private const val MIN_DISTANCE = 0.1 // m
+        private const val MIN_DETERMINANT = 1e-12
+    }
+
+    init {
+        require(maxBeacons >= 1) { "maxBeacons must be at least 1" }
+    }
+
+    // Weighted H^T W H contribution of each visible beacon: xx, xy, yy
+    private var termXX = DoubleArray(0)
+    private var termXY = DoubleArray(0)
+    private var termYY = DoubleArray(0)
+    private var selected = BooleanArray(0)
+
+    // By beacon ID, whether it was in the previous selection
+    private var previouslySelected = BooleanArray(0)
+    private var previousIds = IntArray(maxBeacons)
+    private var previousCount = 0
+
+    // Running sums of the selected terms
+    private var sumXX = 0.0
+    private var sumXY = 0.0
+    private var sumYY = 0.0
+
+    /** GDOP of the latest selection; infinite if its beacons are collinear or fewer than 2 */
+    var gdop = Double.POSITIVE_INFINITY
+        private set
+
+    /**
+     * Selects up to [maxBeacons] of [beacons] for a user estimated at ([userX], [userY]).
+     *
+     * @param beacons visible beacons, strongest first; ties in GDOP go to the stronger.
+     * @param distances estimated distance to each beacon.
+     * @return the selected beacons, in the order of [beacons].
+     */
+    fun select(beacons: List<Beacon>, distances: DoubleArray, userX: Double, userY: Double): List<Beacon> {
+        val n = beacons.size
+        ensureCapacity(n)
+        sumXX = 0.0
+        sumXY = 0.0
+        sumYY = 0.0
+        var count = 0
+
+        for (i in 0 until n) {
+            val coordinates = beacons[i].getCoordinates()
+            val dx = coordinates[0] - userX
+            val dy = coordinates[1] - userY
+            val range = sqrt(dx * dx + dy * dy)
+            val d = max(distances[i], MIN_DISTANCE)
+            // A beacon at the user's estimate gives no direction
+            val weight = if (range < MIN_DISTANCE) 0.0 else 1.0 / (d * d * range * range)
+            termXX[i] = dx * dx * weight
+            termXY[i] = dx * dy * weight
+            termYY[i] = dy * dy * weight
+
+            val id = beacons[i].getBeaconId()
+            selected[i] = count < maxBeacons && id < previouslySelected.size && previouslySelected[id]
+            if (selected[i]) {
+                add(i)
+                count++
+            }
+        }
+
+        // Fill greedily with the beacon that lowers the GDOP most
+        while (count < min(n, maxBeacons)) {
+            var best = -1
+            var bestScore = Double.POSITIVE_INFINITY
+            for (i in 0 until n) {
+                if (selected[i]) continue
+                val score = score(sumXX + termXX[i], sumXY + termXY[i], sumYY + termYY[i])
+                if (best < 0 || score < bestScore) {
+                    best = i
+                    bestScore = score
+                }
+            }
+            selected[best] = true
+            add(best)
+            count++
+        }
+
+        if (count < n) swap(n)
+
+        gdop = sqrt(score(sumXX, sumXY, sumYY))
+        remember(beacons, n)
+        val subset = ArrayList<Beacon>(count)
+        for (i in 0 until n) if (selected[i]) subset.add(beacons[i])
+        return subset
+    }
+
+    // Swaps a selected beacon for an unselected one while that lowers the GDOP enough
+    private fun swap(n: Int) {
+        repeat(MAX_SWAP_PASSES) {
+            var best = score(sumXX, sumXY, sumYY) * (1 - SWAP_GAIN) * (1 - SWAP_GAIN)
+            var bestOut = -1
+            var bestIn = -1
+            for (out in 0 until n) {
+                if (!selected[out]) continue
+                val xx = sumXX - termXX[out]
+                val xy = sumXY - termXY[out]
+                val yy = sumYY - termYY[out]
+                for (candidate in 0 until n) {
+                    if (selected[candidate]) continue
+                    val score = score(xx + termXX[candidate], xy + termXY[candidate], yy + termYY[candidate])
+                    if (score < best) {
+                        best = score
+                        bestOut = out
+                        bestIn = candidate
+                    }
+                }
+            }
+            if (bestOut < 0) return
+            selected[bestOut] = false
+            remove(bestOut)
+            selected[bestIn] = true
+            add(bestIn)
+        }
+    }
+
+    // GDOP^2 of the sums: trace of the inverse of [[xx, xy], [xy, yy]]
+    private fun score(xx: Double, xy: Double, yy: Double): Double {
+        val determinant = xx * yy - xy * xy
+        return if (determinant <= MIN_DETERMINANT) Double.POSITIVE_INFINITY else (xx + yy) / determinant
+    }
+
+    private fun add(i: Int) {
+        sumXX += termXX[i]
+        sumXY += termXY[i]
+        sumYY += termYY[i]
+    }
+
+    private fun remove(i: Int) {
+        sumXX -= termXX[i]
+        sumXY -= termXY[i]
+        sumYY -= termYY[i]
+    }
+
+    private fun remember(beacons: List<Beacon>, n: Int) {
+        for (i in 0 until previousCount) previouslySelected[previousIds[i]] = false
+        previousCount = 0
+        for (i in 0 until n) {
+            if (!selected[i]) continue
+            val id = beacons[i].getBeaconId()
+            if (id >= previouslySelected.size) previouslySelected = previouslySelected.copyOf(max(id + 1, previouslySelected.size * 2))
+            previouslySelected[id] = true
+            previousIds[previousCount++] = id
+        }
+    }
+
+    private fun ensureCapacity(n: Int) {
+        if (n <= termXX.size) return
+        termXX = DoubleArray(n)
+        termXY = DoubleArray(n)
+        termYY = DoubleArray(n)
+        selected = BooleanArray(n)
+    }
+}
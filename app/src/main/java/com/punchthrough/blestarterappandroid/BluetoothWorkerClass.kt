@@ -3,7 +3,6 @@ package com.punchthrough.blestarterappandroid
 import android.annotation.SuppressLint
 import android.bluetooth.BluetoothAdapter
 import android.bluetooth.BluetoothManager
-import android.bluetooth.le.ScanCallback
 import android.bluetooth.le.ScanResult
 import android.bluetooth.le.ScanSettings
 import android.content.Context
@@ -12,9 +11,12 @@ import android.os.Handler
 import android.os.Looper
 import android.widget.Toast
 import com.matt.guidebeacons.beacons.BeaconData
+import com.matt.guidebeacons.beacons.BeaconRegistry
 import com.matt.guidebeacons.utils.readableBleScanFailedErrorCode
 import com.punchthrough.blestarterappandroid.ble.ConnectionManager
 import timber.log.Timber
+import java.io.File
+import java.io.IOException
 
 
 /**
@@ -24,7 +26,6 @@ import timber.log.Timber
  * More on bluetooth in the doc
  */
 class BluetoothWorkerClass private constructor() {
-    private var scanResults = mutableListOf<ScanResult>()
     private var isScanning = false
     private lateinit var bluetoothAdapter: BluetoothAdapter
   //  private lateinit var bleScanner: android.bluetooth.le.BluetoothLeScanner
@@ -38,6 +39,13 @@ class BluetoothWorkerClass private constructor() {
     private val handler = Handler(Looper.getMainLooper())
 
     private val beaconProjects = BeaconData.getBeaconProjects()
+    private val beaconRegistry = BeaconData.getBeaconRegistry()
+
+    // Latest result of each beacon, published to scanCallback on the main thread at a bounded rate
+    private val scanAggregator = ScanAggregator<ScanResult>(
+        idOf = { address -> beaconRegistry.idOf(address) },
+        scheduler = { delayMillis, task -> handler.postDelayed(task, delayMillis) }
+    ) { results -> scanCallback?.invoke(results) }
 
     // Makes sure this class is only instantiated once
     // Separate from and independent to any other class (not like an activity)
@@ -61,7 +69,9 @@ class BluetoothWorkerClass private constructor() {
     private var continuousScanning = false
 
 
-    private var bleScanner: android.bluetooth.le.BluetoothLeScanner? = null
+    private var bleScanner: BeaconScanner<ScanResult>? = null
+    @Volatile
+    private var scanRecorder: ScanRecorder? = null
 
     fun initialize(context: Context) {
         appContext = context.applicationContext
@@ -82,7 +92,7 @@ class BluetoothWorkerClass private constructor() {
 
         // bluetoothLeScanner exists from API 21 (LOLLIPOP)
         bleScanner = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            bluetoothAdapter.bluetoothLeScanner
+            bluetoothAdapter.bluetoothLeScanner?.let { AndroidBeaconScanner(it, scanSettings) }
         } else {
             null
         }
@@ -115,7 +125,7 @@ class BluetoothWorkerClass private constructor() {
             if (isScanning) {
 
                 // Stop scanning
-                bleScanner?.stopScan(bleScanCallback)
+                bleScanner?.stopScan()
                 isScanning = false
                 Timber.d("Stopped BLE scan")
 
@@ -154,7 +164,7 @@ class BluetoothWorkerClass private constructor() {
         }
 
         if (appContext.hasRequiredRuntimePermissions()) {
-            bleScanner?.startScan(null, scanSettings, bleScanCallback)
+            bleScanner?.startScan(scanListener)
             isScanning = true
             Timber.d("Started BLE scan")
 
@@ -242,7 +252,7 @@ class BluetoothWorkerClass private constructor() {
         }
 
         scanCallback = callback
-        scanResults.clear()
+        scanAggregator.clear()
         continuousScanning = continuous
         scanPeriod = period
         scanInterval = interval
@@ -258,7 +268,7 @@ class BluetoothWorkerClass private constructor() {
 
         handler.removeCallbacks(scanRunnable)
         connectionCheckHandler.removeCallbacks(connectionCheckRunnable)
-        bleScanner?.stopScan(bleScanCallback)
+        bleScanner?.stopScan()
         isScanning = false
         continuousScanning = false
         connectedDevices.forEach { address ->
@@ -271,36 +281,65 @@ class BluetoothWorkerClass private constructor() {
             beacon.resetKalmanFilter()
         }
 
+        stopRecording()
+
         Timber.d("Stopped BLE scan and connection maintenance")
     }
 
     fun isScanning(): Boolean = isScanning
 
-    fun getCurrentResults(): List<ScanResult> = scanResults.toList()
+    fun getCurrentResults(): List<ScanResult> = scanAggregator.snapshot()
 
+    /**
+     * Advertisement counts of the scan aggregator, for monitoring how much is coalesced or dropped.
+     */
+    fun getScanCounters(): ScanAggregator.Counters = scanAggregator.counters()
 
-    private val bleScanCallback = object : ScanCallback() {
-        override fun onScanResult(callbackType: Int, result: ScanResult) {
-            if (result.device.address in beaconProjects) {
-                val indexQuery =
-                    scanResults.indexOfFirst { it.device.address == result.device.address }
-                if (indexQuery != -1) {
-                    scanResults[indexQuery] = result
-                } else {
-                    scanResults.add(result)
-                }
-            }
 
-            // Sort results by RSSI
-            scanResults.sortByDescending { it.rssi }
+    /**
+     * Records every advertisement received from now on to [file], replacing it, until
+     * [stopRecording] or [stopScanning]; replay the recording with [ScanReplay].
+     * Recording stops by itself if writing fails.
+     * @throws IOException if [file] cannot be created.
+     */
+    fun startRecording(file: File) {
+        stopRecording()
+        scanRecorder = ScanRecorder(file)
+        Timber.d("Recording scans to $file")
+    }
 
+    fun stopRecording() {
+        val recorder = scanRecorder ?: return
+        scanRecorder = null
+        try {
+            recorder.close()
+            Timber.d("Recorded ${recorder.count} advertisements to ${recorder.file}")
+        } catch (e: IOException) {
+            Timber.e(e, "Could not finish the scan recording ${recorder.file}")
+        }
+    }
+
+    private fun recordScan(address: String, rssi: Int) {
+        val recorder = scanRecorder ?: return
+        try {
+            recorder.record(System.currentTimeMillis(), BeaconRegistry.parseMacAddress(address), rssi)
+        } catch (e: IOException) {
+            // Keep scanning; only the recording is lost
+            Timber.e(e, "Could not record scans to ${recorder.file}, stopping the recording")
+            if (scanRecorder === recorder) stopRecording()
+        }
+    }
+
+    private val scanListener = object : ScanListener<ScanResult> {
+        override fun onScanResult(address: String, rssi: Int, result: ScanResult) {
             // Check and maintain connections
             //checkAndMaintainConnections()
 
-            // Notify callback on main thread
-            handler.post {
-                scanCallback?.invoke(scanResults.toList())
-            }
+            recordScan(address, rssi)
+
+            val start = PipelineMetrics.start()
+            scanAggregator.onScanResult(address, rssi, result)
+            PipelineMetrics.record(PipelineMetrics.Section.SCAN_DISPATCH, start)
         }
 
         override fun onScanFailed(errorCode: Int) {
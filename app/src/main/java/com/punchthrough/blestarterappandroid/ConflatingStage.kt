@@ -0,0 +1,97 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Hands values to [process] on [executor], keeping only the latest: a value offered
+ * while an earlier one is still waiting replaces it, so a slow consumer skips stale
+ * values instead of queueing them.
+ *
+ * At most one task of the stage is queued on [executor] at a time, and it processes a
+ * single value before re-queueing, so stages sharing an executor take turns.
+ *
+ * Once [stop]ped, or once [executor] rejects a task (e.g. it was shut down), the stage
+ * drops every value, including one already queued.
+ */
+class ConflatingStage<T : Any>(
+    private val executor: Executor,
+    private val process: (T) -> Unit
+) {
+    private val latest = AtomicReference<T?>(null)
+    private val scheduled = AtomicBoolean(false)
+    private val processedCount = AtomicLong()
+    private val droppedCount = AtomicLong()
+
+    @Volatile
+    private var stopped = false
+
+    /** Values processed so far */
+    val processed: Long
+        get() = processedCount.get()
+
+    /** Values replaced by a newer one before they were processed */
+    val dropped: Long
+        get() = droppedCount.get()
+
+    /** Whether the stage has stopped taking values */
+    val isStopped: Boolean
+        get() = stopped
+
+    private val drain = object : Runnable {
+        override fun run() {
+            try {
+                val value = latest.getAndSet(null)
+                if (value != null && !stopped) {
+                    process(value)
+                    processedCount.incrementAndGet()
+                }
+            } finally {
+                scheduled.set(false)
+                // A value offered while processing found the stage scheduled, so pick it up here
+                if (latest.get() != null && scheduled.compareAndSet(false, true)) schedule()
+            }
+        }
+    }
+
+    fun offer(value: T) {
+        if (stopped) return
+        if (latest.getAndSet(value) != null) droppedCount.incrementAndGet()
+        if (scheduled.compareAndSet(false, true)) schedule()
+    }
+
+    /** Drops the waiting value and every later one; a value being processed still finishes. */
+    fun stop() {
+        stopped = true
+        latest.set(null)
+    }
+
+    private fun schedule() {
+        try {
+            executor.execute(drain)
+        } catch (e: RejectedExecutionException) {
+            // The executor is shutting down, so nothing more can be processed
+            stop()
+            scheduled.set(false)
+        }
+    }
+}
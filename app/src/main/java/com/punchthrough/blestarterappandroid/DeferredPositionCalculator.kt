@@ -0,0 +1,52 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+
+/**
+ * Creates the calculator from [create] on the first thread that uses it, rather than on the
+ * thread constructing this, so a calculator loading a fingerprint database can be opened on
+ * the positioning worker, queued behind a previous calculator's [close].
+ *
+ * Only used from that one thread; [close] does nothing if the calculator was never created.
+ */
+class DeferredPositionCalculator(
+    private val create: () -> PositionCalculator
+) : PositionCalculator {
+    private var calculator: PositionCalculator? = null
+    private var closed = false
+
+    /** Creates the calculator now if not yet created, e.g. to load it before the first fix. */
+    fun open(): PositionCalculator {
+        check(!closed) { "Calculator is closed" }
+        return calculator ?: create().also { calculator = it }
+    }
+
+    override val rangeBased: Boolean
+        get() = open().rangeBased
+
+    override fun calculatePosition(beacons: List<Beacon>): Position? {
+        return open().calculatePosition(beacons)
+    }
+
+    override fun close() {
+        closed = true
+        calculator?.close()
+        calculator = null
+    }
+}
@@ -15,81 +15,313 @@
  */
 
 package com.punchthrough.blestarterappandroid;
+
+import java.util.Arrays;
+
+/**
+ * Online regression of distance (y) on RSSI (x).
+ *
+ * <p>Three models are fitted from running sums, so {@link #add} refits every model in
+ * O(1):
+ * <ul>
+ *   <li>{@link Model#POWER}: y = c0 * (-x)^c1, fitted linearly in log10 space</li>
+ *   <li>{@link Model#LOGARITHMIC}: y = c0 + c1 * log10(-x)</li>
+ *   <li>{@link Model#POLYNOMIAL}: y = c0 + c1 * x + c2 * x^2</li>
+ * </ul>
+ * The model with the smallest residual variance in distance space, sum((y - predicted)^2)
+ * / (n - coefficients), is selected, so the models are compared on the same scale
+ * whatever space they are fitted in. That needs the samples, which are kept; calibration
+ * has a few dozen at most, so selecting is O(n) per sample.
+ *
+ * <p>Samples the power or logarithmic models cannot represent (non-negative RSSI, or
+ * non-positive distance for the power model) are left out of those models, and out of
+ * the model comparison.
+ *
+ * <p>Predictions are at least {@link #MIN_DISTANCE}: the polynomial in particular dips to
+ * zero or below outside the calibrated RSSI range.
+ *
+ * <p>{@link #add} is not thread safe, but each fit is published as one immutable
+ * snapshot, so the getters and {@link #predict} may be called from other threads while
+ * samples are added, and always see a model with its own coefficients.
+ */
 public class DistanceRegression {
 
-    int n;
-    double[] y_vals;
-    double[] x_vals;
-    double[] lin_y;
-    double[] lin_x;
-    double sum_x;
-    double sum_y;
-    double sum_xy;
-    double sum_x_pow_2;
-    double av_y;
-    double av_x;
-    double a_0;
-    double a_1;
-    double[] coefficients;
+    public enum Model { POWER, LOGARITHMIC, POLYNOMIAL }
+
+    /** Typical RSSI the polynomial sums are centred on, to keep x^4 well conditioned */
+    private static final double POLYNOMIAL_CENTRE = -70;
+    /** Smallest distance predicted, in metres */
+    public static final double MIN_DISTANCE = 0.1;
+    private static final int INITIAL_SAMPLE_CAPACITY = 16;
+
+    /** A fitted model, published as a whole so readers never see a model without its coefficients */
+    private static final class Fit {
+        final int sampleCount;
+        final Model model;
+        final double[] coefficients;
+        final double powerRSquared, logRSquared, polyRSquared;
+
+        Fit(int sampleCount, Model model, double[] coefficients, double powerRSquared, double logRSquared,
+            double polyRSquared) {
+            this.sampleCount = sampleCount;
+            this.model = model;
+            this.coefficients = coefficients;
+            this.powerRSquared = powerRSquared;
+            this.logRSquared = logRSquared;
+            this.polyRSquared = polyRSquared;
+        }
+    }
+
+    private static final Fit NO_FIT = new Fit(0, null, null, Double.NaN, Double.NaN, Double.NaN);
+
+    // Power model: u = log10(-x), v = log10(y)
+    private int powerCount;
+    private double powerSumU, powerSumV, powerSumUV, powerSumUU, powerSumVV;
+
+    // Logarithmic model: u = log10(-x), y
+    private int logCount;
+    private double logSumU, logSumY, logSumUY, logSumUU, logSumYY;
 
+    // Polynomial model: u = x - POLYNOMIAL_CENTRE, y
+    private int polyCount;
+    private double polySumU, polySumU2, polySumU3, polySumU4, polySumY, polySumUY, polySumU2Y, polySumYY;
+
+    // Samples with negative RSSI, which every model can predict, for comparing the models
+    private double[] sampleX = new double[INITIAL_SAMPLE_CAPACITY];
+    private double[] sampleY = new double[INITIAL_SAMPLE_CAPACITY];
+    private int comparedCount;
+
+    private volatile Fit fit = NO_FIT;
+
+    public DistanceRegression() {
+    }
+
+    /**
+     * @param y_vals distances
+     * @param x_vals RSSI at each distance
+     */
     public DistanceRegression(double[] y_vals, double[] x_vals) {
-        this.n = y_vals.length;
-        this.y_vals = y_vals;
-        this.x_vals = x_vals;
-        this.lin_y = new double[n];
-        this.lin_x = new double[n];
-        this.sum_x = 0;
-        this.sum_y = 0;
-        this.av_x = 0;
-        this.av_y = 0;
-        PowerModelCurveFit();
-        // LogarithmicModelCurveFit();
-        // call get coefficients
-        // TODO: Implement the comparison of R Squared calculations to choose which is best fit
-        // TODO: Implement polyfit function
+        for (int i = 0; i < y_vals.length; i++) {
+            add(y_vals[i], x_vals[i]);
+        }
+    }
+
+    /**
+     * Adds a sample and refits every model.
+     *
+     * @param y distance
+     * @param x RSSI measured at that distance
+     */
+    public void add(double y, double x) {
+        // Double.isFinite needs API 24
+        if (Double.isNaN(x) || Double.isInfinite(x) || Double.isNaN(y) || Double.isInfinite(y)) {
+            return;
+        }
+        if (x < 0) {
+            if (comparedCount == sampleX.length) {
+                sampleX = Arrays.copyOf(sampleX, comparedCount * 2);
+                sampleY = Arrays.copyOf(sampleY, comparedCount * 2);
+            }
+            sampleX[comparedCount] = x;
+            sampleY[comparedCount] = y;
+            comparedCount++;
+
+            double u = Math.log10(-x);
+            logCount++;
+            logSumU += u;
+            logSumY += y;
+            logSumUY += u * y;
+            logSumUU += u * u;
+            logSumYY += y * y;
+
+            if (y > 0) {
+                double v = Math.log10(y);
+                powerCount++;
+                powerSumU += u;
+                powerSumV += v;
+                powerSumUV += u * v;
+                powerSumUU += u * u;
+                powerSumVV += v * v;
+            }
+        }
+
+        double u = x - POLYNOMIAL_CENTRE;
+        double u2 = u * u;
+        polyCount++;
+        polySumU += u;
+        polySumU2 += u2;
+        polySumU3 += u2 * u;
+        polySumU4 += u2 * u2;
+        polySumY += y;
+        polySumUY += u * y;
+        polySumU2Y += u2 * y;
+        polySumYY += y * y;
+
+        fit();
     }
 
-    // returns a double array of coefficients
-    public void PowerModelCurveFit() {
-        for (int i = 0; i < n; i++) {
-            lin_y[i] = Math.log10(y_vals[i]);
-            sum_y += lin_y[i];
+    /** @return the number of samples added */
+    public int getSampleCount() {
+        return fit.sampleCount;
+    }
+
+    /** @return the selected model, or null until any model can be fitted */
+    public Model getModel() {
+        return fit.model;
+    }
+
+    /** @return a copy of the selected model's coefficients, or null until any model can be fitted */
+    public double[] getCoefficients() {
+        double[] coefficients = fit.coefficients;
+        return coefficients == null ? null : coefficients.clone();
+    }
+
+    /**
+     * @return R^2 of {@code model} in the space it is fitted in (log10 y for the power
+     * model), NaN if it cannot be fitted yet
+     */
+    public double getRSquared(Model model) {
+        Fit current = fit;
+        switch (model) {
+            case POWER:
+                return current.powerRSquared;
+            case LOGARITHMIC:
+                return current.logRSquared;
+            default:
+                return current.polyRSquared;
         }
-        for (int i = 0; i < n; i++) {
-            lin_x[i] = Math.log10(-x_vals[i]);
-            sum_x += lin_x[i];
-            sum_xy += lin_y[i]*lin_x[i];
-            sum_x_pow_2 += Math.pow(lin_x[i],2);
+    }
+
+    /**
+     * @return the distance the selected model predicts for RSSI {@code x}, NaN if no model
+     * has been fitted
+     */
+    public double predict(double x) {
+        Fit current = fit;
+        return current.model == null ? Double.NaN : predict(current.model, current.coefficients, x);
+    }
+
+    // Math.max keeps NaN, for RSSI the power and logarithmic models are undefined at
+    private static double predict(Model model, double[] c, double x) {
+        switch (model) {
+            case POWER:
+                return Math.max(MIN_DISTANCE, c[0] * Math.pow(-x, c[1]));
+            case LOGARITHMIC:
+                return Math.max(MIN_DISTANCE, c[0] + c[1] * Math.log10(-x));
+            default:
+                return Math.max(MIN_DISTANCE, c[0] + x * (c[1] + x * c[2]));
         }
-        a_1 = ((n*sum_xy) - (sum_x*sum_y))/((n*sum_x_pow_2) - Math.pow((sum_x),2));
-        a_0 = sum_y/n - (a_1*(sum_x/n));
-        double alpha = Math.pow(10, a_0);
-        double beta = a_1;
-        this.coefficients = new double[2];
-        coefficients[0] = alpha;
-        coefficients[1] = beta;
     }
-    public void LogarithmicModelCurveFit() {
-        for (int i = 0; i < n; i++) {
-            lin_y[i] = y_vals[i];
-            sum_y += lin_y[i];
+
+    private void fit() {
+        double[] powerCoefficients = new double[2];
+        double[] logCoefficients = new double[2];
+        double[] polyCoefficients = new double[3];
+        double powerRSquared = fitLine(powerCount, powerSumU, powerSumV, powerSumUV, powerSumUU, powerSumVV,
+                powerCoefficients);
+        if (!Double.isNaN(powerRSquared)) {
+            // log10(y) = a + b log10(-x)  =>  y = 10^a (-x)^b
+            powerCoefficients[0] = Math.pow(10, powerCoefficients[0]);
         }
-        for (int i = 0; i < n; i++) {
-            lin_x[i] = Math.log10(-x_vals[i]);
-            sum_x += lin_x[i];
-            sum_xy += lin_y[i]*lin_x[i];
-            sum_x_pow_2 += Math.pow(lin_x[i],2);
+        double logRSquared = fitLine(logCount, logSumU, logSumY, logSumUY, logSumUU, logSumYY, logCoefficients);
+        double polyRSquared = fitQuadratic(polyCoefficients);
+
+        Model model = null;
+        double[] coefficients = null;
+        double best = Double.POSITIVE_INFINITY;
+        for (Model candidate : Model.values()) {
+            double[] candidateCoefficients = candidate == Model.POWER ? powerCoefficients
+                    : candidate == Model.LOGARITHMIC ? logCoefficients : polyCoefficients;
+            double rSquared = candidate == Model.POWER ? powerRSquared
+                    : candidate == Model.LOGARITHMIC ? logRSquared : polyRSquared;
+            if (Double.isNaN(rSquared)) {
+                continue;
+            }
+            double variance = residualVariance(candidate, candidateCoefficients);
+            if (variance < best) {
+                best = variance;
+                model = candidate;
+                coefficients = candidateCoefficients;
+            }
         }
-        a_0 = ((n*sum_xy) - (sum_x*sum_y))/((n*sum_x_pow_2) - Math.pow((sum_x),2));
-        a_1 = sum_y/n - (a_1*(sum_x/n));
-        double alpha = a_0;
-        double beta = a_1;
-        this.coefficients = new double[2];
-        coefficients[0] = alpha;
-        coefficients[1] = beta;
+        fit = new Fit(polyCount, model, coefficients, powerRSquared, logRSquared, polyRSquared);
     }
-    public double[] getCoefficients() {
-        return coefficients;
+
+    /**
+     * Residual variance of a fitted model over the compared samples, in distance space, with
+     * a degree of freedom per coefficient; NaN if there are too few samples.
+     */
+    private double residualVariance(Model candidate, double[] c) {
+        int degreesOfFreedom = comparedCount - c.length;
+        if (degreesOfFreedom <= 0) {
+            return Double.NaN;
+        }
+        double sse = 0;
+        for (int i = 0; i < comparedCount; i++) {
+            double residual = sampleY[i] - predict(candidate, c, sampleX[i]);
+            sse += residual * residual;
+        }
+        return sse / degreesOfFreedom;
+    }
+
+    /**
+     * Least squares line out = [intercept, slope] from running sums.
+     *
+     * @return R^2, or NaN if the line is undetermined
+     */
+    private static double fitLine(int n, double sumX, double sumY, double sumXY, double sumXX, double sumYY,
+                                  double[] out) {
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double sxx = n * sumXX - sumX * sumX;
+        double sxy = n * sumXY - sumX * sumY;
+        double syy = n * sumYY - sumY * sumY;
+        if (sxx <= 0) {
+            return Double.NaN;
+        }
+        double slope = sxy / sxx;
+        out[0] = (sumY - slope * sumX) / n;
+        out[1] = slope;
+        return syy <= 0 ? 1.0 : (sxy * sxy) / (sxx * syy);
     }
-}
 
+    /**
+     * Least squares quadratic from the 3x3 normal equations (in the centred u), converted
+     * to coefficients in x.
+     *
+     * @return R^2, or NaN if the quadratic is undetermined
+     */
+    private double fitQuadratic(double[] polyCoefficients) {
+        int n = polyCount;
+        if (n < 3) {
+            return Double.NaN;
+        }
+        double a00 = n, a01 = polySumU, a02 = polySumU2;
+        double a11 = polySumU2, a12 = polySumU3, a22 = polySumU4;
+        double b0 = polySumY, b1 = polySumUY, b2 = polySumU2Y;
+
+        // Cramer's rule on the symmetric system
+        double m00 = a11 * a22 - a12 * a12;
+        double m01 = a01 * a22 - a12 * a02;
+        double m02 = a01 * a12 - a11 * a02;
+        double det = a00 * m00 - a01 * m01 + a02 * m02;
+        if (Math.abs(det) <= 1e-12 * Math.abs(a00 * a11 * a22)) {
+            return Double.NaN;
+        }
+        double c0 = (b0 * m00 - a01 * (b1 * a22 - a12 * b2) + a02 * (b1 * a12 - a11 * b2)) / det;
+        double c1 = (a00 * (b1 * a22 - a12 * b2) - b0 * m01 + a02 * (a01 * b2 - b1 * a02)) / det;
+        double c2 = (a00 * (a11 * b2 - b1 * a12) - a01 * (a01 * b2 - b1 * a02) + b0 * m02) / det;
+
+        // SSE = sum(y^2) - c . b for the least squares solution
+        double sse = polySumYY - (c0 * b0 + c1 * b1 + c2 * b2);
+        double sst = polySumYY - polySumY * polySumY / n;
+
+        // y = c0 + c1 (x - s) + c2 (x - s)^2
+        double s = POLYNOMIAL_CENTRE;
+        polyCoefficients[0] = c0 - c1 * s + c2 * s * s;
+        polyCoefficients[1] = c1 - 2 * c2 * s;
+        polyCoefficients[2] = c2;
+        return sst <= 0 ? 1.0 : Math.max(0.0, 1 - sse / sst);
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.BeaconIdTable
+import com.punchthrough.blestarterappandroid.IndoorPositioningCalculator.Fingerprint
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Fingerprint database file, memory-mapped so records are written in place as
+ * fingerprints are learned and read back on the next start.
+ *
+ * The file mirrors a [FingerprintStore]: it has one fixed-size record per store slot,
+ * and [write] stores a fingerprint at the slot it was added to. Layout (big-endian):
+ * - header: magic, version, capacity, beacon columns, beacon count, record count
+ * - beacon name table: [maxBeacons] entries of [NAME_SIZE] bytes (length + UTF-8 name)
+ * - records: x, y, accuracy, timestamp, average RSSI, then one float RSSI per beacon
+ *   column (NaN if not visible)
+ *
+ * Beacon IDs are only stable within a session, so records are keyed by column in the
+ * file's own name table and mapped to [beaconIds] when read. Beacons beyond
+ * [maxBeacons] columns are not persisted, nor are beacons whose UTF-8 name is longer than
+ * a name table entry holds, since a cut name would not match them when read back.
+ *
+ * A file with a different capacity or column count, or that is not a fingerprint
+ * database, is discarded and reinitialized.
+ */
+class FingerprintDatabase(
+    file: File,
+    val capacity: Int,
+    private val beaconIds: BeaconIdTable = BeaconIdTable.getInstance(),
+    val maxBeacons: Int = DEFAULT_MAX_BEACONS
+) : Closeable {
+    companion object {
+        private const val MAGIC = 0x46504442 // "FPDB"
+        private const val VERSION = 1
+        private const val DEFAULT_MAX_BEACONS = 64
+        private const val HEADER_SIZE = 32
+        private const val NAME_SIZE = 64
+        private const val MAX_NAME_BYTES = NAME_SIZE - 2
+        private const val RECORD_HEADER_SIZE = 5 * 8
+
+        private const val CAPACITY_OFFSET = 8
+        private const val MAX_BEACONS_OFFSET = 12
+        private const val BEACON_COUNT_OFFSET = 16
+        private const val RECORD_COUNT_OFFSET = 20
+
+        private const val NO_COLUMN = -1
+        private const val NAME_TOO_LONG = -2
+    }
+
+    /**
+     * A fingerprint as read back from the file, with RSSI keyed by current beacon ID.
+     * @property slot the store slot it was written for.
+     */
+    class Record(
+        val slot: Int,
+        val position: Position,
+        val rssiValues: FloatArray,
+        val averageRssi: Double,
+        val timestamp: Long
+    )
+
+    private val recordSize = RECORD_HEADER_SIZE + 4 * maxBeacons
+    private val recordsOffset = HEADER_SIZE + NAME_SIZE * maxBeacons
+    private val randomAccessFile: RandomAccessFile
+    private val channel: FileChannel
+    private val buffer: MappedByteBuffer
+
+    // Column of each beacon ID, NO_COLUMN if it has none yet, NAME_TOO_LONG if it never will
+    private var columnOfId = IntArray(0)
+    private val columnIds = IntArray(maxBeacons)
+    private var beaconCount = 0
+
+    /** Number of records written, which are always in slots `0 until size` */
+    var size = 0
+        private set
+
+    init {
+        require(capacity > 0) { "capacity must be positive" }
+        val length = recordsOffset.toLong() + capacity.toLong() * recordSize
+        // FileChannel.open and File.toPath need API 26
+        randomAccessFile = RandomAccessFile(file, "rw")
+        channel = randomAccessFile.channel
+        val sameLength = channel.size() == length
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length)
+        if (sameLength && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION &&
+            buffer.getInt(CAPACITY_OFFSET) == capacity && buffer.getInt(MAX_BEACONS_OFFSET) == maxBeacons
+        ) {
+            beaconCount = buffer.getInt(BEACON_COUNT_OFFSET).coerceIn(0, maxBeacons)
+            size = buffer.getInt(RECORD_COUNT_OFFSET).coerceIn(0, capacity)
+            for (column in 0 until beaconCount) {
+                val id = beaconIds.intern(readName(column))
+                columnIds[column] = id
+                growColumnTable(id)
+                columnOfId[id] = column
+            }
+        } else {
+            buffer.putInt(0, MAGIC)
+            buffer.putInt(4, VERSION)
+            buffer.putInt(CAPACITY_OFFSET, capacity)
+            buffer.putInt(MAX_BEACONS_OFFSET, maxBeacons)
+            buffer.putInt(BEACON_COUNT_OFFSET, 0)
+            buffer.putInt(RECORD_COUNT_OFFSET, 0)
+        }
+    }
+
+    /**
+     * Reads every stored record, oldest first.
+     */
+    fun readAll(): List<Record> {
+        val records = ArrayList<Record>(size)
+        for (slot in 0 until size) {
+            val offset = recordOffset(slot)
+            val rssiValues = FloatArray(beaconIds.size) { Float.NaN }
+            for (column in 0 until beaconCount) {
+                rssiValues[columnIds[column]] = buffer.getFloat(offset + RECORD_HEADER_SIZE + 4 * column)
+            }
+            val timestamp = buffer.getLong(offset + 24)
+            records.add(
+                Record(
+                    slot = slot,
+                    position = Position(
+                        x = buffer.getDouble(offset),
+                        y = buffer.getDouble(offset + 8),
+                        accuracy = buffer.getDouble(offset + 16),
+                        timestamp = timestamp
+                    ),
+                    rssiValues = rssiValues,
+                    averageRssi = buffer.getDouble(offset + 32),
+                    timestamp = timestamp
+                )
+            )
+        }
+        records.sortBy { it.timestamp }
+        return records
+    }
+
+    /**
+     * Writes [fingerprint] to the record for store [slot], assigning columns to beacons
+     * seen for the first time.
+     */
+    fun write(slot: Int, fingerprint: Fingerprint) {
+        require(slot in 0 until capacity) { "slot $slot out of range" }
+        val offset = recordOffset(slot)
+        buffer.putDouble(offset, fingerprint.position.x)
+        buffer.putDouble(offset + 8, fingerprint.position.y)
+        buffer.putDouble(offset + 16, fingerprint.position.accuracy)
+        buffer.putLong(offset + 24, fingerprint.timestamp)
+        buffer.putDouble(offset + 32, fingerprint.averageRssi)
+
+        for (column in 0 until maxBeacons) {
+            buffer.putFloat(offset + RECORD_HEADER_SIZE + 4 * column, Float.NaN)
+        }
+        val rssiValues = fingerprint.rssiValues
+        for (id in rssiValues.indices) {
+            val rssi = rssiValues[id]
+            if (rssi.isNaN()) continue
+            val column = columnOf(id)
+            if (column >= 0) buffer.putFloat(offset + RECORD_HEADER_SIZE + 4 * column, rssi)
+        }
+
+        if (slot >= size) {
+            size = slot + 1
+            buffer.putInt(RECORD_COUNT_OFFSET, size)
+        }
+    }
+
+    /** Forces written records to storage. */
+    fun flush() {
+        buffer.force()
+    }
+
+    override fun close() {
+        flush()
+        randomAccessFile.close()
+    }
+
+    private fun recordOffset(slot: Int): Int = recordsOffset + slot * recordSize
+
+    /**
+     * @return the column of beacon [id], adding one if there is room, else -1.
+     */
+    private fun columnOf(id: Int): Int {
+        growColumnTable(id)
+        val existing = columnOfId[id]
+        if (existing >= 0) return existing
+        if (existing == NAME_TOO_LONG || beaconCount == maxBeacons) return -1
+
+        val name = beaconIds.keyOf(id).toByteArray(Charsets.UTF_8)
+        if (name.size > MAX_NAME_BYTES) {
+            columnOfId[id] = NAME_TOO_LONG
+            return -1
+        }
+        val column = beaconCount++
+        writeName(column, name)
+        columnIds[column] = id
+        columnOfId[id] = column
+        buffer.putInt(BEACON_COUNT_OFFSET, beaconCount)
+        return column
+    }
+
+    private fun growColumnTable(id: Int) {
+        if (id < columnOfId.size) return
+        val grown = IntArray(maxOf(id + 1, beaconIds.size)) { NO_COLUMN }
+        columnOfId.copyInto(grown)
+        columnOfId = grown
+    }
+
+    private fun readName(column: Int): String {
+        val offset = HEADER_SIZE + column * NAME_SIZE
+        val length = buffer.getShort(offset).toInt().coerceIn(0, MAX_NAME_BYTES)
+        val bytes = ByteArray(length)
+        for (i in 0 until length) bytes[i] = buffer.get(offset + 2 + i)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    private fun writeName(column: Int, bytes: ByteArray) {
+        val offset = HEADER_SIZE + column * NAME_SIZE
+        buffer.putShort(offset, bytes.size.toShort())
+        for (i in bytes.indices) buffer.put(offset + 2 + i, bytes[i])
+    }
+}
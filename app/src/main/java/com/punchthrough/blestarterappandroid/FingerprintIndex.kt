@@ -0,0 +1,219 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.punchthrough.blestarterappandroid.IndoorPositioningCalculator.Fingerprint
+import kotlin.math.ceil
+import kotlin.math.floor
+import kotlin.math.sqrt
+
+/**
+ * Index over the fingerprint database used to find similar fingerprints without
+ * scanning all of them.
+ *
+ * Two indexes are kept:
+ * - an inverted index from ranked beacon ID to the fingerprints ranking it. A
+ *   fingerprint only scores above zero if it shares a ranked beacon with the query,
+ *   so these posting lists hold every possible match.
+ * - a uniform grid over fingerprint positions, for queries within [gatingDistance]. The
+ *   cells are half the gating distance across, so a gated query walks 5 x 5 cells.
+ *
+ * [query] walks whichever source holds fewer candidates and keeps the best k in a
+ * bounded array instead of sorting all of them.
+ *
+ * Posting lists are kept in insertion order, so evicting the oldest fingerprint
+ * removes from the head of each list in O(1).
+ */
+class FingerprintIndex(val gatingDistance: Double = DEFAULT_GATING_DISTANCE) {
+    companion object {
+        // Fingerprints further than this from the current estimate are not the same place
+        const val DEFAULT_GATING_DISTANCE = 10.0 // metres
+        private const val MAX_GRID_RADIUS = 1 shl 16 // cells
+    }
+
+    init {
+        require(gatingDistance > 0.0) { "gatingDistance must be positive" }
+    }
+
+    private val cellSize = gatingDistance / 2
+
+    // Posting lists indexed by beacon ID
+    private val beaconPostings = ArrayList<ArrayDeque<Fingerprint>?>()
+    private val cells = HashMap<Long, ArrayDeque<Fingerprint>>()
+
+    var size = 0
+        private set
+
+    fun add(fingerprint: Fingerprint) {
+        for (beaconId in fingerprint.rankedBeacons) {
+            while (beaconPostings.size <= beaconId) beaconPostings.add(null)
+            val postings = beaconPostings[beaconId] ?: ArrayDeque<Fingerprint>().also { beaconPostings[beaconId] = it }
+            postings.addLast(fingerprint)
+        }
+        cells.getOrPut(cellKey(fingerprint.position)) { ArrayDeque() }.addLast(fingerprint)
+        size++
+    }
+
+    /**
+     * Removes [fingerprint] if it is in the index.
+     *
+     * @return whether it was.
+     */
+    fun remove(fingerprint: Fingerprint): Boolean {
+        val key = cellKey(fingerprint.position)
+        val cell = cells[key] ?: return false
+        if (!removeFrom(cell, fingerprint)) return false
+        if (cell.isEmpty()) cells.remove(key)
+        for (beaconId in fingerprint.rankedBeacons) {
+            val postings = postingsOf(beaconId) ?: continue
+            removeFrom(postings, fingerprint)
+        }
+        size--
+        return true
+    }
+
+    fun clear() {
+        beaconPostings.clear()
+        cells.clear()
+        size = 0
+    }
+
+    /**
+     * Returns up to [k] fingerprints sharing a ranked beacon with [current] and within
+     * [maxDistance] (by default [gatingDistance]) of its position, ordered by descending [score]. Fingerprints scoring
+     * zero or less are skipped.
+     */
+    fun query(
+        current: Fingerprint,
+        k: Int,
+        maxDistance: Double = gatingDistance,
+        score: (Fingerprint) -> Double
+    ): List<Fingerprint> {
+        if (k <= 0 || size == 0) return emptyList()
+
+        val best = arrayOfNulls<Fingerprint>(k)
+        val bestScores = DoubleArray(k) { Double.NEGATIVE_INFINITY }
+        var found = 0
+
+        fun consider(candidate: Fingerprint) {
+            if (distance(candidate.position, current.position) >= maxDistance) return
+            val s = score(candidate)
+            if (s <= 0.0 || (found == k && s <= bestScores[k - 1])) return
+            // Insertion into the bounded, descending top-k
+            var i = if (found < k) found++ else k - 1
+            while (i > 0 && bestScores[i - 1] < s) {
+                best[i] = best[i - 1]
+                bestScores[i] = bestScores[i - 1]
+                i--
+            }
+            best[i] = candidate
+            bestScores[i] = s
+        }
+
+        val ranked = current.rankedBeacons
+        var postingCount = 0
+        for (beaconId in ranked) postingCount += postingsOf(beaconId)?.size ?: 0
+
+        // Only walk the grid if the search square covers fewer cells than are occupied
+        val cellRadius = ceil(maxDistance / cellSize)
+        val useGrid = cellRadius < MAX_GRID_RADIUS &&
+            (2 * cellRadius.toLong() + 1).let { it * it } <= cells.size &&
+            countInCells(current.position, cellRadius.toInt()) < postingCount
+
+        if (useGrid) {
+            forEachInCells(current.position, cellRadius.toInt()) { candidate ->
+                if (sharesRankedBeacon(candidate, current)) consider(candidate)
+            }
+        } else {
+            for (j in ranked.indices) {
+                val postings = postingsOf(ranked[j]) ?: continue
+                for (candidate in postings) {
+                    // Fingerprints sharing several ranked beacons appear in several posting
+                    // lists; only consider them in the list of the first shared beacon
+                    if (!sharesRankedBeaconBefore(candidate, ranked, j)) consider(candidate)
+                }
+            }
+        }
+
+        return List(found) { best[it]!! }
+    }
+
+    private fun postingsOf(beaconId: Int): ArrayDeque<Fingerprint>? {
+        return if (beaconId < beaconPostings.size) beaconPostings[beaconId] else null
+    }
+
+    private fun sharesRankedBeacon(candidate: Fingerprint, current: Fingerprint): Boolean {
+        val a = candidate.rankedMask
+        val b = current.rankedMask
+        for (word in 0 until minOf(a.size, b.size)) {
+            if (a[word] and b[word] != 0L) return true
+        }
+        return false
+    }
+
+    private fun sharesRankedBeaconBefore(candidate: Fingerprint, ranked: IntArray, end: Int): Boolean {
+        val mask = candidate.rankedMask
+        for (j in 0 until end) {
+            val id = ranked[j]
+            if (id ushr 6 < mask.size && mask[id ushr 6] and (1L shl id) != 0L) return true
+        }
+        return false
+    }
+
+    private fun countInCells(position: Position, radius: Int): Int {
+        var count = 0
+        forEachCell(position, radius) { count += it.size }
+        return count
+    }
+
+    private inline fun forEachInCells(position: Position, radius: Int, action: (Fingerprint) -> Unit) {
+        forEachCell(position, radius) { cell -> for (fingerprint in cell) action(fingerprint) }
+    }
+
+    private inline fun forEachCell(position: Position, radius: Int, action: (ArrayDeque<Fingerprint>) -> Unit) {
+        val cx = cellCoordinate(position.x)
+        val cy = cellCoordinate(position.y)
+        for (x in cx - radius..cx + radius) {
+            for (y in cy - radius..cy + radius) {
+                cells[packCell(x, y)]?.let(action)
+            }
+        }
+    }
+
+    private fun removeFrom(deque: ArrayDeque<Fingerprint>, fingerprint: Fingerprint): Boolean {
+        if (deque.firstOrNull() === fingerprint) {
+            deque.removeFirst()
+            return true
+        }
+        val index = deque.indexOfFirst { it === fingerprint }
+        if (index < 0) return false
+        deque.removeAt(index)
+        return true
+    }
+
+    private fun cellCoordinate(v: Double): Int = floor(v / cellSize).toInt()
+
+    private fun cellKey(position: Position): Long = packCell(cellCoordinate(position.x), cellCoordinate(position.y))
+
+    private fun packCell(x: Int, y: Int): Long = (x.toLong() shl 32) or (y.toLong() and 0xFFFFFFFFL)
+
+    private fun distance(a: Position, b: Position): Double {
+        val dx = a.x - b.x
+        val dy = a.y - b.y
+        return sqrt(dx * dx + dy * dy)
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.punchthrough.blestarterappandroid.IndoorPositioningCalculator.Fingerprint
+
+/**
+ * Fixed-capacity fingerprint database with O(1) append and eviction.
+ *
+ * Every fingerprint lives in a slot in `0 until capacity` until it is evicted, so
+ * other structures (clusters, similarity caches) can refer to fingerprints by slot
+ * instead of copying them. Slots fill in order, so the occupied slots are always
+ * `0 until size`. Once full, adding a fingerprint overwrites the slot of the one
+ * chosen by [evictionPolicy].
+ *
+ * Age order is kept as a doubly linked list over slots. With [EvictionPolicy.OLDEST]
+ * the victim is always the list head and slots are reused in ring order.
+ *
+ * Fingerprint positions are mirrored in flat coordinate arrays so clustering can
+ * snapshot them with an array copy.
+ *
+ * @param similarity fingerprint similarity, required by [EvictionPolicy.LEAST_SIMILAR].
+ * @param redundancyRadius distance within which a newer fingerprint makes an older one
+ * redundant, for [EvictionPolicy.SPATIALLY_REDUNDANT].
+ * @param evictionWindow number of oldest fingerprints the non-oldest policies pick from,
+ * which keeps eviction O(1) in the capacity.
+ */
+class FingerprintStore(
+    val capacity: Int,
+    private val evictionPolicy: EvictionPolicy = EvictionPolicy.OLDEST,
+    private val similarity: ((Fingerprint, Fingerprint) -> Double)? = null,
+    private val redundancyRadius: Double = DEFAULT_REDUNDANCY_RADIUS,
+    private val evictionWindow: Int = DEFAULT_EVICTION_WINDOW
+) {
+    companion object {
+        private const val DEFAULT_REDUNDANCY_RADIUS = 1.0 // metres
+        private const val DEFAULT_EVICTION_WINDOW = 32
+        private const val NONE = -1
+    }
+
+    enum class EvictionPolicy {
+        /** Evict the oldest fingerprint */
+        OLDEST,
+        /** Evict the old fingerprint least similar to the one being added */
+        LEAST_SIMILAR,
+        /** Evict the oldest fingerprint within [redundancyRadius] of the one being added, else the oldest */
+        SPATIALLY_REDUNDANT
+    }
+
+    init {
+        require(capacity > 0) { "capacity must be positive" }
+        require(evictionPolicy != EvictionPolicy.LEAST_SIMILAR || similarity != null) {
+            "LEAST_SIMILAR eviction needs a similarity function"
+        }
+    }
+
+    private val slots = arrayOfNulls<Fingerprint>(capacity)
+    private val xs = DoubleArray(capacity)
+    private val ys = DoubleArray(capacity)
+    private val newer = IntArray(capacity)
+    private val older = IntArray(capacity)
+    private var oldest = NONE
+    private var newest = NONE
+
+    var size = 0
+        private set
+
+    fun isEmpty(): Boolean = size == 0
+
+    operator fun get(slot: Int): Fingerprint {
+        require(slot in 0 until size) { "slot $slot is not occupied" }
+        return slots[slot]!!
+    }
+
+    fun x(slot: Int): Double = xs[slot]
+
+    fun y(slot: Int): Double = ys[slot]
+
+    /**
+     * Adds [fingerprint], evicting one first if the store is full.
+     * @param onEvict called with the evicted fingerprint before its slot is reused.
+     * @return the slot the fingerprint was stored in.
+     */
+    fun add(fingerprint: Fingerprint, onEvict: ((Fingerprint) -> Unit)? = null): Int {
+        val slot = if (size < capacity) {
+            size++
+        } else {
+            val victim = selectVictim(fingerprint)
+            unlink(victim)
+            onEvict?.invoke(slots[victim]!!)
+            victim
+        }
+
+        slots[slot] = fingerprint
+        xs[slot] = fingerprint.position.x
+        ys[slot] = fingerprint.position.y
+        linkNewest(slot)
+        return slot
+    }
+
+    /**
+     * Refills an empty store with fingerprints that were persisted by slot (see
+     * [FingerprintDatabase]), keeping their slots so the file and the store stay in step.
+     * @param slotOf the slot of each fingerprint; together they must be `0 until slotOf.size`.
+     * @param fingerprints the fingerprints, oldest first.
+     */
+    fun restore(slotOf: IntArray, fingerprints: List<Fingerprint>) {
+        require(size == 0) { "store is not empty" }
+        val count = slotOf.size
+        require(count == fingerprints.size && count <= capacity) { "cannot restore $count fingerprints" }
+        for (i in 0 until count) {
+            val slot = slotOf[i]
+            require(slot in 0 until count && slots[slot] == null) { "slot $slot is out of range or restored twice" }
+            slots[slot] = fingerprints[i]
+            xs[slot] = fingerprints[i].position.x
+            ys[slot] = fingerprints[i].position.y
+            linkNewest(slot)
+        }
+        size = count
+    }
+
+    /**
+     * Copies the positions of slots `0 until size` into [x] and [y].
+     * @return the number of positions copied.
+     */
+    fun copyCoordinates(x: DoubleArray, y: DoubleArray): Int {
+        System.arraycopy(xs, 0, x, 0, size)
+        System.arraycopy(ys, 0, y, 0, size)
+        return size
+    }
+
+    /** Calls [action] with every occupied slot, oldest first. */
+    inline fun forEachSlot(action: (Int) -> Unit) {
+        var slot = oldestSlot()
+        while (slot >= 0) {
+            action(slot)
+            slot = newerSlot(slot)
+        }
+    }
+
+    /** The oldest occupied slot, or -1 if empty */
+    fun oldestSlot(): Int = oldest
+
+    /** The next newer slot after [slot], or -1 if [slot] is the newest */
+    fun newerSlot(slot: Int): Int = newer[slot]
+
+    fun clear() {
+        slots.fill(null)
+        oldest = NONE
+        newest = NONE
+        size = 0
+    }
+
+    private fun selectVictim(incoming: Fingerprint): Int {
+        return when (evictionPolicy) {
+            EvictionPolicy.OLDEST -> oldest
+            EvictionPolicy.LEAST_SIMILAR -> {
+                val similarity = similarity!!
+                var victim = oldest
+                var lowest = Double.POSITIVE_INFINITY
+                var slot = oldest
+                var seen = 0
+                while (slot != NONE && seen < evictionWindow) {
+                    val s = similarity(slots[slot]!!, incoming)
+                    if (s < lowest) {
+                        lowest = s
+                        victim = slot
+                    }
+                    slot = newer[slot]
+                    seen++
+                }
+                victim
+            }
+            EvictionPolicy.SPATIALLY_REDUNDANT -> {
+                val radiusSquared = redundancyRadius * redundancyRadius
+                var slot = oldest
+                var seen = 0
+                while (slot != NONE && seen < evictionWindow) {
+                    val dx = xs[slot] - incoming.position.x
+                    val dy = ys[slot] - incoming.position.y
+                    if (dx * dx + dy * dy <= radiusSquared) return slot
+                    slot = newer[slot]
+                    seen++
+                }
+                oldest
+            }
+        }
+    }
+
+    private fun unlink(slot: Int) {
+        val before = older[slot]
+        val after = newer[slot]
+        if (before != NONE) newer[before] = after else oldest = after
+        if (after != NONE) older[after] = before else newest = before
+    }
+
+    private fun linkNewest(slot: Int) {
+        older[slot] = newest
+        newer[slot] = NONE
+        if (newest != NONE) newer[newest] = slot else oldest = slot
+        newest = slot
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid;
+
+import java.util.Arrays;
+
+/**
+ * Trilateration engine that keeps its normal equations up to date incrementally as
+ * individual beacons appear, disappear or report a new distance.
+ *
+ * <p>The nonlinear Jacobian used by {@link TrilaterationFunction} depends on the
+ * current position, so its JᵀWJ has to be rebuilt from every beacon on every
+ * iteration. This engine instead uses the linear formulation of the sphere equations
+ * <pre>|p|² - 2 b_i · p = d_i² - |b_i|²</pre>
+ * with unknowns [x, y, z, R = |p|²]. Each beacon contributes a fixed row
+ * a_i = [-2b_x, -2b_y, -2b_z, 1], so:
+ * <ul>
+ *   <li>adding or removing a beacon is a rank-1 update of the 4x4 AᵀWA: O(1)</li>
+ *   <li>a new distance for a beacon only changes its right hand side, so only AᵀWc
+ *       changes: O(1)</li>
+ *   <li>{@link #solve(double[])} solves a fixed size system: O(1)</li>
+ * </ul>
+ *
+ * <p>When the beacons are coplanar in z (the usual case of beacons mounted at one
+ * height) the z column is a multiple of the R column. The engine then solves for
+ * [x, y, u] with u = |p|² - 2·z0·z and recovers z from the sphere constraint, picking
+ * the root closest to {@link #setHeightHint(double) the height hint}.
+ *
+ * <p>Per-beacon weights are kept from the last {@link #reweight(double[])}, which
+ * recomputes Huber weights from the true distance residuals in O(numBeacons). Call it
+ * occasionally (e.g. once per scan cycle) rather than on every update. The result is
+ * a good start point for a few {@link TrilaterationFunction} iterations.
+ *
+ * <p>Beacons are addressed by slot, e.g. a dense beacon ID. Instances are not
+ * thread-safe.
+ */
+public class IncrementalTrilateration {
+
+    /**
+     * Rank-1 downdates slowly accumulate rounding error, so the normal equations are
+     * rebuilt from the per-beacon state after this many updates.
+     */
+    private static final int REBUILD_INTERVAL = 4096;
+
+    private static final double SINGULAR_THRESHOLD = 1e-12;
+    private static final double COPLANAR_THRESHOLD = 1e-9;
+
+    private static final int X = 0, Y = 1, Z = 2, R = 3;
+    private static final int[] COPLANAR_UNKNOWNS = {X, Y, R};
+
+    private final int capacity;
+    private int activeCount;
+    private int updatesSinceRebuild;
+    private double heightHint = Double.NaN;
+
+    // Per-beacon state
+    private final boolean[] active;
+    private final double[] coords; // row-major [x0, y0, z0, x1, ...]
+    private final double[] distances;
+    private final double[] weights;
+
+    // Normal equations: AᵀWA (4x4 row-major) and AᵀWc
+    private final double[] normal = new double[16];
+    private final double[] rhs = new double[4];
+
+    // Solve scratch
+    private final double[] m = new double[16];
+    private final double[] v = new double[4];
+    private final double[] sol = new double[4];
+
+    /**
+     * @param capacity Number of beacon slots
+     */
+    public IncrementalTrilateration(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.active = new boolean[capacity];
+        this.coords = new double[3 * capacity];
+        this.distances = new double[capacity];
+        this.weights = new double[capacity];
+    }
+
+    /** @return Number of beacons currently contributing */
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    /** @return Whether the given slot currently holds a beacon */
+    public boolean isActive(int slot) {
+        return active[slot];
+    }
+
+    /**
+     * Sets the height used to pick between the two solutions mirrored about the
+     * beacon plane when all beacons share a z coordinate. Defaults to above the plane.
+     */
+    public void setHeightHint(double z) {
+        this.heightHint = z;
+    }
+
+    /**
+     * Adds a beacon, or moves an existing one, with weight 1. O(1).
+     */
+    public void setBeacon(int slot, double x, double y, double z, double distance) {
+        if (active[slot]) {
+            accumulate(slot, -1.0);
+        } else {
+            active[slot] = true;
+            activeCount++;
+            weights[slot] = 1.0;
+        }
+        coords[3 * slot] = x;
+        coords[3 * slot + 1] = y;
+        coords[3 * slot + 2] = z;
+        distances[slot] = distance;
+        accumulate(slot, 1.0);
+        countUpdate();
+    }
+
+    /**
+     * Removes a beacon that is no longer visible. O(1).
+     */
+    public void removeBeacon(int slot) {
+        if (!active[slot]) return;
+        accumulate(slot, -1.0);
+        active[slot] = false;
+        activeCount--;
+        countUpdate();
+    }
+
+    /**
+     * Updates the measured distance of an existing beacon. Only the right hand side
+     * changes: AᵀWc += w·a·(c_new - c_old). O(1).
+     */
+    public void updateDistance(int slot, double distance) {
+        if (!active[slot]) {
+            throw new IllegalStateException("Beacon slot " + slot + " is not active");
+        }
+        double dc = distance * distance - distances[slot] * distances[slot];
+        distances[slot] = distance;
+        double w = weights[slot];
+        rhs[X] += w * -2.0 * coords[3 * slot] * dc;
+        rhs[Y] += w * -2.0 * coords[3 * slot + 1] * dc;
+        rhs[Z] += w * -2.0 * coords[3 * slot + 2] * dc;
+        rhs[R] += w * dc;
+        countUpdate();
+    }
+
+    /** Removes all beacons. */
+    public void clear() {
+        Arrays.fill(active, false);
+        activeCount = 0;
+        Arrays.fill(normal, 0.0);
+        Arrays.fill(rhs, 0.0);
+        updatesSinceRebuild = 0;
+    }
+
+    /**
+     * Recomputes every active beacon's Huber weight from its distance residual at
+     * {@code pos}, then rebuilds the normal equations. O(numBeacons).
+     *
+     * @param pos Current position estimate [x, y, z]
+     */
+    public void reweight(double[] pos) {
+        for (int i = 0; i < capacity; i++) {
+            if (!active[i]) continue;
+            double dx = pos[0] - coords[3 * i];
+            double dy = pos[1] - coords[3 * i + 1];
+            double dz = pos[2] - coords[3 * i + 2];
+            double absR = Math.abs(Math.sqrt(dx * dx + dy * dy + dz * dz) - distances[i]);
+            weights[i] = (absR <= TrilaterationFunction.HUBER_DELTA) ? 1.0 : TrilaterationFunction.HUBER_DELTA / absR;
+        }
+        rebuild();
+    }
+
+    /** Rebuilds the normal equations from the per-beacon state. O(numBeacons). */
+    public void rebuild() {
+        Arrays.fill(normal, 0.0);
+        Arrays.fill(rhs, 0.0);
+        for (int i = 0; i < capacity; i++) {
+            if (active[i]) accumulate(i, 1.0);
+        }
+        updatesSinceRebuild = 0;
+    }
+
+    /**
+     * Solves the current normal equations. O(1), performs no heap allocation.
+     *
+     * @param out Receives the position [x, y, z]
+     * @return false if there are too few beacons or their geometry is degenerate
+     */
+    public boolean solve(double[] out) {
+        double mzz = normal[4 * Z + Z];
+        double mzr = normal[4 * Z + R];
+        double mrr = normal[4 * R + R];
+
+        if (mzz * mrr - mzr * mzr > COPLANAR_THRESHOLD * mzz * mrr) {
+            if (activeCount < 4) return false;
+            System.arraycopy(normal, 0, m, 0, 16);
+            System.arraycopy(rhs, 0, v, 0, 4);
+            if (!gaussianElimination(m, v, sol, 4)) return false;
+            out[0] = sol[X];
+            out[1] = sol[Y];
+            out[2] = sol[Z];
+            return true;
+        }
+
+        // Coplanar: drop the z column/row and solve for [x, y, u]
+        if (activeCount < 3 || mrr <= 0.0) return false;
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                m[3 * r + c] = normal[4 * COPLANAR_UNKNOWNS[r] + COPLANAR_UNKNOWNS[c]];
+            }
+            v[r] = rhs[COPLANAR_UNKNOWNS[r]];
+        }
+        if (!gaussianElimination(m, v, sol, 3)) return false;
+
+        double x = sol[0];
+        double y = sol[1];
+        double u = sol[2];
+        double z0 = mzr / (-2.0 * mrr); // weighted mean beacon height
+        double h = Math.sqrt(Math.max(0.0, u - x * x - y * y + z0 * z0));
+        double hint = Double.isNaN(heightHint) ? z0 + 1.0 : heightHint;
+        out[0] = x;
+        out[1] = y;
+        out[2] = (Math.abs(z0 + h - hint) <= Math.abs(z0 - h - hint)) ? z0 + h : z0 - h;
+        return true;
+    }
+
+    /** Adds {@code sign} times the given beacon's weighted contribution. */
+    private void accumulate(int slot, double sign) {
+        double bx = coords[3 * slot];
+        double by = coords[3 * slot + 1];
+        double bz = coords[3 * slot + 2];
+        double d = distances[slot];
+        double w = sign * weights[slot];
+
+        double a0 = -2.0 * bx, a1 = -2.0 * by, a2 = -2.0 * bz, a3 = 1.0;
+        double c = d * d - (bx * bx + by * by + bz * bz);
+
+        normal[0] += w * a0 * a0; normal[1] += w * a0 * a1; normal[2] += w * a0 * a2; normal[3] += w * a0 * a3;
+        normal[5] += w * a1 * a1; normal[6] += w * a1 * a2; normal[7] += w * a1 * a3;
+        normal[10] += w * a2 * a2; normal[11] += w * a2 * a3;
+        normal[15] += w * a3 * a3;
+        normal[4] = normal[1];
+        normal[8] = normal[2];
+        normal[9] = normal[6];
+        normal[12] = normal[3];
+        normal[13] = normal[7];
+        normal[14] = normal[11];
+
+        rhs[0] += w * a0 * c;
+        rhs[1] += w * a1 * c;
+        rhs[2] += w * a2 * c;
+        rhs[3] += w * a3 * c;
+    }
+
+    private void countUpdate() {
+        if (++updatesSinceRebuild >= REBUILD_INTERVAL) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Solves the n x n system M x = b in place with partial pivoting.
+     * Returns false if the matrix is (numerically) singular.
+     */
+    private static boolean gaussianElimination(double[] M, double[] b, double[] x, int n) {
+        double scale = 0.0;
+        for (int i = 0; i < n; i++) scale = Math.max(scale, Math.abs(M[n * i + i]));
+        if (scale == 0.0) return false;
+
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < n; r++) {
+                if (Math.abs(M[n * r + col]) > Math.abs(M[n * pivot + col])) pivot = r;
+            }
+            if (Math.abs(M[n * pivot + col]) <= SINGULAR_THRESHOLD * scale) return false;
+            if (pivot != col) {
+                for (int c = 0; c < n; c++) {
+                    double tmp = M[n * col + c];
+                    M[n * col + c] = M[n * pivot + c];
+                    M[n * pivot + c] = tmp;
+                }
+                double tmp = b[col];
+                b[col] = b[pivot];
+                b[pivot] = tmp;
+            }
+            for (int r = col + 1; r < n; r++) {
+                double f = M[n * r + col] / M[n * col + col];
+                for (int c = col; c < n; c++) M[n * r + c] -= f * M[n * col + c];
+                b[r] -= f * b[col];
+            }
+        }
+        for (int r = n - 1; r >= 0; r--) {
+            double sum = b[r];
+            for (int c = r + 1; c < n; c++) sum -= M[n * r + c] * x[c];
+            x[r] = sum / M[n * r + r];
+        }
+        return true;
+    }
+}
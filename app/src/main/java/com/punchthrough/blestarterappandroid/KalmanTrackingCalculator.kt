@@ -0,0 +1,201 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import kotlin.math.max
+import kotlin.math.sqrt
+
+/**
+ * Smooths the fixes of another [PositionCalculator] with a constant-velocity Kalman
+ * filter over (x, y, vx, vy).
+ *
+ * The state and its 4x4 covariance are fixed-size primitive arrays, so each update is
+ * O(1) and allocation free apart from the returned [Position]. The motion and
+ * measurement models are linear, so the extended filter reduces to the plain Kalman
+ * equations. Each fix's [Position.accuracy] is used as its measurement noise.
+ *
+ * The [inner] calculator is only run once [innerIntervalMillis] have passed since its
+ * last fix; in between, the filter's prediction is returned, so positions keep coming
+ * at scan rate while an expensive calculator runs less often.
+ *
+ * Fixes further than [GATE_CHI_SQUARED] (Mahalanobis, squared) from the prediction
+ * are ignored as outliers, unless [MAX_REJECTED_FIXES] are rejected in a row, in which
+ * case the filter restarts from the latest fix.
+ *
+ * @param acceleration standard deviation of the user's acceleration in m/s², the
+ * process noise.
+ */
+class KalmanTrackingCalculator(
+    private val inner: PositionCalculator,
+    private val innerIntervalMillis: Long = 0L,
+    private val acceleration: Double = DEFAULT_ACCELERATION,
+    private val clock: () -> Long = System::currentTimeMillis
+) : PositionCalculator {
+    companion object {
+        private const val DEFAULT_ACCELERATION = 1.0 // m/s²
+        private const val MIN_ACCURACY = 0.1 // m
+        private const val INITIAL_SPEED_VARIANCE = 1.0 // (m/s)²
+        private const val GATE_CHI_SQUARED = 13.8 // 99.9% for 2 degrees of freedom
+        private const val MAX_REJECTED_FIXES = 3
+    }
+
+    // State (x, y, vx, vy) and row-major 4x4 covariance
+    private val state = DoubleArray(4)
+    private val covariance = DoubleArray(16)
+    // Copy of the covariance's position rows during an update
+    private val positionRows = DoubleArray(8)
+
+    private var initialized = false
+    private var lastPrediction = 0L
+    private var lastInnerFix = 0L
+    private var rejectedFixes = 0
+
+    override val rangeBased: Boolean
+        get() = inner.rangeBased
+
+    override fun close() {
+        inner.close()
+    }
+
+    override fun calculatePosition(beacons: List<Beacon>): Position? {
+        val now = clock()
+        if (initialized) {
+            predict((now - lastPrediction).coerceAtLeast(0L) / 1000.0)
+            lastPrediction = now
+            if (now - lastInnerFix < innerIntervalMillis) return estimate(now)
+        }
+
+        val fix = inner.calculatePosition(beacons) ?: return if (initialized) estimate(now) else null
+        lastInnerFix = now
+        if (!initialized) {
+            reset(fix)
+            lastPrediction = now
+        } else {
+            update(fix)
+        }
+        return estimate(now)
+    }
+
+    /** Forgets the track; the next fix restarts it. */
+    fun reset() {
+        initialized = false
+    }
+
+    private fun reset(fix: Position) {
+        val variance = measurementVariance(fix)
+        state[0] = fix.x
+        state[1] = fix.y
+        state[2] = 0.0
+        state[3] = 0.0
+        covariance.fill(0.0)
+        covariance[0] = variance
+        covariance[5] = variance
+        covariance[10] = INITIAL_SPEED_VARIANCE
+        covariance[15] = INITIAL_SPEED_VARIANCE
+        rejectedFixes = 0
+        initialized = true
+    }
+
+    /**
+     * x = F x, P = F P Fᵀ + Q with F = [[I, dt I], [0, I]] and white noise acceleration Q.
+     */
+    private fun predict(dt: Double) {
+        if (dt <= 0.0) return
+        val p = covariance
+        state[0] += dt * state[2]
+        state[1] += dt * state[3]
+
+        // P F^T: column j += dt * column j+2 for the position columns
+        for (row in 0 until 4) {
+            p[row * 4] += dt * p[row * 4 + 2]
+            p[row * 4 + 1] += dt * p[row * 4 + 3]
+        }
+        // F (P F^T): row i += dt * row i+2 for the position rows
+        for (col in 0 until 4) {
+            p[col] += dt * p[8 + col]
+            p[4 + col] += dt * p[12 + col]
+        }
+
+        val q = acceleration * acceleration
+        val dt2 = dt * dt
+        val positionNoise = q * dt2 * dt2 / 4
+        val crossNoise = q * dt2 * dt / 2
+        val speedNoise = q * dt2
+        p[0] += positionNoise
+        p[5] += positionNoise
+        p[2] += crossNoise
+        p[8] += crossNoise
+        p[7] += crossNoise
+        p[13] += crossNoise
+        p[10] += speedNoise
+        p[15] += speedNoise
+    }
+
+    /**
+     * Position measurement, H = [I 0]: S = P[0:2, 0:2] + R, K = P[:, 0:2] S⁻¹.
+     */
+    private fun update(fix: Position) {
+        val p = covariance
+        val r = measurementVariance(fix)
+        val s00 = p[0] + r
+        val s01 = p[1]
+        val s10 = p[4]
+        val s11 = p[5] + r
+        val det = s00 * s11 - s01 * s10
+        if (det <= 0.0) return
+        val i00 = s11 / det
+        val i01 = -s01 / det
+        val i10 = -s10 / det
+        val i11 = s00 / det
+
+        val innovationX = fix.x - state[0]
+        val innovationY = fix.y - state[1]
+        val mahalanobis = innovationX * (i00 * innovationX + i01 * innovationY) +
+            innovationY * (i10 * innovationX + i11 * innovationY)
+        if (mahalanobis > GATE_CHI_SQUARED) {
+            if (++rejectedFixes >= MAX_REJECTED_FIXES) reset(fix)
+            return
+        }
+        rejectedFixes = 0
+
+        // K (4x2) = P[:, 0:2] S^-1, then x += K y and P -= K P[0:2, :]
+        System.arraycopy(p, 0, positionRows, 0, 8)
+        for (row in 0 until 4) {
+            val gainX = p[row * 4] * i00 + p[row * 4 + 1] * i10
+            val gainY = p[row * 4] * i01 + p[row * 4 + 1] * i11
+            state[row] += gainX * innovationX + gainY * innovationY
+            for (col in 0 until 4) {
+                p[row * 4 + col] -= gainX * positionRows[col] + gainY * positionRows[4 + col]
+            }
+        }
+    }
+
+    private fun measurementVariance(fix: Position): Double {
+        val accuracy = if (fix.accuracy.isFinite()) max(fix.accuracy, MIN_ACCURACY) else MIN_ACCURACY
+        return accuracy * accuracy
+    }
+
+    private fun estimate(now: Long): Position {
+        return Position(
+            x = state[0],
+            y = state[1],
+            accuracy = sqrt(max(covariance[0] + covariance[5], 0.0)),
+            timestamp = now
+        )
+    }
+}
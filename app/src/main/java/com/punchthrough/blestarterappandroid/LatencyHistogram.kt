@@ -0,0 +1,113 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free histogram of non-negative values (e.g. latencies in nanoseconds) with a
+ * fixed set of log-linear buckets, as in HdrHistogram: every power of two is split into
+ * [SUB_BUCKETS] equal buckets, so a recorded value is known to within 12.5% whatever
+ * its magnitude. Recording is a few atomic increments and never allocates.
+ */
+class LatencyHistogram {
+    companion object {
+        private const val SUB_BUCKET_BITS = 3
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        // Values below SUB_BUCKETS get a bucket each, then SUB_BUCKETS per power of two up to 2^63
+        private const val BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+
+        internal fun bucketOf(value: Long): Int {
+            if (value < SUB_BUCKETS) return value.toInt()
+            val magnitude = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val subBucket = (value ushr (magnitude - SUB_BUCKET_BITS)).toInt() and (SUB_BUCKETS - 1)
+            return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket
+        }
+
+        /** Largest value that falls in [bucket] */
+        internal fun highestValueOf(bucket: Int): Long {
+            if (bucket < SUB_BUCKETS) return bucket.toLong()
+            val shift = bucket / SUB_BUCKETS - 1
+            val lowest = (SUB_BUCKETS + bucket % SUB_BUCKETS).toLong() shl shift
+            return lowest + (1L shl shift) - 1
+        }
+    }
+
+    private val counts = AtomicLongArray(BUCKET_COUNT)
+    private val total = AtomicLong()
+    private val sum = AtomicLong()
+    private val max = AtomicLong()
+
+    /**
+     * Records [value]; negative values are recorded as 0.
+     */
+    fun record(value: Long) {
+        val clamped = if (value < 0) 0L else value
+        counts.incrementAndGet(bucketOf(clamped))
+        total.incrementAndGet()
+        sum.addAndGet(clamped)
+        var current = max.get()
+        while (clamped > current && !max.compareAndSet(current, clamped)) current = max.get()
+    }
+
+    /**
+     * Forgets every recorded value. Values recorded concurrently may be partly kept.
+     */
+    fun reset() {
+        for (i in 0 until BUCKET_COUNT) counts.set(i, 0L)
+        total.set(0L)
+        sum.set(0L)
+        max.set(0L)
+    }
+
+    /**
+     * @return a copy of the recorded values. Taken without locking, so values recorded
+     * concurrently may be counted in some of its statistics and not others.
+     */
+    fun snapshot(): Snapshot {
+        val copy = LongArray(BUCKET_COUNT) { counts.get(it) }
+        return Snapshot(copy, copy.sum(), sum.get(), max.get())
+    }
+
+    class Snapshot internal constructor(
+        private val counts: LongArray,
+        val count: Long,
+        val sum: Long,
+        val max: Long
+    ) {
+        val mean: Double
+            get() = if (count == 0L) 0.0 else sum.toDouble() / count
+
+        /**
+         * @param percentile in [0, 100].
+         * @return the value at or below which [percentile] percent of the recorded values
+         * fall, rounded up to the top of its bucket; 0 if nothing was recorded.
+         */
+        fun valueAtPercentile(percentile: Double): Long {
+            require(percentile in 0.0..100.0) { "percentile must be in [0, 100]" }
+            if (count == 0L) return 0L
+            val rank = maxOf(1L, Math.ceil(percentile / 100.0 * count).toLong())
+            var seen = 0L
+            for (bucket in counts.indices) {
+                seen += counts[bucket]
+                if (seen >= rank) return minOf(highestValueOf(bucket), max)
+            }
+            return max
+        }
+    }
+}
@@ -112,6 +112,14 @@ class MainActivity : AppCompatActivity() {
         binding.viewMapButton.setOnClickListener {
             startActivity(Intent(this, MapActivity::class.java))
         }
+        if (BuildConfig.DEBUG) {
+            // Debug action: long press to open the map and record its scans for replay
+            binding.viewMapButton.setOnLongClickListener {
+                Timber.i("Opening the map and recording its scans")
+                startActivity(Intent(this, MapActivity::class.java).putExtra(MapActivity.EXTRA_RECORD_SCANS, true))
+                true
+            }
+        }
     }
 
     private fun setUpActivityButtons() {
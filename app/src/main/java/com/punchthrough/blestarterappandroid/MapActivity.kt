@@ -25,6 +25,8 @@ import android.hardware.SensorEventListener
 import android.hardware.SensorManager
 import android.os.Build
 import android.os.Bundle
+import android.os.Handler
+import android.os.Looper
 import android.os.VibrationEffect
 import android.os.Vibrator
 import android.util.Log
@@ -36,19 +38,42 @@ import com.matt.guidebeacons.beacons.Beacon
 import com.matt.guidebeacons.beacons.BeaconData
 import com.matt.guidebeacons.services.BuzzerVibration
 import com.matt.guidebeacons.services.NEARBY_BUZZER_RSSI
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
+private const val FINGERPRINT_DATABASE_FILE = "fingerprints.bin"
+private const val SCAN_RECORDING_FILE = "scans.bin"
+// Run the fingerprint calculator on every third scan snapshot; the tracker predicts in between
+private const val INNER_FIX_INTERVAL = 3 * ScanAggregator.DEFAULT_PUBLISH_INTERVAL // in ms
 
 class MapActivity : AppCompatActivity() {
+    companion object {
+        /**
+         * Boolean extra: in debug builds, record the map's scans to [SCAN_RECORDING_FILE] in
+         * the app's files directory, for replaying with [ScanReplay].
+         */
+        const val EXTRA_RECORD_SCANS = "com.punchthrough.blestarterappandroid.RECORD_SCANS"
+
+        // Filtering, distance conversion and solving run here, off the main thread. Shared by
+        // every map activity, so one being recreated opens its calculator only after the
+        // previous one's calculator, and its fingerprint database, is closed
+        private val positioningWorker: ExecutorService by lazy {
+            Executors.newSingleThreadExecutor { runnable -> Thread(runnable, "positioning") }
+        }
+    }
 
     private var initialAngleSet = false
     private var initialAngle = 0.00f
     private val bluetoothWorker = BluetoothWorkerClass.getInstance()
-    private val beaconProjects = BeaconData.getBeaconProjects()
+    private val beaconRegistry = BeaconData.getBeaconRegistry()
 
     private lateinit var gestureDetector: GestureDetector
 
     private lateinit var userMapView: UserMapView
-    private lateinit var positionCalculator: PositionCalculator
+    private lateinit var positionCalculator: DeferredPositionCalculator
+    private lateinit var positioningPipeline: PositioningPipeline
 
     private lateinit var buzzer: BuzzerVibration
     private lateinit var vibrator: Vibrator
@@ -71,13 +96,40 @@ class MapActivity : AppCompatActivity() {
         userMapView = findViewById(R.id.user_map_view)
         userMapView.loadConfigFromRawXml(R.raw.user_map_config)
 
-        positionCalculator = PositionCalculatorFactory.getCalculator()
+        // Smooth the raw fixes with a motion model before they reach the map. The fingerprint
+        // database is opened and loaded on the positioning worker, not the main thread
+        val fingerprintFile = File(filesDir, FINGERPRINT_DATABASE_FILE)
+        positionCalculator = DeferredPositionCalculator {
+            KalmanTrackingCalculator(
+                PositionCalculatorFactory.getCalculator(fingerprintFile = fingerprintFile),
+                innerIntervalMillis = INNER_FIX_INTERVAL
+            )
+        }
+        positioningWorker.execute { positionCalculator.open() }
+        // Time the positioning path in debug builds; the metrics are logged when the map is paused
+        PipelineMetrics.enabled = BuildConfig.DEBUG
+        val mainHandler = Handler(Looper.getMainLooper())
+        positioningPipeline = PositioningPipeline(
+            calculator = positionCalculator,
+            worker = positioningWorker,
+            publisher = { mainHandler.post(it) },
+            // Regressions are loaded from disk on the main thread (see handleScanResults)
+            distanceOf = { beacon, rssi -> beacon.calculateDistance(rssi, 4) }
+        ) { update -> showPositionUpdate(update) }
 
         buzzer = BuzzerVibration(this)
         vibrator = buzzer.getVibrator()
 
         bluetoothWorker.initialize(this)
         startRssiTracking()
+        if (BuildConfig.DEBUG && intent.getBooleanExtra(EXTRA_RECORD_SCANS, false)) {
+            // Stops with scanning, when the map is paused
+            try {
+                bluetoothWorker.startRecording(File(filesDir, SCAN_RECORDING_FILE))
+            } catch (e: IOException) {
+                Log.e("Scan recording", "Could not start recording scans", e)
+            }
+        }
 
         sensorManager = getSystemService(Context.SENSOR_SERVICE) as SensorManager
         if (sensorManager.getDefaultSensor(Sensor.TYPE_ALL) != null) {
@@ -137,40 +189,28 @@ class MapActivity : AppCompatActivity() {
     @RequiresApi(Build.VERSION_CODES.O)
     /**
      * Maps scanned devices to known mac addresses which each have a unique coordinate,
-     * then converts rssi to get the distance from each beacon.
-     * Then calls solveForUser to update user position
+     * and hands them to the positioning pipeline, which filters the RSSI, converts it
+     * to distances and solves for the user position off the main thread.
      * rawResults: list of scanned devices
      */
     private fun handleScanResults(rawResults: List<ScanResult>) {
-        // Keep only known project beacons and sort by RSSI
-        val knownResults = rawResults
-            .filter { beaconProjects.containsKey(it.device.address) }
-            .sortedByDescending {
-                beaconProjects[it.device.address]?.updateFilteredRSSI(it.rssi)
-                beaconProjects[it.device.address]?.getFilteredRSSI()
-            }
-            //.take(3) // Limit to top 3 beacons for performance
-
-        // Need at least 1 beacon for trilateration
-        if (knownResults.isEmpty()) {
-            return
+        // A snapshot published before scanning stopped can still arrive after onDestroy
+        if (positioningPipeline.isStopped) return
+
+        // Keep only known project beacons, looking each address up once in the registry
+        val knownBeacons = ArrayList<Beacon>(rawResults.size)
+        val knownRssi = IntArray(rawResults.size)
+        for (result in rawResults) {
+            val beacon = beaconRegistry[result.device.address] ?: continue
+            // Loads the beacon's calibration regression the first time it is seen; this reads
+            // the registry, which is only safe on the main thread
+            beacon.generateRegressionFunction(result.rssi, 4, applicationContext)
+            knownRssi[knownBeacons.size] = result.rssi
+            knownBeacons.add(beacon)
         }
-
-        // Build coordinates, distances and collect visible beacons
-        val coords = Array(knownResults.size) { DoubleArray(3) }
-        val distances = DoubleArray(knownResults.size)
-        val visibleBeacons = mutableListOf<Beacon>()
-
-        knownResults.forEachIndexed { index, res ->
-            val beacon = beaconProjects[res.device.address] ?: return@forEachIndexed
-            coords[index] = beacon.getCoordinates()
-            distances[index] = beacon.calculateDistance(res.rssi, 4, this)
-            visibleBeacons.add(beacon)
-        }
-
-        userMapView.clearBeacons()
-        userMapView.addBeacons(visibleBeacons.toTypedArray())
-        solveForUser(coords, distances, visibleBeacons)
+        positioningPipeline.submit(
+            PositioningPipeline.Snapshot(knownBeacons, knownRssi, System.currentTimeMillis())
+        )
 
         rawResults.forEach { result ->
             if (result.rssi > NEARBY_BUZZER_RSSI) {
@@ -220,19 +260,15 @@ class MapActivity : AppCompatActivity() {
     }
 
     /**
-     * Updates user position based on given distances and coordinates:
-     * each element in distances denotes how far the user is from the corresponding element in coords
+     * Shows a finished positioning update: the beacons it used and, if one was found, the
+     * user position. Runs on the main thread.
      */
-    private fun solveForUser(coords : Array<DoubleArray>, distances : DoubleArray, beacons: List<Beacon>) {
-        // Create solver with current beacons and set distances
-        val initial: DoubleArray = userMapView.getUserPosition()
-//        trilaterationFunction = TrilaterationFunction(initial, coords, distances)
-//
-//        val userCoordinates = trilaterationFunction.solve()
-
-        val position = positionCalculator.calculatePosition(beacons)
+    private fun showPositionUpdate(update: PositioningPipeline.Update) {
+        userMapView.clearBeacons()
+        userMapView.addBeacons(update.beacons.toTypedArray())
 
-        userMapView.setUserPosition(position?.x?.toFloat() ?: initial[0].toFloat(), position?.y?.toFloat() ?: initial[1].toFloat(), 0.00f)
+        val position = update.position ?: return
+        userMapView.setUserPosition(position.x.toFloat(), position.y.toFloat(), 0.00f)
     }
 
     override fun onStart() { super.onStart() }
@@ -261,6 +297,7 @@ class MapActivity : AppCompatActivity() {
         super.onPause()
         bluetoothWorker.stopScanning()
         sensorManager.unregisterListener(SensorListener)
+        if (PipelineMetrics.enabled) PipelineMetrics.snapshot().log()
     }
 
     override fun onStop() { super.onStop() }
@@ -268,6 +305,11 @@ class MapActivity : AppCompatActivity() {
     override fun onDestroy() {
         super.onDestroy()
         bluetoothWorker.stopScanning()
+        // Stop the pipeline first, so its queued stages don't run the calculator after it is closed
+        positioningPipeline.stop()
+        // Close the calculator, and with it the fingerprint database, once the worker has
+        // finished the fix it may be solving. The worker is shared, so it is not shut down
+        positioningWorker.execute(positionCalculator::close)
     }
 
     override fun onLowMemory() { super.onLowMemory() }
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import java.util.Random
+import kotlin.math.exp
+import kotlin.math.log10
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * Tracks position with a particle filter over the beacons' filtered RSSI.
+ *
+ * Particles are stored as parallel arrays (x, y, weight) and all buffers are allocated
+ * up front, so an update does not allocate:
+ * - predict: each particle takes a gaussian random-walk step scaled by the time since
+ *   the last update,
+ * - update: each particle is weighted by the likelihood of the observed RSSI under the
+ *   log-distance path loss model, RSSI = calibration RSSI - 10 n log10(d),
+ * - resample: systematic resampling into the second set of arrays once the effective
+ *   sample size drops below half the particles.
+ *
+ * Particles are seeded uniformly over the beacons' bounding box on the first update.
+ *
+ * @param particleCount number of particles.
+ * @param walkSpeed expected user speed in m/s, the random-walk step per second.
+ * @param rssiNoise standard deviation of the RSSI measurement noise, in dBm.
+ */
+class ParticleFilterCalculator(
+    private val particleCount: Int = DEFAULT_PARTICLE_COUNT,
+    private val walkSpeed: Double = DEFAULT_WALK_SPEED,
+    private val rssiNoise: Double = DEFAULT_RSSI_NOISE,
+    seed: Long = System.nanoTime()
+) : PositionCalculator {
+    companion object {
+        private const val DEFAULT_PARTICLE_COUNT = 2000
+        private const val DEFAULT_WALK_SPEED = 1.4 // m/s
+        private const val DEFAULT_RSSI_NOISE = 6.0 // dBm
+        private const val PATH_LOSS_EXPONENT = 2.0
+        private const val MIN_STEP = 0.05 // m
+        private const val MAX_STEP = 5.0 // m
+        private const val MIN_DISTANCE_SQUARED = 0.01 // m², avoids log10(0) on top of a beacon
+        private const val SEED_MARGIN = 2.0 // m around the beacons' bounding box
+    }
+
+    init {
+        require(particleCount > 0) { "particleCount must be positive" }
+    }
+
+    private val random = Random(seed)
+
+    private var xs = DoubleArray(particleCount)
+    private var ys = DoubleArray(particleCount)
+    private var resampledXs = DoubleArray(particleCount)
+    private var resampledYs = DoubleArray(particleCount)
+    private val weights = DoubleArray(particleCount)
+    private val logLikelihoods = DoubleArray(particleCount)
+
+    // Observations of the current update
+    private var beaconXs = DoubleArray(0)
+    private var beaconYs = DoubleArray(0)
+    private var beaconRssi = DoubleArray(0)
+    private var beaconCalibration = DoubleArray(0)
+
+    private var initialized = false
+    private var lastUpdate = 0L
+
+    override fun calculatePosition(beacons: List<Beacon>): Position? {
+        val now = System.currentTimeMillis()
+        val count = loadObservations(beacons)
+        if (count == 0) return null
+
+        if (!initialized) {
+            seedParticles(count)
+            initialized = true
+        } else {
+            predict(((now - lastUpdate) / 1000.0).coerceAtLeast(0.0))
+        }
+        lastUpdate = now
+
+        weigh(count)
+        return estimate().also { resampleIfDegenerate() }
+    }
+
+    /** Forgets the current particle cloud; the next update re-seeds it. */
+    fun reset() {
+        initialized = false
+    }
+
+    private fun loadObservations(beacons: List<Beacon>): Int {
+        if (beaconXs.size < beacons.size) {
+            beaconXs = DoubleArray(beacons.size)
+            beaconYs = DoubleArray(beacons.size)
+            beaconRssi = DoubleArray(beacons.size)
+            beaconCalibration = DoubleArray(beacons.size)
+        }
+        var count = 0
+        for (beacon in beacons) {
+            val coordinates = beacon.getCoordinates()
+            val rssi = beacon.getFilteredRSSI()
+            if (!coordinates[0].isFinite() || !coordinates[1].isFinite() || !rssi.isFinite()) continue
+            beaconXs[count] = coordinates[0]
+            beaconYs[count] = coordinates[1]
+            beaconRssi[count] = rssi
+            beaconCalibration[count] = beacon.getCalibrationRSSI().toDouble()
+            count++
+        }
+        return count
+    }
+
+    private fun seedParticles(count: Int) {
+        var minX = Double.POSITIVE_INFINITY
+        var minY = Double.POSITIVE_INFINITY
+        var maxX = Double.NEGATIVE_INFINITY
+        var maxY = Double.NEGATIVE_INFINITY
+        for (i in 0 until count) {
+            minX = min(minX, beaconXs[i])
+            minY = min(minY, beaconYs[i])
+            maxX = max(maxX, beaconXs[i])
+            maxY = max(maxY, beaconYs[i])
+        }
+        minX -= SEED_MARGIN
+        minY -= SEED_MARGIN
+        maxX += SEED_MARGIN
+        maxY += SEED_MARGIN
+        for (p in 0 until particleCount) {
+            xs[p] = minX + random.nextDouble() * (maxX - minX)
+            ys[p] = minY + random.nextDouble() * (maxY - minY)
+            weights[p] = 1.0 / particleCount
+        }
+    }
+
+    private fun predict(elapsedSeconds: Double) {
+        val step = (walkSpeed * elapsedSeconds).coerceIn(MIN_STEP, MAX_STEP)
+        for (p in 0 until particleCount) {
+            xs[p] += step * random.nextGaussian()
+            ys[p] += step * random.nextGaussian()
+        }
+    }
+
+    private fun weigh(count: Int) {
+        val scale = -0.5 / (rssiNoise * rssiNoise)
+        // 10 n log10(d) = 5 n log10(d²), which saves a square root per beacon
+        val pathLoss = 5.0 * PATH_LOSS_EXPONENT
+        var maxLogLikelihood = Double.NEGATIVE_INFINITY
+        for (p in 0 until particleCount) {
+            val px = xs[p]
+            val py = ys[p]
+            var sum = 0.0
+            for (i in 0 until count) {
+                val dx = px - beaconXs[i]
+                val dy = py - beaconYs[i]
+                val predicted = beaconCalibration[i] - pathLoss * log10(max(dx * dx + dy * dy, MIN_DISTANCE_SQUARED))
+                val error = beaconRssi[i] - predicted
+                sum += error * error
+            }
+            val logLikelihood = scale * sum
+            logLikelihoods[p] = logLikelihood
+            if (logLikelihood > maxLogLikelihood) maxLogLikelihood = logLikelihood
+        }
+
+        // Normalize relative to the most likely particle to stay clear of underflow
+        var total = 0.0
+        for (p in 0 until particleCount) {
+            val weight = weights[p] * exp(logLikelihoods[p] - maxLogLikelihood)
+            weights[p] = weight
+            total += weight
+        }
+        if (total > 0.0 && total.isFinite()) {
+            for (p in 0 until particleCount) weights[p] /= total
+        } else {
+            weights.fill(1.0 / particleCount)
+        }
+    }
+
+    private fun estimate(): Position {
+        var meanX = 0.0
+        var meanY = 0.0
+        for (p in 0 until particleCount) {
+            meanX += weights[p] * xs[p]
+            meanY += weights[p] * ys[p]
+        }
+        var variance = 0.0
+        for (p in 0 until particleCount) {
+            val dx = xs[p] - meanX
+            val dy = ys[p] - meanY
+            variance += weights[p] * (dx * dx + dy * dy)
+        }
+        return Position(x = meanX, y = meanY, accuracy = sqrt(variance))
+    }
+
+    /** Systematic resampling once the effective sample size drops below half the particles */
+    private fun resampleIfDegenerate() {
+        var sumOfSquares = 0.0
+        for (p in 0 until particleCount) sumOfSquares += weights[p] * weights[p]
+        if (1.0 / sumOfSquares >= particleCount / 2.0) return
+
+        val stride = 1.0 / particleCount
+        var target = random.nextDouble() * stride
+        var cumulative = weights[0]
+        var source = 0
+        for (p in 0 until particleCount) {
+            while (target > cumulative && source < particleCount - 1) {
+                source++
+                cumulative += weights[source]
+            }
+            resampledXs[p] = xs[source]
+            resampledYs[p] = ys[source]
+            target += stride
+        }
+
+        xs = resampledXs.also { resampledXs = xs }
+        ys = resampledYs.also { resampledYs = ys }
+        weights.fill(stride)
+    }
+}
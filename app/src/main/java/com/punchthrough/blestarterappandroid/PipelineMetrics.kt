@@ -0,0 +1,136 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import timber.log.Timber
+import java.util.Locale
+
+/**
+ * Latency and throughput of each section of the positioning path, from an advertisement
+ * arriving to the user position being shown on the map.
+ *
+ * Sections are timed with [start] and [record]. While [enabled] is false, [start] only
+ * reads a volatile flag and [record] does nothing, so the instrumentation can stay in
+ * place in release builds.
+ *
+ * ```
+ * val start = PipelineMetrics.start()
+ * calculator.calculatePosition(beacons)
+ * PipelineMetrics.record(PipelineMetrics.Section.CALCULATE_POSITION, start)
+ * ```
+ */
+object PipelineMetrics {
+    enum class Section {
+        /** Handing an advertisement from the scan callback to the scan aggregator */
+        SCAN_DISPATCH,
+        /** Kalman filtering a scan snapshot's RSSI */
+        KALMAN_UPDATE,
+        /** Converting a snapshot's RSSI to distances */
+        DISTANCE,
+        /** Picking the beacons to solve with, see [BeaconSelector] */
+        BEACON_SELECTION,
+        /** [PositionCalculator.calculatePosition] */
+        CALCULATE_POSITION,
+        /** Affinity propagation clustering of the fingerprints */
+        CLUSTERING,
+        /** Checking the user position against the map's points of interest */
+        POI_CHECK,
+        /** From a snapshot being submitted to the positioning pipeline to its update being shown */
+        END_TO_END
+    }
+
+    // Returned by start() while disabled; System.nanoTime() may be any other value
+    private const val NOT_TIMED = Long.MIN_VALUE
+    private const val NANOS_PER_MILLI = 1_000_000.0
+    private const val NANOS_PER_SECOND = 1_000_000_000.0
+
+    @Volatile
+    var enabled = false
+
+    private val histograms = Array(Section.values().size) { LatencyHistogram() }
+
+    @Volatile
+    private var resetAt = System.nanoTime()
+
+    /**
+     * @return the start time of a section to pass to [record].
+     */
+    fun start(): Long = if (enabled) System.nanoTime() else NOT_TIMED
+
+    /**
+     * Records a run of [section] that began at [startNanos] (see [start]) and ends now.
+     */
+    fun record(section: Section, startNanos: Long) {
+        if (startNanos == NOT_TIMED) return
+        histograms[section.ordinal].record(System.nanoTime() - startNanos)
+    }
+
+    /** Forgets everything recorded so far; throughput is measured from now on. */
+    fun reset() {
+        histograms.forEach { it.reset() }
+        resetAt = System.nanoTime()
+    }
+
+    fun snapshot(): Snapshot {
+        val elapsed = System.nanoTime() - resetAt
+        return Snapshot(elapsed, Section.values().map { SectionStats(it, histograms[it.ordinal].snapshot(), elapsed) })
+    }
+
+    /**
+     * Latencies of one section, in nanoseconds.
+     */
+    class SectionStats internal constructor(
+        val section: Section,
+        val latencies: LatencyHistogram.Snapshot,
+        private val elapsedNanos: Long
+    ) {
+        val count: Long
+            get() = latencies.count
+
+        /** Runs per second since the metrics were reset */
+        val throughput: Double
+            get() = if (elapsedNanos <= 0L) 0.0 else count * NANOS_PER_SECOND / elapsedNanos
+
+        override fun toString(): String {
+            return String.format(
+                Locale.US,
+                "%s: n=%d (%.1f/s) mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+                section, count, throughput,
+                latencies.mean / NANOS_PER_MILLI,
+                latencies.valueAtPercentile(50.0) / NANOS_PER_MILLI,
+                latencies.valueAtPercentile(90.0) / NANOS_PER_MILLI,
+                latencies.valueAtPercentile(99.0) / NANOS_PER_MILLI,
+                latencies.max / NANOS_PER_MILLI
+            )
+        }
+    }
+
+    /**
+     * Statistics of every section over the [elapsedNanos] since the metrics were reset.
+     */
+    class Snapshot internal constructor(val elapsedNanos: Long, val sections: List<SectionStats>) {
+        operator fun get(section: Section): SectionStats = sections[section.ordinal]
+
+        /** Logs a line per section that has run. */
+        fun log() {
+            Timber.i(String.format(Locale.US, "Pipeline metrics over %.1fs", elapsedNanos / NANOS_PER_SECOND))
+            sections.filter { it.count > 0 }.forEach { Timber.i("%s", it) }
+        }
+
+        override fun toString(): String = sections.joinToString("\n")
+    }
+}
@@ -18,8 +18,15 @@ package com.punchthrough.blestarterappandroid
 
 import android.util.Log
 import com.matt.guidebeacons.beacons.Beacon
+import com.matt.guidebeacons.beacons.BeaconIdTable
 import timber.log.Timber
-import kotlin.math.abs
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.math.pow
 import kotlin.math.sqrt
 
@@ -30,11 +37,42 @@ data class Position(
     val timestamp: Long = System.currentTimeMillis()
 )
 
-interface PositionCalculator {
+interface PositionCalculator : Closeable {
     fun calculatePosition(beacons: List<Beacon>): Position?
+
+    /**
+     * Whether positions are solved from the ranges to the beacons, so a well-spread subset
+     * of them (see [BeaconSelector]) can be solved with instead of all of them.
+     */
+    val rangeBased: Boolean
+        get() = true
+
+    /** Releases the calculator's resources once no more positions will be calculated. */
+    override fun close() {}
 }
 
-class IndoorPositioningCalculator : PositionCalculator {
+/**
+ * @param reclusterExecutor runs affinity propagation clustering, including the first, off the
+ * calling thread. Until the first clustering finishes, fixes are refined with the most similar
+ * fingerprints; between re-clusterings, new fingerprints are assigned to the nearest existing exemplar.
+ * @param maxFingerprints size of the fingerprint database; fingerprints are evicted beyond it.
+ * @param beaconIds interns beacon names to the dense IDs fingerprints are indexed by.
+ * @param evictionPolicy which fingerprint to evict once the database is full.
+ * @param fingerprintDatabase file the fingerprint database is loaded from on creation and
+ * written to as fingerprints are learned; its capacity must be [maxFingerprints]. It is
+ * flushed and closed by [close].
+ */
+class IndoorPositioningCalculator(
+    private val reclusterExecutor: Executor = defaultReclusterExecutor,
+    maxFingerprints: Int = DEFAULT_MAX_FINGERPRINTS,
+    private val beaconIds: BeaconIdTable = BeaconIdTable.getInstance(),
+    evictionPolicy: FingerprintStore.EvictionPolicy = FingerprintStore.EvictionPolicy.OLDEST,
+    private val fingerprintDatabase: FingerprintDatabase? = null
+) : PositionCalculator {
+    // Fingerprints are matched on every visible beacon and recorded with them
+    override val rangeBased: Boolean
+        get() = false
+
     companion object {
         //        private const val TAG = "IndoorPositioning"
 //        private const val PATH_LOSS_EXPONENT = 1.45
@@ -46,31 +84,95 @@ class IndoorPositioningCalculator : PositionCalculator {
         //        private const val REFERENCE_RSSI = -59
 //        private const val MIN_BEACONS = 3
         private const val MAX_ITERATIONS = 100
-        private const val MIN_SIMILARITY = -1000.0
+        const val DEFAULT_MAX_FINGERPRINTS = 1000
+        // Number of fingerprints added before affinity propagation is re-run
+        private const val RECLUSTER_INTERVAL = 100
+
+        private val defaultReclusterExecutor: Executor by lazy {
+            Executors.newSingleThreadExecutor { runnable ->
+                Thread(runnable, "FingerprintClustering").apply { isDaemon = true }
+            }
+        }
     }
 
-    private val smoothedRssi = mutableMapOf<String, Double>()
-    private val fingerprints = mutableListOf<Fingerprint>()
+    // Smoothed RSSI per beacon ID, NaN until the beacon is first seen
+    private var smoothedRssi = FloatArray(0)
+    private val fingerprints = FingerprintStore(maxFingerprints, evictionPolicy, ::calculateSimilarity)
+    private val fingerprintIndex = FingerprintIndex()
     private val weightedCentroidCalculator = WeightedCentroidCalculator()
+    private val affinityPropagation = AffinityPropagation(
+        dampingFactor = DAMPING_FACTOR,
+        maxIterations = MAX_ITERATIONS
+    )
 
-    data class Fingerprint(
+    /**
+     * Latest clustering: one exemplar position per cluster and the cluster of each
+     * fingerprint store slot (-1 if unassigned). A slot's assignment is overwritten
+     * when its fingerprint is evicted and replaced.
+     */
+    private class ClusterCache(
+        val exemplars: List<Position>,
+        val assignments: IntArray
+    )
+
+    private var clusterCache: ClusterCache? = null
+    private var fingerprintsAddedSinceClustering = 0
+    private val reclusterInFlight = AtomicBoolean(false)
+    private val finishedClustering = AtomicReference<List<Position>?>(null)
+
+    init {
+        fingerprintDatabase?.let { database ->
+            require(database.capacity == maxFingerprints) { "database capacity must match maxFingerprints" }
+            // Fingerprints go back to the slots they were written from, so nothing needs rewriting
+            val records = database.readAll()
+            val loaded = records.map { buildFingerprint(it.position, it.rssiValues, it.averageRssi, it.timestamp) }
+            fingerprints.restore(IntArray(records.size) { records[it].slot }, loaded)
+            loaded.forEach(fingerprintIndex::add)
+            Timber.i("Loaded ${fingerprints.size} fingerprints")
+        }
+    }
+
+    /**
+     * RSSI snapshot at a position, stored densely by beacon ID (see [BeaconIdTable]).
+     * @property rssiValues smoothed RSSI per beacon ID; NaN for beacons that were not
+     * visible. May be shorter than the current number of IDs, in which case the
+     * missing beacons were not visible either.
+     * @property rankedBeacons IDs of the strongest beacons, strongest first.
+     * @property rankedMask bitset of [rankedBeacons], for fast intersection.
+     */
+    class Fingerprint(
         val position: Position,
-        val rssiValues: Map<String, Double>,
-        val rankedBeacons: List<String>,
+        val rssiValues: FloatArray,
+        val rankedBeacons: IntArray,
+        val rankedMask: LongArray,
         val averageRssi: Double,
         val timestamp: Long = System.currentTimeMillis()
     )
 
-    private fun exponentialSmoothing(beacons: List<Beacon>): Map<String, Double> {
-        return beacons.associate { beacon ->
-            // BeaconId equals string!!!!!!
-            val beaconId = beacon.beaconName
+    /**
+     * Smooths the visible beacons' RSSI into [smoothedRssi].
+     * @return the dense smoothed RSSI vector of the visible beacons.
+     */
+    private fun exponentialSmoothing(beacons: List<Beacon>): FloatArray {
+        val ids = IntArray(beacons.size) { beaconIds.intern(beacons[it].beaconName) }
+        val idCount = beaconIds.size
+        if (smoothedRssi.size < idCount) {
+            val grown = FloatArray(idCount) { Float.NaN }
+            smoothedRssi.copyInto(grown)
+            smoothedRssi = grown
+        }
+
+        val rssiValues = FloatArray(idCount) { Float.NaN }
+        beacons.forEachIndexed { index, beacon ->
+            val beaconId = ids[index]
             val currentRssi = beacon.getFilteredRSSI()
+            val previous = smoothedRssi[beaconId]
             val smoothedValue = SMOOTHING_FACTOR * currentRssi +
-                (1 - SMOOTHING_FACTOR) * (smoothedRssi[beaconId] ?: currentRssi)
-            smoothedRssi[beaconId] = smoothedValue
-            beaconId to smoothedValue
+                (1 - SMOOTHING_FACTOR) * (if (previous.isNaN()) currentRssi else previous.toDouble())
+            smoothedRssi[beaconId] = smoothedValue.toFloat()
+            rssiValues[beaconId] = smoothedValue.toFloat()
         }
+        return rssiValues
     }
 
 //    private fun calculateDistanceFromRssi(rssi: Double): Double {
@@ -83,23 +185,65 @@ class IndoorPositioningCalculator : PositionCalculator {
 //        }
 //    }
 
-    private fun rankBeacons(smoothedData: Map<String, Double>): List<String> {
-        return smoothedData.entries
-            .sortedByDescending { it.value }
-            .take(TOP_K_BEACONS)
-            .map { it.key }
+    /**
+     * @return IDs of the [TOP_K_BEACONS] strongest visible beacons, strongest first.
+     */
+    private fun rankBeacons(rssiValues: FloatArray): IntArray {
+        val ranked = IntArray(TOP_K_BEACONS)
+        var count = 0
+        for (id in rssiValues.indices) {
+            val rssi = rssiValues[id]
+            if (rssi.isNaN() || (count == TOP_K_BEACONS && rssi <= rssiValues[ranked[count - 1]])) continue
+            // Insertion into the bounded, descending ranking
+            var i = if (count < TOP_K_BEACONS) count++ else TOP_K_BEACONS - 1
+            while (i > 0 && rssiValues[ranked[i - 1]] < rssi) {
+                ranked[i] = ranked[i - 1]
+                i--
+            }
+            ranked[i] = id
+        }
+        return ranked.copyOf(count)
     }
 
     private fun createFingerprint(position: Position, beacons: List<Beacon>): Fingerprint {
-        val smoothedData = exponentialSmoothing(beacons)
-        val rankedBeacons = rankBeacons(smoothedData)
-        val averageRssi = smoothedData.values.average()
+        val rssiValues = exponentialSmoothing(beacons)
+
+        var sum = 0.0
+        var count = 0
+        for (rssi in rssiValues) {
+            if (!rssi.isNaN()) {
+                sum += rssi
+                count++
+            }
+        }
+
+        return buildFingerprint(
+            position,
+            rssiValues,
+            averageRssi = if (count > 0) sum / count else Double.NaN,
+            timestamp = System.currentTimeMillis()
+        )
+    }
+
+    private fun buildFingerprint(
+        position: Position,
+        rssiValues: FloatArray,
+        averageRssi: Double,
+        timestamp: Long
+    ): Fingerprint {
+        val rankedBeacons = rankBeacons(rssiValues)
+        val rankedMask = LongArray((rssiValues.size + 63) / 64)
+        for (id in rankedBeacons) {
+            rankedMask[id ushr 6] = rankedMask[id ushr 6] or (1L shl id)
+        }
 
         return Fingerprint(
             position = position,
-            rssiValues = smoothedData,
+            rssiValues = rssiValues,
             rankedBeacons = rankedBeacons,
-            averageRssi = averageRssi
+            rankedMask = rankedMask,
+            averageRssi = averageRssi,
+            timestamp = timestamp
         )
     }
 
@@ -109,51 +253,52 @@ class IndoorPositioningCalculator : PositionCalculator {
     ): List<Fingerprint> {
         if (fingerprints.isEmpty()) return emptyList()
 
-        return fingerprints
-            .asSequence()
-            .map { fingerprint ->
-                val rssiSimilarity = calculateRssiSimilarity(
-                    fingerprint.rssiValues,
-                    currentFingerprint.rssiValues
-                )
-                val beaconMatchScore = calculateBeaconMatchScore(
-                    fingerprint.rankedBeacons,
-                    currentFingerprint.rankedBeacons
-                )
-                val positionDistance = calculateDistance(
-                    fingerprint.position,
-                    currentFingerprint.position
-                )
+        // Only fingerprints near the basic position are candidates, so the index's grid can prune
+        return fingerprintIndex.query(currentFingerprint, k) { fingerprint ->
+            calculateSimilarity(fingerprint, currentFingerprint)
+        }
+    }
 
-                Triple(fingerprint, rssiSimilarity * beaconMatchScore, positionDistance)
-            }
-            .filter { it.second > 0.0 && it.third < MAX_VALID_DISTANCE }
-            .sortedByDescending { it.second }
-            .take(k)
-            .map { it.first }
-            .toList()
+    private fun calculateSimilarity(fingerprint: Fingerprint, currentFingerprint: Fingerprint): Double {
+        val rssiSimilarity = calculateRssiSimilarity(
+            fingerprint.rssiValues,
+            currentFingerprint.rssiValues
+        )
+        val beaconMatchScore = calculateBeaconMatchScore(
+            fingerprint.rankedMask,
+            currentFingerprint.rankedMask
+        )
+        return rssiSimilarity * beaconMatchScore
     }
 
     private fun calculateRssiSimilarity(
-        rssi1: Map<String, Double>,
-        rssi2: Map<String, Double>
+        rssi1: FloatArray,
+        rssi2: FloatArray
     ): Double {
-        val commonBeacons = rssi1.keys.intersect(rssi2.keys)
-        if (commonBeacons.isEmpty()) return 0.0
-
-        val differences = commonBeacons.sumOf { beaconId ->
-            val diff = abs((rssi1[beaconId] ?: 0.0) - (rssi2[beaconId] ?: 0.0))
-            diff * diff
+        // Beacons are common if visible in both; NaN (and indices past the end) are not visible
+        val length = minOf(rssi1.size, rssi2.size)
+        var commonBeacons = 0
+        var differences = 0.0
+        for (beaconId in 0 until length) {
+            val diff = rssi1[beaconId] - rssi2[beaconId]
+            if (!diff.isNaN()) {
+                differences += diff * diff
+                commonBeacons++
+            }
         }
+        if (commonBeacons == 0) return 0.0
 
-        return 1.0 / (1.0 + sqrt(differences / commonBeacons.size))
+        return 1.0 / (1.0 + sqrt(differences / commonBeacons))
     }
 
     private fun calculateBeaconMatchScore(
-        beacons1: List<String>,
-        beacons2: List<String>
+        beacons1: LongArray,
+        beacons2: LongArray
     ): Double {
-        val commonCount = beacons1.intersect(beacons2.toSet()).size
+        var commonCount = 0
+        for (word in 0 until minOf(beacons1.size, beacons2.size)) {
+            commonCount += java.lang.Long.bitCount(beacons1[word] and beacons2[word])
+        }
         return commonCount.toDouble() / TOP_K_BEACONS
     }
 
@@ -176,21 +321,13 @@ class IndoorPositioningCalculator : PositionCalculator {
         val similarFingerprints = clusterFingerprints ?: findSimilarFingerprints(currentFingerprint)
 
         if (similarFingerprints.isEmpty()) {
-            fingerprints.add(currentFingerprint)
+            addFingerprint(currentFingerprint)
             return basicPosition
         }
 
         // Calculate weights for each similar fingerprint
         val weights = similarFingerprints.map { fingerprint ->
-            val rssiSimilarity = calculateRssiSimilarity(
-                fingerprint.rssiValues,
-                currentFingerprint.rssiValues
-            )
-            val beaconMatchScore = calculateBeaconMatchScore(
-                fingerprint.rankedBeacons,
-                currentFingerprint.rankedBeacons
-            )
-            rssiSimilarity * beaconMatchScore
+            calculateSimilarity(fingerprint, currentFingerprint)
         }
 
         // Include current measurement in the weighted average to prevent static "snapping"
@@ -214,8 +351,7 @@ class IndoorPositioningCalculator : PositionCalculator {
         )
 
         // Update fingerprint database
-        fingerprints.add(currentFingerprint)
-        maintainFingerprintDatabase()
+        addFingerprint(currentFingerprint)
 
         return refinedPosition
     }
@@ -238,234 +374,111 @@ class IndoorPositioningCalculator : PositionCalculator {
         return (basicAccuracy + fingerprintAccuracy) / 2
     }
 
-    private fun maintainFingerprintDatabase(maxSize: Int = 1000) {
-        if (fingerprints.size > maxSize) {
-            // Remove oldest fingerprints
-            fingerprints.sortBy { it.timestamp }
-            val removeCount = fingerprints.size - maxSize
-            repeat(removeCount) {
-                fingerprints.removeAt(0)
-            }
-        }
-    }
-
-    private data class ClusterResult(
-        val labels: IntArray,
-        val centerIndices: List<Int>
-    ) {
-        override fun equals(other: Any?): Boolean {
-            if (this === other) return true
-            if (javaClass != other?.javaClass) return false
-
-            other as ClusterResult
-
-            if (!labels.contentEquals(other.labels)) return false
-            if (centerIndices != other.centerIndices) return false
-
-            return true
-        }
-
-        override fun hashCode(): Int {
-            var result = labels.contentHashCode()
-            result = 31 * result + centerIndices.hashCode()
-            return result
-        }
-    }
-
     private fun performAffinityPropagation(
-        fingerprints: List<Position>
-    ): ClusterResult {
-        val n = fingerprints.size
-        if (n == 0) return ClusterResult(IntArray(0), emptyList())
-
-        // Calculate similarity matrix
-        val similarities = Array(n) { DoubleArray(n) }
-        for (i in 0 until n) {
-            for (j in 0 until n) {
-                if (i != j) {
-                    val noise = (Math.random() - 0.5) * 1e-10
-                    similarities[i][j] = -calculateDistance(fingerprints[i], fingerprints[j]).pow(2) + noise
-                }
-            }
-        }
-
-        // Set preferences (diagonal) to median of similarities
-        val allSims = similarities.flatMap { row -> row.filter { it != 0.0 } }
-        val medianSim = if (allSims.isNotEmpty()) allSims.median() else MIN_SIMILARITY
-        for (i in 0 until n) {
-            similarities[i][i] = medianSim
-        }
-
-        // Initialize messages
-        val responsibilities = Array(n) { DoubleArray(n) }
-        val availabilities = Array(n) { DoubleArray(n) }
-
-        // Perform clustering
-        var iteration = 0
-        var converged = false
-
-        while (!converged && iteration < MAX_ITERATIONS) {
-            // Update responsibilities
-            val oldResponsibilities = responsibilities.map { it.clone() }
-            updateResponsibilities(similarities, availabilities, responsibilities)
-
-            // Update availabilities
-            val oldAvailabilities = availabilities.map { it.clone() }
-            updateAvailabilities(responsibilities, availabilities)
-
-            // Apply damping
-            applyDamping(responsibilities, oldResponsibilities)
-            applyDamping(availabilities, oldAvailabilities)
-
-            // Check convergence
-            converged = hasConverged(oldResponsibilities, responsibilities) &&
-                hasConverged(oldAvailabilities, availabilities)
-
-            iteration++
-        }
+        x: DoubleArray,
+        y: DoubleArray
+    ): AffinityPropagation.Result {
+        return affinityPropagation.cluster(x, y)
+    }
 
-        // Identify clusters
-        val labels = IntArray(n)
-        val centerIndices = mutableListOf<Int>()
+    // Update your existing position calculation to use clustering
+    override fun calculatePosition(beacons: List<Beacon>): Position? {
+        // First get basic position
+        // Finds the weight based on calculated distance from beacon, weights it to the closest beacon cluster
+        val basicPosition = weightedCentroidCalculator.calculatePosition(beacons) ?: return null
 
-        for (i in 0 until n) {
-            val criterion = responsibilities[i][i] + availabilities[i][i]
-            if (criterion > 0) {
-                centerIndices.add(i)
-            }
+        // If we don't have enough fingerprints, just return basic position
+        if (fingerprints.size < TOP_K_BEACONS) {
+            addFingerprint(createFingerprint(basicPosition, beacons))
+            return basicPosition
         }
 
-        // Assign points to clusters
-        for (i in 0 until n) {
-            var maxVal = Double.NEGATIVE_INFINITY
-            var bestCenter = -1
+        // Use the cached clustering, re-clustering periodically in the background. Until the
+        // first clustering finishes, match against the nearest fingerprints instead
+        val cache = currentClusters() ?: return refinePosition(basicPosition, beacons)
 
-            for (center in centerIndices) {
-                val value = similarities[i][center]
-                if (value > maxVal) {
-                    maxVal = value
-                    bestCenter = centerIndices.indexOf(center)
-                }
-            }
+        // Find nearest cluster
+        val nearestCluster = nearestExemplar(cache.exemplars, basicPosition)
+        if (nearestCluster < 0) return basicPosition
 
-            labels[i] = bestCenter
+        // Get fingerprints from the nearest cluster
+        val clusterFingerprints = ArrayList<Fingerprint>()
+        fingerprints.forEachSlot { slot ->
+            if (cache.assignments[slot] == nearestCluster) clusterFingerprints.add(fingerprints[slot])
         }
 
-        return ClusterResult(labels, centerIndices)
+        // Refine position using cluster fingerprints
+        return refinePosition(basicPosition, beacons, clusterFingerprints)
     }
 
-    private fun updateResponsibilities(
-        similarities: Array<DoubleArray>,
-        availabilities: Array<DoubleArray>,
-        responsibilities: Array<DoubleArray>
-    ) {
-        val n = similarities.size
-        for (i in 0 until n) {
-            for (k in 0 until n) {
-                var maxVal = Double.NEGATIVE_INFINITY
-                for (kPrime in 0 until n) {
-                    if (kPrime != k) {
-                        maxVal = maxOf(maxVal, similarities[i][kPrime] + availabilities[i][kPrime])
-                    }
+    /**
+     * Returns the latest clustering, or null until the first one finishes. Affinity
+     * propagation runs on [reclusterExecutor], never on the calling thread: first once
+     * there are enough fingerprints, then every [RECLUSTER_INTERVAL] added fingerprints,
+     * and each result is swapped in once it finishes.
+     */
+    private fun currentClusters(): ClusterCache? {
+        swapInFinishedClustering()
+        val due = clusterCache == null || fingerprintsAddedSinceClustering >= RECLUSTER_INTERVAL
+        if (due && reclusterInFlight.compareAndSet(false, true)) {
+            fingerprintsAddedSinceClustering = 0
+            val snapshot = snapshotCoordinates()
+            reclusterExecutor.execute {
+                try {
+                    finishedClustering.set(clusterExemplars(snapshot))
+                } finally {
+                    reclusterInFlight.set(false)
                 }
-                responsibilities[i][k] = similarities[i][k] - maxVal
             }
         }
-    }
 
-    private fun updateAvailabilities(
-        responsibilities: Array<DoubleArray>,
-        availabilities: Array<DoubleArray>
-    ) {
-        val n = responsibilities.size
-        for (i in 0 until n) {
-            for (k in 0 until n) {
-                if (i != k) {
-                    var sum = 0.0
-                    for (iPrime in 0 until n) {
-                        if (iPrime != i && iPrime != k) {
-                            sum += maxOf(0.0, responsibilities[iPrime][k])
-                        }
-                    }
-                    availabilities[i][k] = minOf(0.0, responsibilities[k][k] + sum)
-                } else {
-                    var sum = 0.0
-                    for (iPrime in 0 until n) {
-                        if (iPrime != k) {
-                            sum += maxOf(0.0, responsibilities[iPrime][k])
-                        }
-                    }
-                    availabilities[i][k] = sum
-                }
-            }
-        }
+        // A direct executor has already finished
+        swapInFinishedClustering()
+        return clusterCache
     }
 
-    private fun applyDamping(
-        current: Array<DoubleArray>,
-        old: List<DoubleArray>
-    ) {
-        for (i in current.indices) {
-            for (j in current[i].indices) {
-                current[i][j] = current[i][j] * (1 - DAMPING_FACTOR) +
-                    old[i][j] * DAMPING_FACTOR
-            }
+    private fun swapInFinishedClustering() {
+        finishedClustering.getAndSet(null)?.let { exemplars ->
+            clusterCache = buildClusterCache(exemplars)
         }
     }
 
-    private fun hasConverged(
-        old: List<DoubleArray>,
-        new: Array<DoubleArray>
-    ): Boolean {
-        val epsilon = 1e-6
-        return old.indices.all { i ->
-            old[i].indices.all { j ->
-                abs(old[i][j] - new[i][j]) < epsilon
-            }
-        }
+    /** Fingerprint coordinates by store slot, safe to hand to another thread */
+    private fun snapshotCoordinates(): Pair<DoubleArray, DoubleArray> {
+        val x = DoubleArray(fingerprints.size)
+        val y = DoubleArray(fingerprints.size)
+        fingerprints.copyCoordinates(x, y)
+        return x to y
     }
 
-    private fun List<Double>.median(): Double {
-        if (isEmpty()) return MIN_SIMILARITY
-        val sorted = sorted()
-        return if (size % 2 == 0) {
-            (sorted[size/2 - 1] + sorted[size/2]) / 2.0
-        } else {
-            sorted[size/2]
-        }
+    private fun clusterExemplars(coordinates: Pair<DoubleArray, DoubleArray>): List<Position> {
+        val (x, y) = coordinates
+        val start = PipelineMetrics.start()
+        val result = performAffinityPropagation(x, y)
+        PipelineMetrics.record(PipelineMetrics.Section.CLUSTERING, start)
+        return result.centerIndices.map { Position(x[it], y[it], 0.0) }
     }
 
-    // Update your existing position calculation to use clustering
-    override fun calculatePosition(beacons: List<Beacon>): Position? {
-        // First get basic position
-        // Finds the weight based on calculated distance from beacon, weights it to the closest beacon cluster
-        val basicPosition = weightedCentroidCalculator.calculatePosition(beacons) ?: return null
-
-        // If we don't have enough fingerprints, just return basic position
-        if (fingerprints.size < TOP_K_BEACONS) {
-            addFingerprint(createFingerprint(basicPosition, beacons))
-            return basicPosition
+    /** Assigns every current fingerprint to its nearest exemplar. O(fingerprints * exemplars). */
+    private fun buildClusterCache(exemplars: List<Position>): ClusterCache {
+        val assignments = IntArray(fingerprints.capacity) { -1 }
+        for (slot in 0 until fingerprints.size) {
+            assignments[slot] = nearestExemplar(exemplars, fingerprints[slot].position)
         }
+        return ClusterCache(exemplars, assignments)
+    }
 
-        // Perform clustering on fingerprints
-        val fingerprintPositions = fingerprints.map { it.position }
-        val clusterResult = performAffinityPropagation(fingerprintPositions)
-
-        // Find nearest cluster
-        val nearestClusterIndex = clusterResult.centerIndices.minByOrNull { centerIdx ->
-            calculateDistance(
-                fingerprintPositions[centerIdx],
-                basicPosition
-            )
-        } ?: return basicPosition
-
-        // Get fingerprints from the nearest cluster
-        val clusterFingerprints = fingerprints.filterIndexed { index, _ ->
-            clusterResult.labels[index] == clusterResult.centerIndices.indexOf(nearestClusterIndex)
+    private fun nearestExemplar(exemplars: List<Position>, position: Position): Int {
+        var best = -1
+        var bestDistance = Double.POSITIVE_INFINITY
+        for (i in exemplars.indices) {
+            val d = calculateDistance(exemplars[i], position)
+            if (d < bestDistance) {
+                bestDistance = d
+                best = i
+            }
         }
-
-        // Refine position using cluster fingerprints
-        return refinePosition(basicPosition, beacons, clusterFingerprints)
+        return best
     }
 
     //    fun clearFingerprints() {
@@ -474,7 +487,18 @@ class IndoorPositioningCalculator : PositionCalculator {
 //    }
     // Optional: Method to add fingerprints if needed
     private fun addFingerprint(fingerprint: Fingerprint) {
-        fingerprints.add(fingerprint)
+        // Once full, the store evicts and reuses a slot, which also drops its cluster assignment
+        val slot = fingerprints.add(fingerprint) { evicted -> fingerprintIndex.remove(evicted) }
+        fingerprintIndex.add(fingerprint)
+        fingerprintDatabase?.write(slot, fingerprint)
+        fingerprintsAddedSinceClustering++
+        clusterCache?.let { cache ->
+            cache.assignments[slot] = nearestExemplar(cache.exemplars, fingerprint.position)
+        }
+    }
+
+    override fun close() {
+        fingerprintDatabase?.close()
     }
 
 }
@@ -602,11 +626,11 @@ class WeightedCentroidCalculator : PositionCalculator {
 
         // Calculate distance from RSSI preserving Double precision to prevent static jumps
         val rssi = beacon.getFilteredRSSI()
-        val calRssi = beacon.getCalibrationRSSI().toDouble()
         // Using common log-distance path loss model: RSSI = TxPower - 10 * n * log10(d)
         // d = 10 ^ ((TxPower - RSSI) / (10 * n))
-        // Here we use calibrationRSSI as TxPower at 1m and assume path loss exponent n = 2.0 (standard indoor)
-        val distance = 10.0.pow((calRssi - rssi) / 20.0)
+        // Here we use calibrationRSSI as TxPower at 1m and assume path loss exponent n = 2.0 (standard indoor),
+        // looked up from the beacon's table and interpolated
+        val distance = beacon.calculateDistanceGeneric(rssi, 2)
 
         return distance
     }
@@ -640,15 +664,35 @@ class WeightedCentroidCalculator : PositionCalculator {
 }
 
 object PositionCalculatorFactory {
-    fun getCalculator(type: CalculatorType = CalculatorType.INDOOR_POSITIONING): PositionCalculator {
+    /**
+     * @param fingerprintFile if set, the indoor positioning fingerprint database is
+     * persisted to this file and reloaded from it.
+     */
+    fun getCalculator(
+        type: CalculatorType = CalculatorType.INDOOR_POSITIONING,
+        fingerprintFile: File? = null
+    ): PositionCalculator {
         return when (type) {
             CalculatorType.WEIGHTED_CENTROID -> WeightedCentroidCalculator()
-            CalculatorType.INDOOR_POSITIONING -> IndoorPositioningCalculator()
+            CalculatorType.INDOOR_POSITIONING -> IndoorPositioningCalculator(
+                fingerprintDatabase = fingerprintFile?.let { openFingerprintDatabase(it) }
+            )
+            CalculatorType.PARTICLE_FILTER -> ParticleFilterCalculator()
+        }
+    }
+
+    private fun openFingerprintDatabase(file: File): FingerprintDatabase? {
+        return try {
+            FingerprintDatabase(file, IndoorPositioningCalculator.DEFAULT_MAX_FINGERPRINTS)
+        } catch (e: IOException) {
+            Timber.e(e, "Could not open fingerprint database ${file.path}")
+            null
         }
     }
 
     enum class CalculatorType {
         WEIGHTED_CENTROID,
-        INDOOR_POSITIONING
+        INDOOR_POSITIONING,
+        PARTICLE_FILTER
     }
 }
\ No newline at end of file
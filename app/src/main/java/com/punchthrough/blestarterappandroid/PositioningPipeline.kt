@@ -0,0 +1,222 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import com.matt.guidebeacons.beacons.BeaconFilterBank
+import java.util.concurrent.Executor
+
+/**
+ * Turns scan snapshots into positions off the main thread, in stages:
+ * 1. filter: Kalman filter the snapshot's RSSI in the [BeaconFilterBank] and order the
+ *    beacons by filtered RSSI, strongest first,
+ * 2. distance: convert each beacon's scanned RSSI to a distance and, with a [selector]
+ *    and a [PositionCalculator.rangeBased] calculator, keep only the beacons with the
+ *    best geometry around the last position,
+ * 3. solve: run the [calculator] on those beacons,
+ * 4. publish: hand the finished [Update] to [onUpdate] on the [publisher].
+ *
+ * Stages 1-3 run on [worker], which should be dedicated to the pipeline, as the
+ * calculator is not thread safe. Every stage hands over through a [ConflatingStage], so
+ * when a stage falls behind (e.g. a slow solve) it skips to the latest input rather than
+ * queueing stale ones. [dropped] counts the inputs each stage skipped.
+ *
+ * Threading: [submit] may be called from any one thread (the main thread in the app),
+ * and everything the worker needs from it is captured in the [Snapshot]. The worker
+ * still reads the [Beacon]s themselves (name, coordinates, distances), which may be
+ * edited meanwhile; [Beacon] publishes its edits safely for that. [distanceOf] runs on
+ * the worker, so it must not read the [com.matt.guidebeacons.beacons.BeaconRegistry] or
+ * other state only the main thread may touch.
+ *
+ * Each stage's latency is recorded in [PipelineMetrics] while it is enabled.
+ *
+ * @param distanceOf distance to a beacon for a scanned RSSI.
+ * @param selector picks the subset of beacons to solve with; null to solve with all.
+ * Calculators that are not range based always get all of them.
+ */
+class PositioningPipeline(
+    private val calculator: PositionCalculator,
+    worker: Executor,
+    publisher: Executor,
+    private val distanceOf: (Beacon, Int) -> Double,
+    private val filterBank: BeaconFilterBank = BeaconFilterBank.getInstance(),
+    private val selector: BeaconSelector? = BeaconSelector(),
+    private val onUpdate: (Update) -> Unit
+) {
+    companion object {
+        private const val MIN_CENTROID_DISTANCE = 0.1 // m
+    }
+
+    enum class Stage { FILTER, DISTANCE, SOLVE, PUBLISH }
+
+    /**
+     * The known beacons of one scan, with the RSSI each was scanned at.
+     * The pipeline reads it from another thread, so it must not change once submitted.
+     */
+    class Snapshot(val beacons: List<Beacon>, val rssi: IntArray, val timestamp: Long)
+
+    /**
+     * A solved snapshot: the beacons it was solved with, strongest filtered RSSI first,
+     * with their distances, and the position calculated from them, or null if none could be.
+     */
+    class Update(
+        val position: Position?,
+        val beacons: List<Beacon>,
+        val distances: DoubleArray,
+        val timestamp: Long
+    )
+
+    // Each stage's input carries the time its snapshot was submitted, for END_TO_END metrics
+    private class Submitted(val snapshot: Snapshot, val submittedAt: Long)
+
+    // A filtered snapshot, in the order of its beacons' filtered RSSI
+    private class Ranked(val beacons: List<Beacon>, val rssi: IntArray, val timestamp: Long, val submittedAt: Long)
+
+    private class Ranged(val beacons: List<Beacon>, val distances: DoubleArray, val timestamp: Long, val submittedAt: Long)
+
+    private class Solved(val update: Update, val submittedAt: Long)
+
+    // Scratch of the filter stage, only used on the worker
+    private var scanIds = IntArray(0)
+
+    // Latest solved position, where the next subset is selected around
+    @Volatile
+    private var lastPosition: Position? = null
+
+    private val publishStage = ConflatingStage<Solved>(publisher) { solved ->
+        onUpdate(solved.update)
+        PipelineMetrics.record(PipelineMetrics.Section.END_TO_END, solved.submittedAt)
+    }
+
+    private val solveStage = ConflatingStage<Ranged>(worker) { ranged ->
+        val start = PipelineMetrics.start()
+        val position = calculator.calculatePosition(ranged.beacons)
+        PipelineMetrics.record(PipelineMetrics.Section.CALCULATE_POSITION, start)
+        if (position != null) lastPosition = position
+        publishStage.offer(Solved(Update(position, ranged.beacons, ranged.distances, ranged.timestamp), ranged.submittedAt))
+    }
+
+    private val distanceStage = ConflatingStage<Ranked>(worker) { ranked ->
+        val start = PipelineMetrics.start()
+        val distances = DoubleArray(ranked.beacons.size) { distanceOf(ranked.beacons[it], ranked.rssi[it]) }
+        PipelineMetrics.record(PipelineMetrics.Section.DISTANCE, start)
+        solveStage.offer(select(Ranged(ranked.beacons, distances, ranked.timestamp, ranked.submittedAt)))
+    }
+
+    private val filterStage = ConflatingStage<Submitted>(worker) { submitted ->
+        filter(submitted.snapshot, submitted.submittedAt)?.let { distanceStage.offer(it) }
+    }
+
+    /**
+     * Queues [snapshot] for positioning, replacing any snapshot not yet filtered.
+     * Ignored once the pipeline is stopped.
+     */
+    fun submit(snapshot: Snapshot) {
+        if (isStopped) return
+        filterStage.offer(Submitted(snapshot, PipelineMetrics.start()))
+    }
+
+    /** Whether [stop] was called, or the worker has rejected work from any stage */
+    val isStopped: Boolean
+        get() = filterStage.isStopped || distanceStage.isStopped || solveStage.isStopped
+
+    /**
+     * Stops positioning: snapshots waiting in any stage are dropped, and [submit] and the
+     * stages stop handing anything on. A stage already running finishes, but its result
+     * goes no further. Call it before shutting the worker down or closing the calculator;
+     * tasks the pipeline already queued on the worker then do nothing.
+     */
+    fun stop() {
+        filterStage.stop()
+        distanceStage.stop()
+        solveStage.stop()
+        publishStage.stop()
+    }
+
+    /**
+     * @return the number of inputs [stage] skipped because a newer one arrived first.
+     */
+    fun dropped(stage: Stage): Long = stageOf(stage).dropped
+
+    /**
+     * @return the number of inputs [stage] has processed.
+     */
+    fun processed(stage: Stage): Long = stageOf(stage).processed
+
+    private fun stageOf(stage: Stage): ConflatingStage<*> {
+        return when (stage) {
+            Stage.FILTER -> filterStage
+            Stage.DISTANCE -> distanceStage
+            Stage.SOLVE -> solveStage
+            Stage.PUBLISH -> publishStage
+        }
+    }
+
+    private fun select(ranged: Ranged): Ranged {
+        val selector = selector ?: return ranged
+        if (!calculator.rangeBased) return ranged
+        val start = PipelineMetrics.start()
+        val user = lastPosition
+        val subset = if (user != null) {
+            selector.select(ranged.beacons, ranged.distances, user.x, user.y)
+        } else {
+            // No position yet: select around the centroid of the beacons, weighted by 1 / d^2
+            var x = 0.0
+            var y = 0.0
+            var weights = 0.0
+            for (i in ranged.beacons.indices) {
+                val coordinates = ranged.beacons[i].getCoordinates()
+                val d = ranged.distances[i].coerceAtLeast(MIN_CENTROID_DISTANCE)
+                val weight = 1.0 / (d * d)
+                x += coordinates[0] * weight
+                y += coordinates[1] * weight
+                weights += weight
+            }
+            selector.select(ranged.beacons, ranged.distances, x / weights, y / weights)
+        }
+        PipelineMetrics.record(PipelineMetrics.Section.BEACON_SELECTION, start)
+        if (subset.size == ranged.beacons.size) return ranged
+
+        // Subset keeps the order of the beacons, so their distances can be matched up in one pass
+        val distances = DoubleArray(subset.size)
+        var next = 0
+        for (i in ranged.beacons.indices) {
+            if (next < subset.size && ranged.beacons[i] === subset[next]) distances[next++] = ranged.distances[i]
+        }
+        return Ranged(subset, distances, ranged.timestamp, ranged.submittedAt)
+    }
+
+    private fun filter(snapshot: Snapshot, submittedAt: Long): Ranked? {
+        val count = snapshot.beacons.size
+        // Need at least 1 beacon for trilateration
+        if (count == 0) return null
+
+        if (scanIds.size < count) scanIds = IntArray(count)
+        for (i in 0 until count) scanIds[i] = snapshot.beacons[i].getBeaconId()
+        val start = PipelineMetrics.start()
+        filterBank.update(scanIds, snapshot.rssi, count, snapshot.timestamp)
+        PipelineMetrics.record(PipelineMetrics.Section.KALMAN_UPDATE, start)
+
+        val order = snapshot.beacons.indices.sortedByDescending { snapshot.beacons[it].getFilteredRSSI() }
+        return Ranked(
+            beacons = order.map { snapshot.beacons[it] },
+            rssi = IntArray(count) { snapshot.rssi[order[it]] },
+            timestamp = snapshot.timestamp,
+            submittedAt = submittedAt
+        )
+    }
+}
@@ -11,7 +11,6 @@ import androidx.core.widget.addTextChangedListener
 import com.matt.guidebeacons.beacons.RssiCollection
 import com.matt.guidebeacons.beacons.RssiValue
 import com.punchthrough.blestarterappandroid.databinding.ActivityRssiMappingBinding
-import kotlin.math.pow
 
 class RssiMappingActivity : AppCompatActivity() {
 
@@ -73,6 +72,8 @@ class RssiMappingActivity : AppCompatActivity() {
                     selectedBeacon!!,
                     beaconProjects[selectedBeacon].toString()
                 )
+                // Fit the regression to the collection just read, so new averages extend it
+                beaconProjects[selectedBeacon]?.loadRegression(rssiCollection!!)
                 // Clear currentRssi to prevent saving scan results from a different beacon
                 setCurrentRssi(null)
             }
@@ -91,9 +92,9 @@ class RssiMappingActivity : AppCompatActivity() {
             val distance = distanceEditText.text.toString().toDoubleOrNull()
             if (selectedBeacon != null && currentRssi != null && distance != null) {
                 val debugInfo = "Beacon: $selectedBeacon, RSSI: $currentRssi, Distance: $distance"
-                rssiCollection!!.getMeasurements().add(RssiValue(currentRssi!!.toDouble(), distance, RssiValue.CollectionType.SNAPSHOT))
-                val result = rssiCollection!!.writeToFile(this, true)
-                debugTextView.text = result
+                rssiCollection!!.add(RssiValue(currentRssi!!.toDouble(), distance, RssiValue.CollectionType.SNAPSHOT))
+                rssiCollection!!.writeToFile(this)
+                debugTextView.text = debugInfo
                 // Clear currentRssi to prevent saving an old scan result
                 setCurrentRssi(null)
                 Toast.makeText(this, "Saved: $debugInfo", Toast.LENGTH_SHORT).show()
@@ -121,18 +122,17 @@ class RssiMappingActivity : AppCompatActivity() {
                     return@setOnClickListener
                 }
                 val distance = distanceEditText.text.toString().toDouble()
-                val averageRssi = calculateRecordedRssiAverage(rssiCollection!!, distance, false)
-                if (averageRssi != null) {
-                    rssiCollection!!.getMeasurements().add(RssiValue(averageRssi, distance, RssiValue.CollectionType.AVERAGE))
-                    rssiCollection!!.writeToFile(this, true)
-                    val variance = calculateRecordedRssiVariance(averageRssi, rssiCollection!!, distance, true)
-                    if (variance != null) {
-                        debugTextView.text =
-                            "Beacon: $selectedBeacon, RSSI: $averageRssi, Distance: $distance, Variance: $variance"
-                    } else {
-                        debugTextView.text =
-                            "Beacon: $selectedBeacon, RSSI: $averageRssi, Distance: $distance"
-                    }
+                val statistics = getRecordedRssiStatistics(rssiCollection!!, distance)
+                if (statistics != null) {
+                    val averageRssi = statistics.mean
+                    val variance = statistics.variance
+                    rssiCollection!!.clearStatistics(RssiValue.CollectionType.RECORDING, distance)
+                    val average = RssiValue(averageRssi, distance, RssiValue.CollectionType.AVERAGE)
+                    rssiCollection!!.add(average)
+                    beaconProjects[selectedBeacon]?.addCalibrationMeasurement(average)
+                    rssiCollection!!.writeToFile(this)
+                    debugTextView.text =
+                        "Beacon: $selectedBeacon, RSSI: $averageRssi, Distance: $distance, Variance: $variance"
                 }
             }
         }
@@ -155,62 +155,22 @@ class RssiMappingActivity : AppCompatActivity() {
         }
     }
 
-    private fun calculateRecordedRssiAverage(rssiCollection: RssiCollection, recordedDistance: Double, deleteRecordedValues: Boolean): Double? {
+    /**
+     * @return the running statistics of the RSSI recorded at [recordedDistance], or null if too few were recorded.
+     */
+    private fun getRecordedRssiStatistics(rssiCollection: RssiCollection, recordedDistance: Double): RssiCollection.Statistics? {
         val minimumCollectedValuesCount = 5
-        val predicate : (RssiValue) -> Boolean = { it.getType() == RssiValue.CollectionType.RECORDING && it.getMeasuredDistance() == recordedDistance }
-
-        val values = rssiCollection.getMeasurements()
-        var count = 0
-        var sum = 0.0
-        for (value in values) {
-            if (predicate(value)) {
-                count++
-                sum += value.getMeasuredRssi()
-            }
-        }
+        val statistics = rssiCollection.getStatistics(RssiValue.CollectionType.RECORDING, recordedDistance)
 
-        if (count < minimumCollectedValuesCount) {
+        if (statistics == null || statistics.count < minimumCollectedValuesCount) {
             timber.log.Timber.w("err: not enough rssi values")
             Toast.makeText(this, "err: not enough rssi values", Toast.LENGTH_SHORT).show()
             return null
         }
 
-        if (deleteRecordedValues) {
-            rssiCollection.getMeasurements().removeAll { predicate(it) }
-        }
-
-        return sum / count
+        return statistics
     }
 
-    private fun calculateRecordedRssiVariance(averageRssi: Double, rssiCollection: RssiCollection, recordedDistance: Double, deleteRecordedValues: Boolean): Double? {
-        val minimumCollectedValuesCount = 5
-        val predicate : (RssiValue) -> Boolean = { it.getType() == RssiValue.CollectionType.RECORDING && it.getMeasuredDistance() == recordedDistance }
-
-        val values = rssiCollection.getMeasurements()
-        var count = 0
-        var sum = 0.0
-        for (value in values) {
-            if (predicate(value)) {
-                count++
-                sum += (value.getMeasuredRssi() - averageRssi).pow(2.0)
-            }
-        }
-
-        if (count < minimumCollectedValuesCount) {
-            timber.log.Timber.w("err: not enough rssi values")
-            Toast.makeText(this, "err: not enough rssi values", Toast.LENGTH_SHORT).show()
-            return null
-        }
-
-        if (deleteRecordedValues) {
-            rssiCollection.getMeasurements().removeAll { predicate(it) }
-        }
-
-        return sum / count
-    }
-
-
-
     private fun handleScanResults(results: List<ScanResult>) {
         val selectedResult = results.find { it.device.address == selectedBeacon }
         if (selectedResult != null) {
@@ -219,7 +179,8 @@ class RssiMappingActivity : AppCompatActivity() {
             if (recording) {
                 val distance = distanceEditText.text.toString().toDoubleOrNull()
                 if (rssiCollection != null && currentRssi != null && distance != null) {
-                    rssiCollection!!.getMeasurements().add(RssiValue(currentRssi!!.toDouble(), distance, RssiValue.CollectionType.RECORDING))
+                    // Only the running statistics are needed to average a recording
+                    rssiCollection!!.record(RssiValue.CollectionType.RECORDING, distance, currentRssi!!.toDouble())
                 }
             }
         }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import java.util.Collections
+import kotlin.math.max
+
+/**
+ * Coalesces scan results into one slot per beacon and publishes snapshots of the
+ * latest result of every beacon seen, strongest RSSI first.
+ *
+ * Each advertisement is an O(1) update of the slot for its beacon ID (see [idOf]).
+ * Snapshots are published through [scheduler] at most once every
+ * [minPublishIntervalMillis]; advertisements arriving in between only update the table,
+ * so a burst of advertisements costs one publish.
+ *
+ * Advertisements from unknown devices are dropped. [counters] reports how many
+ * advertisements were received, dropped, and overwritten before being published.
+ *
+ * @param idOf dense ID of the beacon with a MAC address, or -1 if it is not a known beacon.
+ * @param publish receives each snapshot on the [scheduler]'s thread; snapshots are immutable.
+ */
+class ScanAggregator<T : Any>(
+    private val idOf: (String) -> Int,
+    private val scheduler: Scheduler,
+    private val minPublishIntervalMillis: Long = DEFAULT_PUBLISH_INTERVAL,
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val publish: (List<T>) -> Unit
+) : ScanListener<T> {
+    companion object {
+        const val DEFAULT_PUBLISH_INTERVAL = 200L // ms
+    }
+
+    /** Runs a task after a delay, e.g. a `Handler` posting to the main thread */
+    fun interface Scheduler {
+        fun schedule(delayMillis: Long, task: Runnable)
+    }
+
+    /** Advertisement counts since the aggregator was created */
+    class Counters(
+        val received: Long,
+        /** From devices that are not known beacons */
+        val dropped: Long,
+        /** Replaced by a newer result of the same beacon before being published */
+        val overwritten: Long,
+        val published: Long
+    )
+
+    private val lock = Any()
+
+    // Latest result of each beacon ID, and whether it arrived since the last snapshot
+    private var results = arrayOfNulls<Any>(0)
+    private var rssiById = IntArray(0)
+    private var unpublished = BooleanArray(0)
+    private var order = IntArray(0)
+
+    private var publishScheduled = false
+    private var lastPublish = 0L
+    private var received = 0L
+    private var dropped = 0L
+    private var overwritten = 0L
+    private var published = 0L
+
+    private val publishTask = Runnable {
+        val snapshot = synchronized(lock) {
+            publishScheduled = false
+            lastPublish = clock()
+            published++
+            unpublished.fill(false)
+            buildSnapshot()
+        }
+        publish(snapshot)
+    }
+
+    override fun onScanResult(address: String, rssi: Int, result: T) {
+        val id = idOf(address)
+        val delay: Long
+        synchronized(lock) {
+            received++
+            if (id < 0) {
+                dropped++
+                return
+            }
+            ensureCapacity(id + 1)
+            if (unpublished[id]) overwritten++
+            results[id] = result
+            rssiById[id] = rssi
+            unpublished[id] = true
+
+            if (publishScheduled) return
+            publishScheduled = true
+            delay = if (published == 0L) 0L else max(0L, lastPublish + minPublishIntervalMillis - clock())
+        }
+        scheduler.schedule(delay, publishTask)
+    }
+
+    /**
+     * @return the latest result of every beacon seen, strongest RSSI first.
+     */
+    fun snapshot(): List<T> {
+        synchronized(lock) {
+            return buildSnapshot()
+        }
+    }
+
+    /** Forgets every beacon's latest result. */
+    fun clear() {
+        synchronized(lock) {
+            results.fill(null)
+            unpublished.fill(false)
+        }
+    }
+
+    fun counters(): Counters {
+        synchronized(lock) {
+            return Counters(received, dropped, overwritten, published)
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun buildSnapshot(): List<T> {
+        // Insertion sort by RSSI; there are only as many entries as beacons in range
+        var count = 0
+        for (id in results.indices) {
+            if (results[id] == null) continue
+            var i = count++
+            while (i > 0 && rssiById[order[i - 1]] < rssiById[id]) {
+                order[i] = order[i - 1]
+                i--
+            }
+            order[i] = id
+        }
+        val snapshot = ArrayList<T>(count)
+        for (i in 0 until count) snapshot.add(results[order[i]] as T)
+        return Collections.unmodifiableList(snapshot)
+    }
+
+    private fun ensureCapacity(size: Int) {
+        if (size <= results.size) return
+        val capacity = max(size, results.size * 2)
+        results = results.copyOf(capacity)
+        rssiById = rssiById.copyOf(capacity)
+        unpublished = unpublished.copyOf(capacity)
+        order = IntArray(capacity)
+    }
+}
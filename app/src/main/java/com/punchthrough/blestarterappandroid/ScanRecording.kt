@@ -0,0 +1,156 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+
+/**
+ * Binary recording of scanned advertisements, for replaying a walk around a venue
+ * without hardware (see [ScanReplay]).
+ *
+ * Layout (big-endian):
+ * - header: magic, version, timestamp of the recording's start (epoch millis)
+ * - one record per advertisement: milliseconds since the previous advertisement (or the
+ *   start) as a zigzag varint, the 48-bit MAC address, and the RSSI as a signed byte
+ *
+ * Advertisements a few milliseconds apart take 8 bytes each. A record cut short (e.g.
+ * the app was killed mid-write) ends the recording.
+ */
+class ScanRecording(val file: File) {
+    companion object {
+        internal const val MAGIC = 0x53434e52 // "SCNR"
+        internal const val VERSION = 1
+        internal const val MAC_BYTES = 6
+    }
+
+    /**
+     * Streams the recorded advertisements to [action], in the order they were recorded.
+     * @return the number of advertisements read.
+     * @throws IOException if [file] is not a scan recording.
+     */
+    fun read(action: (timestamp: Long, macAddress: Long, rssi: Int) -> Unit): Int {
+        DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+            val timestamp: Long
+            try {
+                if (input.readInt() != MAGIC) throw IOException("Not a scan recording: $file")
+                val version = input.readInt()
+                if (version != VERSION) throw IOException("Unsupported scan recording version $version: $file")
+                timestamp = input.readLong()
+            } catch (e: EOFException) {
+                throw IOException("Not a scan recording: $file", e)
+            }
+
+            var previous = timestamp
+            var count = 0
+            while (true) {
+                val first = input.read()
+                if (first < 0) return count
+                try {
+                    val delta = readVarLong(input, first)
+                    var mac = 0L
+                    for (i in 0 until MAC_BYTES) mac = (mac shl 8) or input.readUnsignedByte().toLong()
+                    val rssi = input.readByte().toInt()
+                    previous += (delta ushr 1) xor -(delta and 1)
+                    action(previous, mac, rssi)
+                    count++
+                } catch (e: EOFException) {
+                    return count
+                }
+            }
+        }
+    }
+
+    private fun readVarLong(input: DataInputStream, first: Int): Long {
+        var value = (first and 0x7f).toLong()
+        var byte = first
+        var shift = 7
+        while (byte and 0x80 != 0) {
+            byte = input.readUnsignedByte()
+            value = value or ((byte and 0x7f).toLong() shl shift)
+            shift += 7
+        }
+        return value
+    }
+}
+
+/**
+ * Writes a [ScanRecording] to [file], replacing any existing file. Thread safe; records
+ * are buffered until [flush] or [close].
+ *
+ * @param startTimestamp epoch millis the recording starts at; advertisements should not
+ * be timestamped much earlier.
+ */
+class ScanRecorder(val file: File, startTimestamp: Long = System.currentTimeMillis()) : Closeable {
+    private val output = DataOutputStream(BufferedOutputStream(FileOutputStream(file)))
+    private var previous = startTimestamp
+    private var closed = false
+
+    /** Advertisements recorded so far */
+    var count = 0
+        private set
+
+    init {
+        output.writeInt(ScanRecording.MAGIC)
+        output.writeInt(ScanRecording.VERSION)
+        output.writeLong(startTimestamp)
+    }
+
+    /**
+     * Records an advertisement from the beacon with MAC address [macAddress] (see
+     * [com.matt.guidebeacons.beacons.BeaconRegistry.parseMacAddress]), received at
+     * [timestamp] (epoch millis). [rssi] is clamped to a signed byte. Ignored once closed.
+     */
+    @Synchronized
+    fun record(timestamp: Long, macAddress: Long, rssi: Int) {
+        if (closed) return
+        val delta = timestamp - previous
+        previous = timestamp
+        writeVarLong((delta shl 1) xor (delta shr 63))
+        for (i in ScanRecording.MAC_BYTES - 1 downTo 0) output.writeByte((macAddress ushr (8 * i)).toInt())
+        output.writeByte(rssi.coerceIn(Byte.MIN_VALUE.toInt(), Byte.MAX_VALUE.toInt()))
+        count++
+    }
+
+    @Synchronized
+    fun flush() {
+        if (!closed) output.flush()
+    }
+
+    @Synchronized
+    override fun close() {
+        closed = true
+        output.close()
+    }
+
+    private fun writeVarLong(value: Long) {
+        var remaining = value
+        while (remaining and 0x7fL.inv() != 0L) {
+            output.writeByte((remaining and 0x7f).toInt() or 0x80)
+            remaining = remaining ushr 7
+        }
+        output.writeByte(remaining.toInt())
+    }
+}
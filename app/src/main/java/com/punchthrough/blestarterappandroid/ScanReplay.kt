@@ -0,0 +1,160 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import com.matt.guidebeacons.beacons.BeaconRegistry
+import java.util.Locale
+
+/**
+ * Replays a [ScanRecording] through the positioning code on the JVM, for benchmarking and
+ * regression testing without hardware.
+ *
+ * Each advertisement from a beacon in [beacons] is Kalman filtered with
+ * [Beacon.updateFilteredRSSI] at its recorded time, so the filtered RSSI does not depend
+ * on the replay speed. Like the app's [ScanAggregator], which publishes at most every
+ * [fixIntervalMillis] and only once an advertisement has arrived, every interval of
+ * recorded time in which any beacon was heard ends in a fix: every beacon heard so far
+ * in the recording, not just in that interval, is ordered by filtered RSSI, strongest
+ * first, and passed to [calculator]. The time each fix takes is reported.
+ *
+ * @param speed replay speed relative to the recording: 1 replays in real time, 10 at
+ * ten times speed, and 0 as fast as possible.
+ * @param sleep waits for the given number of milliseconds; with [nanoTime], replaceable
+ * in tests.
+ */
+class ScanReplay(
+    private val beacons: BeaconRegistry,
+    private val calculator: PositionCalculator,
+    private val speed: Double = 0.0,
+    private val fixIntervalMillis: Long = ScanAggregator.DEFAULT_PUBLISH_INTERVAL,
+    private val sleep: (Long) -> Unit = Thread::sleep,
+    private val nanoTime: () -> Long = System::nanoTime
+) {
+    companion object {
+        private const val NANOS_PER_MILLI = 1_000_000L
+        private const val NANOS_PER_SECOND = 1_000_000_000.0
+    }
+
+    init {
+        require(speed >= 0.0) { "speed must not be negative" }
+        require(fixIntervalMillis > 0) { "fixIntervalMillis must be positive" }
+    }
+
+    class Report(
+        val advertisements: Int,
+        /** Advertisements from devices that are not in the registry */
+        val unknownAdvertisements: Int,
+        val fixes: Int,
+        /** Fixes for which the calculator found a position */
+        val positions: Int,
+        val elapsedNanos: Long,
+        /** Time each fix took, in nanoseconds */
+        val fixLatencies: LatencyHistogram.Snapshot
+    ) {
+        /** Advertisements replayed per second */
+        val throughput: Double
+            get() = if (elapsedNanos <= 0L) 0.0 else advertisements * NANOS_PER_SECOND / elapsedNanos
+
+        override fun toString(): String {
+            return String.format(
+                Locale.US,
+                "%d advertisements (%d unknown), %d fixes (%d positions) in %.3fs: %.0f advertisements/s, " +
+                    "fix p50=%.3fms p99=%.3fms max=%.3fms",
+                advertisements, unknownAdvertisements, fixes, positions, elapsedNanos / NANOS_PER_SECOND, throughput,
+                fixLatencies.valueAtPercentile(50.0) / 1e6,
+                fixLatencies.valueAtPercentile(99.0) / 1e6,
+                fixLatencies.max / 1e6
+            )
+        }
+    }
+
+    // Whether each beacon, by registry ID, has been heard so far, and whether any was since the last fix
+    private var heard = BooleanArray(0)
+    private var heardSinceFix = false
+
+    /**
+     * Replays [recording].
+     * @param onFix receives the recorded time of each fix and its position, if one was found.
+     */
+    fun run(recording: ScanRecording, onFix: ((timestamp: Long, position: Position?) -> Unit)? = null): Report {
+        val latencies = LatencyHistogram()
+        var advertisements = 0
+        var unknown = 0
+        var fixes = 0
+        var positions = 0
+        var firstTimestamp = 0L
+        var intervalEnd = 0L
+        heard = BooleanArray(beacons.idLimit)
+        heardSinceFix = false
+
+        fun fix(timestamp: Long) {
+            heardSinceFix = false
+            val start = nanoTime()
+            val position = calculator.calculatePosition(collectHeard())
+            latencies.record(nanoTime() - start)
+            fixes++
+            if (position != null) positions++
+            onFix?.invoke(timestamp, position)
+        }
+
+        val startNanos = nanoTime()
+        recording.read { timestamp, macAddress, rssi ->
+            if (advertisements == 0) {
+                firstTimestamp = timestamp
+                intervalEnd = timestamp + fixIntervalMillis
+            }
+            advertisements++
+            if (speed > 0.0) pace(startNanos, timestamp - firstTimestamp)
+
+            // Fix every interval that ended before this advertisement, as the aggregator would
+            while (timestamp >= intervalEnd) {
+                if (heardSinceFix) fix(intervalEnd)
+                intervalEnd += fixIntervalMillis
+            }
+
+            val id = beacons.idOf(macAddress)
+            val beacon = beacons.beaconAt(id)
+            if (beacon == null) {
+                unknown++
+                return@read
+            }
+            beacon.updateFilteredRSSI(rssi, timestamp)
+            heard[id] = true
+            heardSinceFix = true
+        }
+        if (heardSinceFix) fix(intervalEnd)
+
+        return Report(advertisements, unknown, fixes, positions, nanoTime() - startNanos, latencies.snapshot())
+    }
+
+    // Waits until the replay has caught up with the recording's offset
+    private fun pace(startNanos: Long, offsetMillis: Long) {
+        val dueNanos = startNanos + (offsetMillis * NANOS_PER_MILLI / speed).toLong()
+        val aheadMillis = (dueNanos - nanoTime()) / NANOS_PER_MILLI
+        if (aheadMillis > 0) sleep(aheadMillis)
+    }
+
+    private fun collectHeard(): List<Beacon> {
+        val heardBeacons = ArrayList<Beacon>()
+        for (id in heard.indices) {
+            if (heard[id]) beacons.beaconAt(id)?.let { heardBeacons.add(it) }
+        }
+        heardBeacons.sortByDescending { it.getFilteredRSSI() }
+        return heardBeacons
+    }
+}
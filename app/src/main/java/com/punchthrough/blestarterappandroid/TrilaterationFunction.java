@@ -16,6 +16,8 @@
 
 package com.punchthrough.blestarterappandroid;
 
+import java.util.Arrays;
+
 /**
  * Solves the trilateration problem using nonlinear least squares optimization
  * (Levenberg-Marquardt algorithm) with a Huber robust loss function via
@@ -28,24 +30,154 @@ package com.punchthrough.blestarterappandroid;
  *
  * <p>HUBER_DELTA controls the threshold between L2 and L1 behaviour. Set it to
  * roughly the expected noise level in your distance measurements (in metres).
+ *
+ * <p>All working state lives in flat primitive arrays allocated once per instance,
+ * sized to the beacon capacity. An instance can be reloaded with
+ * {@link #setProblem(double[], double[][], double[])} and solved with
+ * {@link #solve(double[])} without any heap allocation, so a single solver can be
+ * kept around and reused on every scan callback. Instances are not thread-safe.
+ *
+ * <p>Optionally, the starting point can be improved before iterating: with
+ * {@link #setLinearInitialization(boolean)} a closed-form linearised least squares
+ * estimate is considered, and with {@link #setWarmStart(boolean)} the last fix
+ * returned by this instance is considered. Of the caller's guess and these
+ * candidates, the one with the lowest Huber cost is used as the LM start.
+ *
+ * <p>{@link #solve(Result, long, int)} bounds a solve by wall-clock time and/or
+ * number of cost evaluations. Since LM only ever accepts steps that lower the
+ * cost, stopping early still returns the best position found so far.
  */
 public class TrilaterationFunction {
 
     private static final int MAX_ITERATIONS = 1000;
     private static final double CONVERGENCE_THRESHOLD = 1e-10;
     private static final double INITIAL_LAMBDA = 1e-3;
+    private static final double MAX_LAMBDA = 1e10;
+
+    /**
+     * Relative determinant threshold below which the linearised system is treated
+     * as rank deficient in z (e.g. all beacons mounted at the same height).
+     */
+    private static final double LINEAR_RANK_THRESHOLD = 1e-9;
 
     /**
      * Huber loss threshold (metres). Residuals smaller than this are penalised
      * quadratically; larger ones are penalised linearly, capping their influence.
      * Tune this to match your expected per-beacon distance noise floor.
      */
-    private static final double HUBER_DELTA = 0.5;
+    static final double HUBER_DELTA = 0.5;
 
-    private final double[] prev;
-    private final double[][] beaconCoords;
+    private final int capacity;
+    private int numBeacons;
+
+    // Problem definition, copied in so callers can reuse their own buffers
+    private final double[] prev = new double[3];
+    private final double[] beaconCoords; // row-major [x0, y0, z0, x1, y1, z1, ...]
     private final double[] distances;
-    private final int numBeacons;
+
+    // Workspace, sized to capacity
+    private double[] residuals;
+    private double[] trialResiduals;
+    private final double[] weights;
+    private final double[] jacobian; // row-major, numBeacons x 3
+    private final double[] JtWJ = new double[9];
+    private final double[] JtWr = new double[3];
+    private final double[] A = new double[9];
+    private final double[] b = new double[3];
+    private final double[] delta = new double[3];
+    private final double[] pos = new double[3];
+    private final double[] newPos = new double[3];
+
+    // Initialisation
+    private boolean linearInitialization = false;
+    private boolean warmStart = false;
+    private boolean hasLastFix = false;
+    private final double[] lastFix = new double[3];
+    private final Result scratchResult = new Result();
+
+    /** Where the LM iterations of a solve started from. */
+    public enum StartPoint {
+        /** The initial guess passed to {@code setProblem} */
+        INITIAL_GUESS,
+        /** The last fix returned by this solver */
+        WARM_START,
+        /** The closed-form linearised least squares estimate */
+        LINEAR
+    }
+
+    /** Why a solve stopped iterating. */
+    public enum Status {
+        /** The last accepted step was below the convergence threshold */
+        CONVERGED,
+        /** No further step could lower the cost, even with maximum damping */
+        STALLED,
+        /** MAX_ITERATIONS was reached */
+        MAX_ITERATIONS,
+        /** The time budget ran out; the position is the best found so far */
+        TIME_BUDGET_EXCEEDED,
+        /** The cost evaluation budget ran out; the position is the best found so far */
+        EVALUATION_BUDGET_EXCEEDED
+    }
+
+    /**
+     * Outcome of a solve, including iteration and cost counters. Reusable: passing the
+     * same instance to {@link #solve(Result)} repeatedly does not allocate.
+     */
+    public static final class Result {
+        private final double[] position = new double[3];
+        private int iterations;
+        private int costEvaluations;
+        private double initialCost;
+        private double cost;
+        private StartPoint startPoint = StartPoint.INITIAL_GUESS;
+        private Status status = Status.MAX_ITERATIONS;
+        private long elapsedNanos;
+
+        /** @return Estimated position as [x, y, z]; owned by this result */
+        public double[] getPosition() {
+            return position;
+        }
+
+        /** @return Number of LM iterations performed */
+        public int getIterations() {
+            return iterations;
+        }
+
+        /** @return Number of times the Huber cost was evaluated, including for start candidates */
+        public int getCostEvaluations() {
+            return costEvaluations;
+        }
+
+        /** @return Huber cost at the chosen starting point */
+        public double getInitialCost() {
+            return initialCost;
+        }
+
+        /** @return Huber cost at the returned position */
+        public double getCost() {
+            return cost;
+        }
+
+        /** @return Which candidate the iterations started from */
+        public StartPoint getStartPoint() {
+            return startPoint;
+        }
+
+        /** @return Why iteration stopped */
+        public Status getStatus() {
+            return status;
+        }
+
+        /** @return Whether the position is a local minimum rather than a cut-off estimate */
+        public boolean isConverged() {
+            return status == Status.CONVERGED || status == Status.STALLED;
+        }
+
+        /** @return Wall-clock time spent in the solve, or 0 if it was not time bounded */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
 
     /**
      * @param prev        Initial guess for the position [x, y, z]
@@ -53,10 +185,120 @@ public class TrilaterationFunction {
      * @param distances   Measured distances from each beacon
      */
     public TrilaterationFunction(double[] prev, double[][] coordinates, double[] distances) {
-        this.prev = prev.clone();
-        this.beaconCoords = coordinates;
-        this.distances = distances;
-        this.numBeacons = coordinates.length;
+        this(coordinates.length);
+        setProblem(prev, coordinates, distances);
+    }
+
+    /**
+     * Creates an empty solver with a workspace for up to {@code capacity} beacons.
+     * Call {@link #setProblem(double[], double[][], double[])} before solving.
+     *
+     * @param capacity Maximum number of beacons a single problem may contain
+     */
+    public TrilaterationFunction(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be non-negative, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.beaconCoords = new double[3 * capacity];
+        this.distances = new double[capacity];
+        this.residuals = new double[capacity];
+        this.trialResiduals = new double[capacity];
+        this.weights = new double[capacity];
+        this.jacobian = new double[3 * capacity];
+    }
+
+    /**
+     * Loads a new problem into this solver's workspace. The arrays are copied, so the
+     * caller is free to reuse them afterwards. Does not allocate.
+     *
+     * @param prev        Initial guess for the position [x, y, z]
+     * @param coordinates Beacon positions, each row is [x, y, z]
+     * @param distances   Measured distances from each beacon
+     * @throws IllegalArgumentException if there are more beacons than the capacity
+     */
+    public void setProblem(double[] prev, double[][] coordinates, double[] distances) {
+        int n = coordinates.length;
+        checkBeaconCount(n, distances.length);
+        for (int i = 0; i < n; i++) {
+            double[] c = coordinates[i];
+            beaconCoords[3 * i] = c[0];
+            beaconCoords[3 * i + 1] = c[1];
+            beaconCoords[3 * i + 2] = c[2];
+        }
+        System.arraycopy(distances, 0, this.distances, 0, n);
+        System.arraycopy(prev, 0, this.prev, 0, 3);
+        this.numBeacons = n;
+    }
+
+    /**
+     * Loads a problem from packed arrays, as used by {@link BatchTrilateration}.
+     * Does not allocate.
+     *
+     * @param prev           Array holding the initial guess [x, y, z] at {@code prevOffset}
+     * @param packedCoords   Beacon positions packed as [x0, y0, z0, x1, ...] from {@code coordsOffset}
+     * @param distances      Measured distances from {@code distancesOffset}
+     * @param numBeacons     Number of beacons to read
+     * @throws IllegalArgumentException if there are more beacons than the capacity
+     */
+    public void setProblem(double[] prev, int prevOffset,
+                           double[] packedCoords, int coordsOffset,
+                           double[] distances, int distancesOffset,
+                           int numBeacons) {
+        checkBeaconCount(numBeacons, numBeacons);
+        System.arraycopy(packedCoords, coordsOffset, beaconCoords, 0, 3 * numBeacons);
+        System.arraycopy(distances, distancesOffset, this.distances, 0, numBeacons);
+        System.arraycopy(prev, prevOffset, this.prev, 0, 3);
+        this.numBeacons = numBeacons;
+    }
+
+    private void checkBeaconCount(int n, int numDistances) {
+        if (n > capacity) {
+            throw new IllegalArgumentException("Solver capacity is " + capacity + " beacons, got " + n);
+        }
+        if (numDistances < n) {
+            throw new IllegalArgumentException("Expected " + n + " distances, got " + numDistances);
+        }
+    }
+
+    /**
+     * Enables considering a linearised least squares estimate as the starting point.
+     * The estimate subtracts the sphere equation of the closest beacon from the
+     * others, which yields a linear system in [x, y, z]. If the beacons are coplanar
+     * in z only [x, y] are estimated and z is taken from the initial guess.
+     */
+    public void setLinearInitialization(boolean enabled) {
+        this.linearInitialization = enabled;
+    }
+
+    /**
+     * Enables considering the last converged fix of this solver as the starting point.
+     * Useful when the same instance is reused for consecutive fixes.
+     */
+    public void setWarmStart(boolean enabled) {
+        this.warmStart = enabled;
+    }
+
+    /** Forgets the last fix used for warm starting, e.g. after a long scanning gap. */
+    public void resetWarmStart() {
+        this.hasLastFix = false;
+    }
+
+    /** @return Maximum number of beacons this solver can hold */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Solves for the position, allocating a new result array.
+     *
+     * @return Estimated position as [x, y, z]
+     * @see #solve(double[])
+     */
+    public double[] solve() {
+        double[] out = new double[3];
+        solve(out);
+        return out;
     }
 
     /**
@@ -70,55 +312,243 @@ public class TrilaterationFunction {
      *   <li>Accept or reject the step using the weighted Huber cost</li>
      * </ol>
      *
-     * @return Estimated position as [x, y, z]
+     * <p>Performs no heap allocation.
+     *
+     * @param out Receives the estimated position as [x, y, z]; must have length >= 3
      */
-    public double[] solve() {
-        double[] pos = prev.clone();
-        double lambda = INITIAL_LAMBDA;
+    public void solve(double[] out) {
+        solve(out, 0);
+    }
 
-        for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
-            // Compute residuals: r_i = dist(pos, beacon_i) - measured_i
-            double[] residuals = computeResiduals(pos);
+    /**
+     * Same as {@link #solve(double[])}, writing [x, y, z] to {@code out} starting at
+     * {@code outOffset}.
+     */
+    public void solve(double[] out, int outOffset) {
+        solve(scratchResult);
+        System.arraycopy(scratchResult.position, 0, out, outOffset, 3);
+    }
+
+    /**
+     * Same as {@link #solve(double[])}, additionally reporting iteration and cost
+     * counters. Performs no heap allocation.
+     *
+     * @param result Receives the position and counters
+     */
+    public void solve(Result result) {
+        solve(result, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Anytime solve: iterates until convergence or until either budget runs out, and
+     * returns the best position found so far together with the stop reason.
+     *
+     * <p>The time budget is checked once per iteration, so a solve may overrun it by
+     * at most one iteration (O(numBeacons) work). Performs no heap allocation.
+     *
+     * @param result             Receives the position, status and counters
+     * @param timeBudgetNanos    Wall-clock budget, or {@link Long#MAX_VALUE} for none
+     * @param maxCostEvaluations Cost evaluation budget, or {@link Integer#MAX_VALUE} for none
+     */
+    public void solve(Result result, long timeBudgetNanos, int maxCostEvaluations) {
+        if (timeBudgetNanos <= 0) {
+            throw new IllegalArgumentException("timeBudgetNanos must be positive, got " + timeBudgetNanos);
+        }
+        if (maxCostEvaluations <= 0) {
+            throw new IllegalArgumentException("maxCostEvaluations must be positive, got " + maxCostEvaluations);
+        }
+        boolean timed = timeBudgetNanos != Long.MAX_VALUE;
+        long startNanos = timed ? System.nanoTime() : 0L;
+
+        result.costEvaluations = 0;
+        result.startPoint = StartPoint.INITIAL_GUESS;
+        result.status = Status.MAX_ITERATIONS;
+
+        // Residuals at the current position: r_i = dist(pos, beacon_i) - measured_i.
+        // Kept across iterations and only refreshed when a step is accepted.
+        System.arraycopy(prev, 0, pos, 0, 3);
+        computeResiduals(pos, residuals);
+        double cost = huberCost(residuals);
+        result.costEvaluations++;
+
+        if (warmStart && hasLastFix && result.costEvaluations < maxCostEvaluations) {
+            System.arraycopy(lastFix, 0, newPos, 0, 3);
+            double candidateCost = evaluateStartCandidate(result);
+            if (candidateCost < cost) {
+                cost = candidateCost;
+                acceptStartCandidate();
+                result.startPoint = StartPoint.WARM_START;
+            }
+        }
+        if (linearInitialization && result.costEvaluations < maxCostEvaluations && linearEstimate(newPos)) {
+            double candidateCost = evaluateStartCandidate(result);
+            if (candidateCost < cost) {
+                cost = candidateCost;
+                acceptStartCandidate();
+                result.startPoint = StartPoint.LINEAR;
+            }
+        }
+        result.initialCost = cost;
+
+        double lambda = INITIAL_LAMBDA;
+        int iter = 0;
+        while (iter < MAX_ITERATIONS) {
+            if (result.costEvaluations >= maxCostEvaluations) {
+                result.status = Status.EVALUATION_BUDGET_EXCEEDED;
+                break;
+            }
+            if (timed && System.nanoTime() - startNanos >= timeBudgetNanos) {
+                result.status = Status.TIME_BUDGET_EXCEEDED;
+                break;
+            }
+            iter++;
 
             // IRLS: compute per-beacon Huber weights based on current residuals.
             // Beacons with large residuals (likely noisy outliers) get a lower weight,
             // capping their influence on the solution.
-            double[] weights = huberWeights(residuals);
+            huberWeights(residuals, weights);
 
             // Compute Jacobian J (numBeacons x 3)
-            double[][] J = computeJacobian(pos);
+            computeJacobian(pos, jacobian);
 
             // Compute weighted J^T*W*J and J^T*W*r
-            double[][] JtWJ = multiplyJtWJ(J, weights);
-            double[] JtWr = multiplyJtWr(J, weights, residuals);
+            multiplyJtWJ(jacobian, weights, JtWJ);
+            multiplyJtWr(jacobian, weights, residuals, JtWr);
 
             // Levenberg-Marquardt damping: (J^T*W*J + lambda*I) * delta = -J^T*W*r
-            double[][] A = addDamping(JtWJ, lambda);
-            double[] b = negate(JtWr);
+            addDamping(JtWJ, lambda, A);
+            b[0] = -JtWr[0];
+            b[1] = -JtWr[1];
+            b[2] = -JtWr[2];
 
-            double[] delta = solveLinear3x3(A, b);
-            if (delta == null) {
+            if (!solveLinear3x3(A, b, delta)) {
                 // Singular matrix — increase damping and retry
                 lambda *= 10.0;
                 continue;
             }
 
-            double[] newPos = add(pos, delta);
-            double oldCost = huberCost(residuals);
-            double newCost = huberCost(computeResiduals(newPos));
+            newPos[0] = pos[0] + delta[0];
+            newPos[1] = pos[1] + delta[1];
+            newPos[2] = pos[2] + delta[2];
+            computeResiduals(newPos, trialResiduals);
+            double newCost = huberCost(trialResiduals);
+            result.costEvaluations++;
 
-            if (newCost < oldCost) {
-                pos = newPos;
+            if (newCost < cost) {
+                System.arraycopy(newPos, 0, pos, 0, 3);
+                double[] tmp = residuals;
+                residuals = trialResiduals;
+                trialResiduals = tmp;
+                cost = newCost;
                 lambda = Math.max(lambda / 10.0, 1e-15);
-                if (norm(delta) < CONVERGENCE_THRESHOLD) {
+                if (norm3(delta) < CONVERGENCE_THRESHOLD) {
+                    result.status = Status.CONVERGED;
                     break;
                 }
+            } else if (lambda >= MAX_LAMBDA) {
+                // Damping is saturated, so every further iteration would reject the same step
+                result.status = Status.STALLED;
+                break;
             } else {
-                lambda = Math.min(lambda * 10.0, 1e10);
+                lambda = Math.min(lambda * 10.0, MAX_LAMBDA);
             }
         }
 
-        return pos;
+        result.iterations = iter;
+        result.elapsedNanos = timed ? System.nanoTime() - startNanos : 0L;
+        result.cost = cost;
+        System.arraycopy(pos, 0, result.position, 0, 3);
+        // A solve cut short by a budget may be far from the minimum, so it must not seed the next one
+        if (result.isConverged()) {
+            System.arraycopy(pos, 0, lastFix, 0, 3);
+            hasLastFix = true;
+        }
+    }
+
+    /** Evaluates the Huber cost of the start candidate held in {@code newPos}. */
+    private double evaluateStartCandidate(Result result) {
+        computeResiduals(newPos, trialResiduals);
+        result.costEvaluations++;
+        return huberCost(trialResiduals);
+    }
+
+    /** Makes the start candidate held in {@code newPos} the current position. */
+    private void acceptStartCandidate() {
+        System.arraycopy(newPos, 0, pos, 0, 3);
+        double[] tmp = residuals;
+        residuals = trialResiduals;
+        trialResiduals = tmp;
+    }
+
+    /**
+     * Closed-form linearised least squares estimate.
+     *
+     * <p>Subtracting the sphere equation of reference beacon 0 from beacon i gives
+     * <pre>2 (b_i - b_0) · p = d_0² - d_i² + |b_i|² - |b_0|²</pre>
+     * which is linear in p. The normal equations of these rows are accumulated
+     * directly, without storing the system. The closest beacon is used as the
+     * reference since its distance is usually the most accurate.
+     *
+     * @param out Receives the estimate
+     * @return false if there are too few beacons or the geometry is degenerate
+     */
+    private boolean linearEstimate(double[] out) {
+        if (numBeacons < 3) return false;
+
+        int ref = 0;
+        for (int i = 1; i < numBeacons; i++) {
+            if (distances[i] < distances[ref]) ref = i;
+        }
+        double rx = beaconCoords[3 * ref];
+        double ry = beaconCoords[3 * ref + 1];
+        double rz = beaconCoords[3 * ref + 2];
+        double rd = distances[ref];
+        double refNormSq = rx * rx + ry * ry + rz * rz;
+
+        // Accumulate M = AᵀA (row-major into A) and v = Aᵀc (into b)
+        Arrays.fill(A, 0.0);
+        b[0] = 0.0;
+        b[1] = 0.0;
+        b[2] = 0.0;
+        for (int i = 0; i < numBeacons; i++) {
+            if (i == ref) continue;
+            double bx = beaconCoords[3 * i];
+            double by = beaconCoords[3 * i + 1];
+            double bz = beaconCoords[3 * i + 2];
+            double ax = 2.0 * (bx - rx);
+            double ay = 2.0 * (by - ry);
+            double az = 2.0 * (bz - rz);
+            double c = rd * rd - distances[i] * distances[i] + (bx * bx + by * by + bz * bz) - refNormSq;
+            A[0] += ax * ax; A[1] += ax * ay; A[2] += ax * az;
+            A[4] += ay * ay; A[5] += ay * az;
+            A[8] += az * az;
+            b[0] += ax * c;
+            b[1] += ay * c;
+            b[2] += az * c;
+        }
+        A[3] = A[1];
+        A[6] = A[2];
+        A[7] = A[5];
+
+        double trace = A[0] + A[4] + A[8];
+        if (trace <= 0.0) return false;
+        double scale = trace / 3.0;
+        double det = det3x3(A[0], A[1], A[2], A[3], A[4], A[5], A[6], A[7], A[8]);
+        if (numBeacons >= 4 && Math.abs(det) > LINEAR_RANK_THRESHOLD * scale * scale * scale) {
+            return solveLinear3x3(A, b, out);
+        }
+
+        // Rank deficient in z: fix z to the initial guess and solve the 2x2 system in [x, y]
+        double z = prev[2];
+        double m00 = A[0], m01 = A[1], m11 = A[4];
+        double v0 = b[0] - A[2] * z;
+        double v1 = b[1] - A[5] * z;
+        double det2 = m00 * m11 - m01 * m01;
+        if (Math.abs(det2) <= LINEAR_RANK_THRESHOLD * scale * scale) return false;
+        out[0] = (v0 * m11 - m01 * v1) / det2;
+        out[1] = (m00 * v1 - m01 * v0) / det2;
+        out[2] = z;
+        return true;
     }
 
     /**
@@ -131,13 +561,11 @@ public class TrilaterationFunction {
      * multiplying J and r by sqrt(w) and then forming JᵀWJ is equivalent to
      * minimizing sum_i rho(r_i) where rho is the Huber function.
      */
-    private double[] huberWeights(double[] residuals) {
-        double[] weights = new double[numBeacons];
+    private void huberWeights(double[] residuals, double[] weights) {
         for (int i = 0; i < numBeacons; i++) {
             double absR = Math.abs(residuals[i]);
             weights[i] = (absR <= HUBER_DELTA) ? 1.0 : HUBER_DELTA / absR;
         }
-        return weights;
     }
 
     /**
@@ -149,7 +577,8 @@ public class TrilaterationFunction {
      */
     private double huberCost(double[] residuals) {
         double cost = 0.0;
-        for (double r : residuals) {
+        for (int i = 0; i < numBeacons; i++) {
+            double r = residuals[i];
             double absR = Math.abs(r);
             if (absR <= HUBER_DELTA) {
                 cost += 0.5 * r * r;
@@ -164,120 +593,99 @@ public class TrilaterationFunction {
     // Helper methods
     // -------------------------------------------------------------------------
 
-    private double[] computeResiduals(double[] pos) {
-        double[] r = new double[numBeacons];
+    private void computeResiduals(double[] pos, double[] r) {
         for (int i = 0; i < numBeacons; i++) {
-            r[i] = dist(pos, beaconCoords[i]) - distances[i];
+            r[i] = distToBeacon(pos, i) - distances[i];
         }
-        return r;
     }
 
     /**
      * Jacobian row i = d(r_i)/d(pos) = (pos - beacon_i) / dist(pos, beacon_i)
      */
-    private double[][] computeJacobian(double[] pos) {
-        double[][] J = new double[numBeacons][3];
+    private void computeJacobian(double[] pos, double[] J) {
         for (int i = 0; i < numBeacons; i++) {
-            double d = dist(pos, beaconCoords[i]);
+            double d = distToBeacon(pos, i);
             if (d < 1e-12) d = 1e-12; // avoid division by zero
             for (int k = 0; k < 3; k++) {
-                J[i][k] = (pos[k] - beaconCoords[i][k]) / d;
+                J[3 * i + k] = (pos[k] - beaconCoords[3 * i + k]) / d;
             }
         }
-        return J;
     }
 
-    /** Computes J^T * W * J (3x3 matrix), where W = diag(weights) */
-    private double[][] multiplyJtWJ(double[][] J, double[] weights) {
-        double[][] result = new double[3][3];
+    /** Computes J^T * W * J (3x3 matrix, row-major), where W = diag(weights) */
+    private void multiplyJtWJ(double[] J, double[] weights, double[] result) {
         for (int a = 0; a < 3; a++) {
             for (int b = 0; b < 3; b++) {
                 double sum = 0.0;
                 for (int i = 0; i < numBeacons; i++) {
-                    sum += weights[i] * J[i][a] * J[i][b];
+                    sum += weights[i] * J[3 * i + a] * J[3 * i + b];
                 }
-                result[a][b] = sum;
+                result[3 * a + b] = sum;
             }
         }
-        return result;
     }
 
     /** Computes J^T * W * r (3-vector), where W = diag(weights) */
-    private double[] multiplyJtWr(double[][] J, double[] weights, double[] r) {
-        double[] result = new double[3];
+    private void multiplyJtWr(double[] J, double[] weights, double[] r, double[] result) {
         for (int a = 0; a < 3; a++) {
             double sum = 0.0;
             for (int i = 0; i < numBeacons; i++) {
-                sum += weights[i] * J[i][a] * r[i];
+                sum += weights[i] * J[3 * i + a] * r[i];
             }
             result[a] = sum;
         }
-        return result;
     }
 
-    /** Adds lambda * I to a 3x3 matrix (in-place copy) */
-    private double[][] addDamping(double[][] M, double lambda) {
-        double[][] A = new double[3][3];
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                A[i][j] = M[i][j];
-            }
-            A[i][i] += lambda;
-        }
-        return A;
+    /** Copies a 3x3 matrix into {@code A} and adds lambda * I */
+    private void addDamping(double[] M, double lambda, double[] A) {
+        System.arraycopy(M, 0, A, 0, 9);
+        A[0] += lambda;
+        A[4] += lambda;
+        A[8] += lambda;
     }
 
     /**
-     * Solves A * x = b for a 3x3 matrix using Cramer's rule.
-     * Returns null if the matrix is singular.
+     * Solves A * x = b for a row-major 3x3 matrix using Cramer's rule.
+     * Returns false (leaving x untouched) if the matrix is singular.
      */
-    private double[] solveLinear3x3(double[][] A, double[] b) {
-        double det = det3x3(A);
-        if (Math.abs(det) < 1e-15) return null;
-
-        double[] x = new double[3];
-        for (int col = 0; col < 3; col++) {
-            double[][] M = new double[3][3];
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    M[i][j] = (j == col) ? b[i] : A[i][j];
-                }
-            }
-            x[col] = det3x3(M) / det;
-        }
-        return x;
-    }
-
-    private double det3x3(double[][] M) {
-        return M[0][0] * (M[1][1] * M[2][2] - M[1][2] * M[2][1])
-                - M[0][1] * (M[1][0] * M[2][2] - M[1][2] * M[2][0])
-                + M[0][2] * (M[1][0] * M[2][1] - M[1][1] * M[2][0]);
-    }
+    private static boolean solveLinear3x3(double[] A, double[] b, double[] x) {
+        double det = det3x3(
+                A[0], A[1], A[2],
+                A[3], A[4], A[5],
+                A[6], A[7], A[8]);
+        if (Math.abs(det) < 1e-15) return false;
 
-    private double dist(double[] a, double[] b) {
-        double sum = 0.0;
-        for (int i = 0; i < a.length; i++) {
-            double diff = a[i] - b[i];
-            sum += diff * diff;
-        }
-        return Math.sqrt(sum);
+        x[0] = det3x3(
+                b[0], A[1], A[2],
+                b[1], A[4], A[5],
+                b[2], A[7], A[8]) / det;
+        x[1] = det3x3(
+                A[0], b[0], A[2],
+                A[3], b[1], A[5],
+                A[6], b[2], A[8]) / det;
+        x[2] = det3x3(
+                A[0], A[1], b[0],
+                A[3], A[4], b[1],
+                A[6], A[7], b[2]) / det;
+        return true;
     }
 
-    private double[] add(double[] a, double[] b) {
-        double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) result[i] = a[i] + b[i];
-        return result;
+    private static double det3x3(double m00, double m01, double m02,
+                                 double m10, double m11, double m12,
+                                 double m20, double m21, double m22) {
+        return m00 * (m11 * m22 - m12 * m21)
+                - m01 * (m10 * m22 - m12 * m20)
+                + m02 * (m10 * m21 - m11 * m20);
     }
 
-    private double[] negate(double[] a) {
-        double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) result[i] = -a[i];
-        return result;
+    private double distToBeacon(double[] pos, int i) {
+        double dx = pos[0] - beaconCoords[3 * i];
+        double dy = pos[1] - beaconCoords[3 * i + 1];
+        double dz = pos[2] - beaconCoords[3 * i + 2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
     }
 
-    private double norm(double[] a) {
-        double sum = 0.0;
-        for (double v : a) sum += v * v;
-        return Math.sqrt(sum);
+    private static double norm3(double[] a) {
+        return Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]);
     }
-}
\ No newline at end of file
+}
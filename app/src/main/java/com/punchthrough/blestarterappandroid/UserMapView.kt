@@ -328,6 +328,7 @@ class UserMapView(context: Context, attrs: AttributeSet? = null) : View(context,
         val tolerance = 0.25f
 
         // Determine POI state with tolerance checks
+        val poiCheckStart = PipelineMetrics.start()
         val atStart = startRectangles.any { polygonContainsPoint(it, userPosition!!) }
         val atEnd = endRectangles.any { polygonContainsPoint(it, userPosition!!) }
         val onAnyPath = paths.any { pathIsNear(userPosition!!, it, tolerance) }
@@ -338,6 +339,7 @@ class UserMapView(context: Context, attrs: AttributeSet? = null) : View(context,
             onAnyPath -> POIState.PATH
             else -> POIState.NONE
         }
+        PipelineMetrics.record(PipelineMetrics.Section.POI_CHECK, poiCheckStart)
 
         // Only act if state changed
         if (newState != lastPoiState) {
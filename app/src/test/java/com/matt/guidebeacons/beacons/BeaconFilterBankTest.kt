@@ -0,0 +1,80 @@
+package com.matt.guidebeacons.beacons
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class BeaconFilterBankTest {
+    private val ids = BeaconIdTable()
+    private val bank = BeaconFilterBank(ids)
+
+    @Test
+    fun testBatchedUpdateMatchesSingleUpdates() {
+        val single = BeaconFilterBank(ids)
+        val beaconIds = IntArray(3) { ids.intern("beacon$it") }
+        val rssi = IntArray(3)
+        for (scan in 0 until 20) {
+            for (i in 0 until 3) rssi[i] = -60 - 5 * i + scan % 4
+            bank.update(beaconIds, rssi, 3, scan * 1000L)
+            for (i in 0 until 3) single.update(beaconIds[i], rssi[i].toDouble(), scan * 1000L)
+        }
+
+        val snapshot = DoubleArray(4)
+        ids.intern("never seen")
+        assertEquals(4, bank.snapshot(snapshot))
+        for (i in 0 until 3) assertEquals(single.filtered(beaconIds[i]), snapshot[i], 0.0)
+        assertTrue(snapshot[3].isNaN())
+    }
+
+    @Test
+    fun testLongGapsAdaptFaster() {
+        val frequent = ids.intern("frequent")
+        val rare = ids.intern("rare")
+        for (second in 0 until 10) {
+            bank.update(frequent, -60.0, second * 1000L)
+            bank.update(rare, -60.0, second * 1000L)
+        }
+        // Same jump, but one beacon has not been heard for a minute
+        val afterShortGap = bank.update(frequent, -80.0, 10_000L)
+        val afterLongGap = bank.update(rare, -80.0, 70_000L)
+        assertTrue(afterLongGap < afterShortGap)
+    }
+
+    @Test
+    fun testBeaconsKeepTheirOwnFilters() {
+        val first = Beacon("New beacon", -59, 0.0, 0.0, 0.0)
+        val second = Beacon("New beacon", -59, 1.0, 0.0, 0.0)
+        first.updateFilteredRSSI(-60, 0L)
+        second.updateFilteredRSSI(-80, 0L)
+        assertEquals(-60.0, first.getFilteredRSSI(), 0.0)
+        assertEquals(-80.0, second.getFilteredRSSI(), 0.0)
+
+        // Neither creating another beacon of the same name nor renaming resets a filter
+        Beacon("New beacon", -59, 2.0, 0.0, 0.0)
+        first.updateData("Entrance", -59, 0.0, 0.0, 0.0)
+        assertEquals(-60.0, first.getFilteredRSSI(), 0.0)
+        assertEquals(-80.0, second.getFilteredRSSI(), 0.0)
+    }
+
+    @Test
+    fun testRegistryReleasesFiltersOfDroppedBeacons() {
+        val registry = BeaconRegistry()
+        val loaded = Beacon("Entrance", -59, 0.0, 0.0, 0.0)
+        registry["00:3C:84:28:87:01"] = loaded
+        loaded.updateFilteredRSSI(-60, 0L)
+        val filter = loaded.getBeaconId()
+
+        // Reloading the beacon file replaces every beacon; the new one reuses the filter, unsampled
+        registry.clear()
+        val reloaded = Beacon("Entrance", -59, 0.0, 0.0, 0.0)
+        registry["00:3C:84:28:87:01"] = reloaded
+        assertEquals(filter, reloaded.getBeaconId())
+        assertEquals(-59.0, reloaded.getFilteredRSSI(), 0.0)
+
+        // The dropped beacon takes a new filter if it is still filtered
+        loaded.updateFilteredRSSI(-70, 0L)
+        assertTrue(loaded.getBeaconId() != filter)
+        assertEquals(-59.0, reloaded.getFilteredRSSI(), 0.0)
+        loaded.releaseFilter()
+    }
+}
@@ -0,0 +1,103 @@
+package com.matt.guidebeacons.beacons
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class BeaconRegistryTest {
+    private fun beacon(name: String) = Beacon(name, -60, 0.0, 0.0, 0.0)
+
+    @Test
+    fun testParseAndFormatMacAddress() {
+        val mac = BeaconRegistry.parseMacAddress("80:ec:CC:cd:33:7E")
+        assertEquals(0x80ECCCCD337EL, mac)
+        assertEquals("80:EC:CC:CD:33:7E", BeaconRegistry.formatMacAddress(mac))
+        assertEquals(-1L, BeaconRegistry.parseMacAddress("80:EC:CC:CD:33"))
+        assertEquals(-1L, BeaconRegistry.parseMacAddress("80-EC-CC-CD-33-7E"))
+        assertEquals(-1L, BeaconRegistry.parseMacAddress("80:EC:CC:CD:33:7G"))
+    }
+
+    @Test
+    fun testMapViewAndIndexes() {
+        val registry = BeaconRegistry()
+        val a = beacon("a")
+        val b = beacon("b")
+        registry["00:3C:84:28:87:01"] = a
+        registry["D8:F2:C8:9B:33:34"] = b
+
+        assertSame(a, registry["00:3c:84:28:87:01"])
+        assertTrue(registry.containsKey("D8:F2:C8:9B:33:34"))
+        assertFalse(registry.containsKey("not a mac"))
+        assertEquals(1, registry.idOf(b))
+        assertSame(b, registry.beaconAt(registry.idOf("D8:F2:C8:9B:33:34")))
+        assertEquals("D8:F2:C8:9B:33:34", registry.macAddressOf(b))
+        assertEquals(listOf("00:3C:84:28:87:01", "D8:F2:C8:9B:33:34"), registry.keys.toList())
+
+        val c = beacon("c")
+        assertSame(a, registry.put("00:3C:84:28:87:01", c))
+        assertNull(registry.macAddressOf(a))
+        assertEquals(0, registry.idOf(c))
+
+        registry.entries.iterator().apply { next(); remove() }
+        assertEquals(listOf(b), registry.values.toList())
+        assertEquals(-1, registry.idOf(c))
+        assertEquals(2, registry.idLimit)
+
+        try {
+            registry["New beacon"] = a
+            throw AssertionError("Expected an invalid MAC address to be rejected")
+        } catch (e: IllegalArgumentException) {
+            // expected
+        }
+    }
+
+    @Test
+    fun testClearDoesNotReuseIds() {
+        val registry = BeaconRegistry()
+        registry["00:3C:84:28:87:01"] = beacon("a")
+        registry["D8:F2:C8:9B:33:34"] = beacon("b")
+
+        // As when the beacon file is reloaded
+        registry.clear()
+        assertEquals(-1, registry.idOf("00:3C:84:28:87:01"))
+        val c = beacon("c")
+        registry["D8:F2:C8:9B:33:34"] = c
+
+        assertEquals(2, registry.idOf(c))
+        assertNull(registry.beaconAt(0))
+        assertNull(registry.beaconAt(1))
+        assertEquals(3, registry.idLimit)
+        assertEquals(listOf(c), registry.values.toList())
+    }
+
+    @Test
+    fun testMatchesHashMapUnderRandomChanges() {
+        val random = Random(7)
+        val registry = BeaconRegistry()
+        val reference = LinkedHashMap<Long, Beacon>()
+        // Few distinct addresses, so entries collide and removals shift probe sequences
+        val macs = LongArray(200) { random.nextLong(0L, 1L shl 48) }
+        repeat(5000) { step ->
+            val mac = macs[random.nextInt(macs.size)]
+            val address = BeaconRegistry.formatMacAddress(mac)
+            if (random.nextInt(3) == 0) {
+                assertSame(reference.remove(mac), registry.remove(address))
+            } else {
+                val beacon = beacon("beacon $step")
+                assertSame(reference.put(mac, beacon), registry.put(address, beacon))
+            }
+        }
+
+        assertEquals(reference.size, registry.size)
+        for (mac in macs) {
+            val beacon = registry[mac]
+            assertSame(reference[mac], beacon)
+            if (beacon != null) assertEquals(BeaconRegistry.formatMacAddress(mac), registry.macAddressOf(beacon))
+        }
+        assertEquals(reference.values.toSet(), registry.values.toSet())
+    }
+}
@@ -0,0 +1,34 @@
+package com.matt.guidebeacons.beacons
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.abs
+import kotlin.math.pow
+
+class DistanceTableTest {
+    private val beacon = Beacon("beacon", -59, 1.0, 2.0, 1.0)
+
+    @Test
+    fun testLookupMatchesPathLossModel() {
+        for (rssi in -110..0) {
+            val expected = 10.0.pow((-59 - rssi) / 40.0)
+            assertEquals(expected, beacon.calculateDistanceGeneric(rssi, 4), expected * 1e-12)
+        }
+        // Interpolated filtered RSSI stays within 0.2% of the exact distance
+        var rssi = -100.0
+        while (rssi < -30.0) {
+            val expected = 10.0.pow((-59 - rssi) / 20.0)
+            val actual = beacon.calculateDistanceGeneric(rssi, 2)
+            assertTrue("RSSI $rssi: $actual != $expected", abs(actual - expected) / expected < 0.002)
+            rssi += 0.37
+        }
+    }
+
+    @Test
+    fun testUpdateDataRebuildsTables() {
+        val before = beacon.calculateDistanceGeneric(-70, 4)
+        beacon.updateData("beacon", -49, 1.0, 2.0, 1.0)
+        assertEquals(before * 10.0.pow(10 / 40.0), beacon.calculateDistanceGeneric(-70, 4), 1e-9)
+    }
+}
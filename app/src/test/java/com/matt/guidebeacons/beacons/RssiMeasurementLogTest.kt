@@ -0,0 +1,81 @@
+package com.matt.guidebeacons.beacons
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+
+class RssiMeasurementLogTest {
+    private fun value(rssi: Double, type: RssiValue.CollectionType = RssiValue.CollectionType.RECORDING) =
+        RssiValue(rssi, 2.0, 1000L + rssi.toLong(), type)
+
+    private fun readAll(log: RssiMeasurementLog): List<Pair<Int, RssiValue>> {
+        val values = mutableListOf<Pair<Int, RssiValue>>()
+        log.read { index, value -> values.add(index to value) }
+        return values
+    }
+
+    @Test
+    fun testAppendsAndDeletesSurviveReopen() {
+        val file = File.createTempFile("rssi", ".log")
+        file.deleteOnExit()
+        file.delete()
+        assertNull(RssiMeasurementLog(file).read { _, _ -> })
+
+        val values = listOf(value(-60.0), value(-61.0), value(-62.0, RssiValue.CollectionType.AVERAGE))
+        val log = RssiMeasurementLog(file)
+        assertEquals(0, log.append("beacon", values, 0, IntArray(0), 0))
+        val more = values + value(-63.0)
+        assertEquals(3, log.append("beacon", more, 3, intArrayOf(0, 1, 0), 2))
+        assertEquals(4, log.recordCount)
+        assertEquals(2, log.deletedCount)
+
+        val reopened = RssiMeasurementLog(file)
+        val read = readAll(reopened)
+        assertEquals(listOf(2, 3), read.map { it.first })
+        assertEquals(-62.0, read[0].second.getMeasuredRssi(), 0.0)
+        assertEquals(RssiValue.CollectionType.AVERAGE, read[0].second.getType())
+        assertEquals(2.0, read[0].second.getMeasuredDistance(), 0.0)
+        assertEquals(938L, read[0].second.getTimestamp())
+        assertEquals(4, reopened.recordCount)
+    }
+
+    @Test
+    fun testTornRecordIsTruncatedBeforeAppend() {
+        val file = File.createTempFile("rssi", ".log")
+        file.deleteOnExit()
+        file.delete()
+        RssiMeasurementLog(file).append("beacon", listOf(value(-60.0), value(-61.0)), 0, IntArray(0), 0)
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 5) }
+
+        val log = RssiMeasurementLog(file)
+        assertEquals(listOf(0), readAll(log).map { it.first })
+        assertEquals(1, log.append("beacon", listOf(value(-70.0)), 0, IntArray(0), 0))
+        assertEquals(listOf(-60.0, -70.0), readAll(RssiMeasurementLog(file)).map { it.second.getMeasuredRssi() })
+    }
+
+    @Test
+    fun testCompactionKeepsOnlyLiveRecords() {
+        val file = File.createTempFile("rssi", ".log")
+        file.deleteOnExit()
+        file.delete()
+        val log = RssiMeasurementLog(file)
+        val recordings = List(100) { value(-50.0 - it) }
+        log.append("beacon", recordings, 0, IntArray(0), 0)
+        assertFalse(log.needsCompaction())
+        log.append("beacon", recordings, recordings.size, IntArray(99) { it }, 99)
+        assertTrue(log.needsCompaction())
+
+        val before = file.length()
+        val live = listOf(recordings[99])
+        log.compact("beacon", live)
+        assertTrue(file.length() < before)
+        assertEquals(1, log.recordCount)
+        assertEquals(0, log.deletedCount)
+        assertEquals(1, log.append("beacon", live + value(-40.0), 1, IntArray(0), 0))
+        assertEquals(listOf(-149.0, -40.0), readAll(RssiMeasurementLog(file)).map { it.second.getMeasuredRssi() })
+    }
+}
@@ -0,0 +1,40 @@
+package com.matt.guidebeacons.beacons
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class RssiStatisticsTest {
+    private val values = doubleArrayOf(-61.0, -64.0, -59.0, -70.0, -66.0, -62.0, -68.0)
+
+    @Test
+    fun testRunningStatisticsMatchTwoPass() {
+        val statistics = RssiCollection.Statistics()
+        for (value in values) statistics.add(value)
+
+        val mean = values.average()
+        val variance = values.sumOf { (it - mean) * (it - mean) } / values.size
+        assertEquals(values.size, statistics.count)
+        assertEquals(mean, statistics.mean, 1e-12)
+        assertEquals(variance, statistics.variance, 1e-9)
+        assertEquals(kotlin.math.sqrt(variance), statistics.standardDeviation, 1e-9)
+    }
+
+    @Test
+    fun testRemoveUndoesAdd() {
+        val statistics = RssiCollection.Statistics()
+        for (value in values) statistics.add(value)
+        statistics.remove(values[3])
+        statistics.remove(values[0])
+
+        val remaining = values.filterIndexed { i, _ -> i != 0 && i != 3 }
+        val mean = remaining.average()
+        assertEquals(remaining.size, statistics.count)
+        assertEquals(mean, statistics.mean, 1e-12)
+        assertEquals(remaining.sumOf { (it - mean) * (it - mean) } / remaining.size, statistics.variance, 1e-9)
+
+        for (value in remaining) statistics.remove(value)
+        assertEquals(0, statistics.count)
+        assertTrue(statistics.variance.isNaN())
+    }
+}
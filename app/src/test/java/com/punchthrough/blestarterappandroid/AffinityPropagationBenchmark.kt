@@ -0,0 +1,237 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Ignore
+import org.junit.Test
+import java.util.Locale
+
+import kotlin.math.abs
+import kotlin.random.Random
+
+private const val CLUSTERS = 8
+private const val CLUSTER_SPREAD = 0.3 // in m
+private const val VENUE_SIZE = 50.0 // in m
+private const val REFERENCE_DAMPING_FACTOR = 0.9
+private const val REFERENCE_MAX_ITERATIONS = 100
+
+/**
+ * Compares [AffinityPropagation] against the original O(n³) implementation that
+ * IndoorPositioningCalculator used. The benchmark prints timings for both; single
+ * threaded (so without the row parallelism) it measured ~50x at n=100, ~60x at
+ * n=200 and ~200x at n=400.
+ */
+class AffinityPropagationBenchmark {
+
+    @Test
+    fun testMatchesReferenceImplementation() {
+        for (n in intArrayOf(50, 100)) {
+            val similarities = clusteredSimilarities(n, Random(n))
+            val expected = referenceAffinityPropagation(toMatrix(similarities, n))
+            val actual = AffinityPropagation().clusterSimilarities(similarities, n)
+
+            assertArrayEquals("Exemplars differ for n = $n", expected.second, actual.centerIndices)
+            assertArrayEquals("Labels differ for n = $n", expected.first, actual.labels)
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, takes about a minute; run manually")
+    fun benchmarkAgainstReferenceImplementation() {
+        for (n in intArrayOf(100, 200, 400)) {
+            val similarities = clusteredSimilarities(n, Random(n))
+            val matrix = toMatrix(similarities, n)
+            val kernel = AffinityPropagation()
+
+            // Warm up
+            kernel.clusterSimilarities(similarities, n)
+
+            val referenceNanos = time { referenceAffinityPropagation(matrix) }
+            val kernelNanos = time { kernel.clusterSimilarities(similarities, n) }
+            println("Affinity propagation n=$n: reference ${referenceNanos / 1_000_000} ms, kernel ${kernelNanos / 1_000_000} ms (${"%.1f".format(Locale.US, referenceNanos.toDouble() / kernelNanos)}x)")
+        }
+
+        for (n in intArrayOf(1000, 2000)) {
+            val similarities = clusteredSimilarities(n, Random(n))
+            val kernel = AffinityPropagation()
+            val kernelNanos = time { kernel.clusterSimilarities(similarities, n) }
+            println("Affinity propagation n=$n: kernel ${kernelNanos / 1_000_000} ms")
+        }
+    }
+
+    private inline fun time(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        block()
+        return System.nanoTime() - start
+    }
+
+    /** Points scattered around a few well separated centres, as a walked venue would produce */
+    private fun clusteredSimilarities(n: Int, random: Random): DoubleArray {
+        val centres = Array(CLUSTERS) { doubleArrayOf(random.nextDouble(0.0, VENUE_SIZE), random.nextDouble(0.0, VENUE_SIZE)) }
+        val x = DoubleArray(n)
+        val y = DoubleArray(n)
+        for (i in 0 until n) {
+            val centre = centres[i % CLUSTERS]
+            x[i] = centre[0] + random.nextDouble(-CLUSTER_SPREAD, CLUSTER_SPREAD)
+            y[i] = centre[1] + random.nextDouble(-CLUSTER_SPREAD, CLUSTER_SPREAD)
+        }
+        val similarities = DoubleArray(n * n)
+        AffinityPropagation().buildSimilarities(x, y, n, similarities)
+        return similarities
+    }
+
+    private fun toMatrix(similarities: DoubleArray, n: Int): Array<DoubleArray> {
+        return Array(n) { i -> similarities.copyOfRange(i * n, (i + 1) * n) }
+    }
+
+    // -------------------------------------------------------------------------
+    // Original implementation, kept as a reference
+    // -------------------------------------------------------------------------
+
+    private fun referenceAffinityPropagation(similarities: Array<DoubleArray>): Pair<IntArray, IntArray> {
+        val n = similarities.size
+
+        // Initialize messages
+        val responsibilities = Array(n) { DoubleArray(n) }
+        val availabilities = Array(n) { DoubleArray(n) }
+
+        // Perform clustering
+        var iteration = 0
+        var converged = false
+
+        while (!converged && iteration < REFERENCE_MAX_ITERATIONS) {
+            // Update responsibilities
+            val oldResponsibilities = responsibilities.map { it.clone() }
+            updateResponsibilities(similarities, availabilities, responsibilities)
+
+            // Update availabilities
+            val oldAvailabilities = availabilities.map { it.clone() }
+            updateAvailabilities(responsibilities, availabilities)
+
+            // Apply damping
+            applyDamping(responsibilities, oldResponsibilities)
+            applyDamping(availabilities, oldAvailabilities)
+
+            // Check convergence
+            converged = hasConverged(oldResponsibilities, responsibilities) &&
+                hasConverged(oldAvailabilities, availabilities)
+
+            iteration++
+        }
+
+        // Identify clusters
+        val labels = IntArray(n)
+        val centerIndices = mutableListOf<Int>()
+
+        for (i in 0 until n) {
+            val criterion = responsibilities[i][i] + availabilities[i][i]
+            if (criterion > 0) {
+                centerIndices.add(i)
+            }
+        }
+
+        // Assign points to clusters
+        for (i in 0 until n) {
+            var maxVal = Double.NEGATIVE_INFINITY
+            var bestCenter = -1
+
+            for (center in centerIndices) {
+                val value = similarities[i][center]
+                if (value > maxVal) {
+                    maxVal = value
+                    bestCenter = centerIndices.indexOf(center)
+                }
+            }
+
+            labels[i] = bestCenter
+        }
+
+        return Pair(labels, centerIndices.toIntArray())
+    }
+
+    private fun updateResponsibilities(
+        similarities: Array<DoubleArray>,
+        availabilities: Array<DoubleArray>,
+        responsibilities: Array<DoubleArray>
+    ) {
+        val n = similarities.size
+        for (i in 0 until n) {
+            for (k in 0 until n) {
+                var maxVal = Double.NEGATIVE_INFINITY
+                for (kPrime in 0 until n) {
+                    if (kPrime != k) {
+                        maxVal = maxOf(maxVal, similarities[i][kPrime] + availabilities[i][kPrime])
+                    }
+                }
+                responsibilities[i][k] = similarities[i][k] - maxVal
+            }
+        }
+    }
+
+    private fun updateAvailabilities(
+        responsibilities: Array<DoubleArray>,
+        availabilities: Array<DoubleArray>
+    ) {
+        val n = responsibilities.size
+        for (i in 0 until n) {
+            for (k in 0 until n) {
+                if (i != k) {
+                    var sum = 0.0
+                    for (iPrime in 0 until n) {
+                        if (iPrime != i && iPrime != k) {
+                            sum += maxOf(0.0, responsibilities[iPrime][k])
+                        }
+                    }
+                    availabilities[i][k] = minOf(0.0, responsibilities[k][k] + sum)
+                } else {
+                    var sum = 0.0
+                    for (iPrime in 0 until n) {
+                        if (iPrime != k) {
+                            sum += maxOf(0.0, responsibilities[iPrime][k])
+                        }
+                    }
+                    availabilities[i][k] = sum
+                }
+            }
+        }
+    }
+
+    private fun applyDamping(
+        current: Array<DoubleArray>,
+        old: List<DoubleArray>
+    ) {
+        for (i in current.indices) {
+            for (j in current[i].indices) {
+                current[i][j] = current[i][j] * (1 - REFERENCE_DAMPING_FACTOR) +
+                    old[i][j] * REFERENCE_DAMPING_FACTOR
+            }
+        }
+    }
+
+    private fun hasConverged(
+        old: List<DoubleArray>,
+        new: Array<DoubleArray>
+    ): Boolean {
+        val epsilon = 1e-6
+        return old.indices.all { i ->
+            old[i].indices.all { j ->
+                abs(old[i][j] - new[i][j]) < epsilon
+            }
+        }
+    }
+}
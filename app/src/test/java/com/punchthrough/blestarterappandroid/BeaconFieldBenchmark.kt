@@ -0,0 +1,104 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.io.File
+import java.util.Locale
+import kotlin.math.log10
+import kotlin.math.sqrt
+
+private const val SPACING = 5.0 // in m
+private const val START = 1_700_000_000_000L
+
+/**
+ * Checks the simulated beacon field follows its path loss model, and benchmarks the
+ * calculators' accuracy and throughput on simulated walks through 10 to 1000 beacons.
+ */
+class BeaconFieldBenchmark {
+    @Test
+    fun testAdvertisementsFollowPathLossModel() {
+        val beacons = BeaconFieldSimulator.grid(4, SPACING)
+        val simulator = BeaconFieldSimulator(beacons, dropoutProbability = 0.2, seed = 3)
+        // Stand still for ten minutes 3 m from the first beacon
+        val origin = beacons[0].getCoordinates()
+        val trajectory = BeaconFieldSimulator.Trajectory(doubleArrayOf(origin[0] + 3.0), doubleArrayOf(origin[1]))
+        assertEquals(0L, trajectory.durationMillis)
+
+        var count = 0
+        var sum = 0.0
+        var sumOfSquares = 0.0
+        var previous = Long.MIN_VALUE
+        val heard = simulator.run(trajectory, durationMillis = 600_000L) { timestamp, beaconIndex, rssi ->
+            assertTrue(timestamp >= previous)
+            previous = timestamp
+            if (beaconIndex != 0) return@run
+            count++
+            sum += rssi
+            sumOfSquares += rssi.toDouble() * rssi
+        }
+
+        // Ten advertisements a second, less a fifth dropped
+        assertEquals(4800.0, count.toDouble(), 150.0)
+        // Every beacon is in range
+        assertEquals(4 * 4800.0, heard.toDouble(), 400.0)
+        val mean = sum / count
+        assertEquals(-59 - 20 * log10(3.0), mean, 0.3)
+        assertEquals(4.0, sqrt(sumOfSquares / count - mean * mean), 0.3)
+    }
+
+    @Test
+    @Ignore("Benchmark; run manually")
+    fun benchmarkCalculatorsAtScale() {
+        val file = File.createTempFile("field", ".bin")
+        try {
+            for (count in intArrayOf(10, 100, 1000)) {
+                val beacons = BeaconFieldSimulator.grid(count, SPACING)
+                val simulator = BeaconFieldSimulator(beacons, seed = 1)
+                val side = sqrt(count.toDouble()).toInt() * SPACING
+                // A lap around the inside of the field
+                val trajectory = BeaconFieldSimulator.Trajectory(
+                    doubleArrayOf(SPACING, side - SPACING, side - SPACING, SPACING, SPACING),
+                    doubleArrayOf(SPACING, SPACING, side - SPACING, side - SPACING, SPACING)
+                )
+                ScanRecorder(file, START).use { simulator.record(trajectory, it, START) }
+
+                val calculators = listOf(
+                    "WeightedCentroidCalculator" to WeightedCentroidCalculator(),
+                    "ParticleFilterCalculator" to ParticleFilterCalculator(seed = 1)
+                )
+                for ((name, calculator) in calculators) {
+                    val truth = DoubleArray(2)
+                    var error = 0.0
+                    val report = ScanReplay(simulator.registry(), calculator).run(ScanRecording(file)) { timestamp, position ->
+                        if (position == null) return@run
+                        trajectory.locate(timestamp - START, truth)
+                        val dx = position.x - truth[0]
+                        val dy = position.y - truth[1]
+                        error += sqrt(dx * dx + dy * dy)
+                    }
+                    println("$count beacons, $name: $report, mean error ${"%.2f".format(Locale.US, error / report.positions)} m")
+                }
+            }
+        } finally {
+            file.delete()
+        }
+    }
+}
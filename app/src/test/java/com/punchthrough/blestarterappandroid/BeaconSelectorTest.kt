@@ -0,0 +1,81 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.sqrt
+
+class BeaconSelectorTest {
+    private val userX = 5.0
+    private val userY = 5.0
+
+    private fun distancesTo(beacons: List<Beacon>): DoubleArray {
+        return DoubleArray(beacons.size) {
+            val coordinates = beacons[it].getCoordinates()
+            val dx = coordinates[0] - userX
+            val dy = coordinates[1] - userY
+            sqrt(dx * dx + dy * dy)
+        }
+    }
+
+    @Test
+    fun testPrefersSpreadBeaconsOverStrongerCollinearOnes() {
+        // The strongest beacons all lie east of the user, on one line
+        val beacons = listOf(
+            Beacon("selectorEast1", -59, 7.0, 5.0, 1.0),
+            Beacon("selectorEast2", -59, 8.0, 5.0, 1.0),
+            Beacon("selectorEast3", -59, 9.0, 5.0, 1.0),
+            Beacon("selectorNorth", -59, 5.0, 8.0, 1.0),
+            Beacon("selectorWest", -59, 2.0, 5.0, 1.0),
+            Beacon("selectorSouth", -59, 5.0, 2.0, 1.0)
+        )
+        val selector = BeaconSelector(maxBeacons = 3)
+
+        val subset = selector.select(beacons, distancesTo(beacons), userX, userY)
+
+        assertEquals(listOf("selectorEast1", "selectorNorth", "selectorSouth"), subset.map { it.beaconName })
+        assertTrue(selector.gdop.isFinite())
+    }
+
+    @Test
+    fun testKeepsSelectionUnlessSwapIsClearlyBetter() {
+        val beacons = listOf(
+            Beacon("selectorA", -59, 8.0, 5.0, 1.0),
+            Beacon("selectorB", -59, 5.0, 8.0, 1.0),
+            Beacon("selectorC", -59, 2.0, 5.0, 1.0),
+            Beacon("selectorD", -59, 5.0, 2.0, 1.0)
+        )
+        val selector = BeaconSelector(maxBeacons = 3)
+        val first = selector.select(beacons, distancesTo(beacons), userX, userY).map { it.beaconName }
+        val firstGdop = selector.gdop
+
+        // A new beacon only marginally better placed than the one it would replace
+        val nearlyEqual = beacons + Beacon("selectorE", -59, 5.0, 1.95, 1.0)
+        val second = selector.select(nearlyEqual, distancesTo(nearlyEqual), userX, userY).map { it.beaconName }
+        assertEquals(first, second)
+        assertEquals(firstGdop, selector.gdop, 1e-12)
+
+        // Previously selected beacons that are no longer visible are replaced
+        val missing = nearlyEqual.filter { it.beaconName != first[0] }
+        val third = selector.select(missing, distancesTo(missing), userX, userY)
+        assertEquals(3, third.size)
+        assertTrue(third.none { it.beaconName == first[0] })
+    }
+}
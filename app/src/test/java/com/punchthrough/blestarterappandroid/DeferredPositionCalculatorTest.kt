@@ -0,0 +1,63 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class DeferredPositionCalculatorTest {
+    @Test
+    fun testOpensOnWorkerAfterPreviousClose() {
+        val events = mutableListOf<String>()
+        val worker = Executors.newSingleThreadExecutor { Thread(it, "positioning") }
+
+        fun calculator(name: String) = DeferredPositionCalculator {
+            events.add("open $name on ${Thread.currentThread().name}")
+            object : PositionCalculator {
+                override fun calculatePosition(beacons: List<Beacon>): Position? = null
+                override fun close() {
+                    events.add("close $name")
+                }
+            }
+        }
+
+        // As on a configuration change: the old activity's close is queued before the new one opens
+        val old = calculator("old")
+        worker.execute { old.open() }
+        worker.execute(old::close)
+        val new = calculator("new")
+        worker.execute { new.open() }
+        worker.shutdown()
+        worker.awaitTermination(5, TimeUnit.SECONDS)
+
+        assertEquals(listOf("open old on positioning", "close old", "open new on positioning"), events)
+    }
+
+    @Test
+    fun testCloseWithoutUseCreatesNothing() {
+        var created = 0
+        val calculator = DeferredPositionCalculator {
+            created++
+            WeightedCentroidCalculator()
+        }
+        calculator.close()
+        assertEquals(0, created)
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.log10
+import kotlin.math.pow
+
+class DistanceRegressionTest {
+    private val rssi = doubleArrayOf(-55.0, -61.0, -66.0, -70.0, -74.0, -79.0, -83.0)
+
+    @Test
+    fun testPowerDataSelectsPowerModel() {
+        val distances = DoubleArray(rssi.size) { 2.0e-6 * (-rssi[it]).pow(3.4) }
+        val regression = DistanceRegression(distances, rssi)
+
+        assertEquals(DistanceRegression.Model.POWER, regression.model)
+        assertEquals(2.0e-6, regression.coefficients[0], 1e-9)
+        assertEquals(3.4, regression.coefficients[1], 1e-9)
+        assertEquals(2.0e-6 * 90.0.pow(3.4), regression.predict(-90.0), 1e-6)
+    }
+
+    @Test
+    fun testLogarithmicDataSelectsLogarithmicModel() {
+        val distances = DoubleArray(rssi.size) { -40.0 + 25.0 * log10(-rssi[it]) }
+        val regression = DistanceRegression(distances, rssi)
+
+        assertEquals(DistanceRegression.Model.LOGARITHMIC, regression.model)
+        assertArrayEquals(doubleArrayOf(-40.0, 25.0), regression.coefficients, 1e-9)
+    }
+
+    @Test
+    fun testQuadraticDataSelectsPolynomialModel() {
+        val distances = DoubleArray(rssi.size) { 80.0 + 2.5 * rssi[it] + 0.02 * rssi[it] * rssi[it] }
+        val regression = DistanceRegression(distances, rssi)
+
+        assertEquals(DistanceRegression.Model.POLYNOMIAL, regression.model)
+        assertArrayEquals(doubleArrayOf(80.0, 2.5, 0.02), regression.coefficients, 1e-6)
+    }
+
+    @Test
+    fun testPolynomialPredictionsStayPositive() {
+        // Calibrated between -90 and -70 dBm; the fitted parabola dips below zero around -60
+        val calibrated = doubleArrayOf(-90.0, -86.0, -82.0, -78.0, -74.0, -70.0)
+        val distances = DoubleArray(calibrated.size) { 0.02 * (calibrated[it] + 60) * (calibrated[it] + 60) - 1.0 }
+        val regression = DistanceRegression(distances, calibrated)
+
+        assertEquals(DistanceRegression.Model.POLYNOMIAL, regression.model)
+        assertEquals(DistanceRegression.MIN_DISTANCE, regression.predict(-60.0), 0.0)
+        for (rssi in -127..20) {
+            assertTrue(regression.predict(rssi.toDouble()) >= DistanceRegression.MIN_DISTANCE)
+        }
+    }
+
+    @Test
+    fun testStreamingMatchesBatch() {
+        val distances = doubleArrayOf(0.5, 1.0, 2.0, 3.0, 4.0, 6.0, 8.0)
+        val batch = DistanceRegression(distances, rssi)
+        val streaming = DistanceRegression()
+        assertNull(streaming.model)
+        for (i in rssi.indices) streaming.add(distances[i], rssi[i])
+
+        assertEquals(rssi.size, streaming.sampleCount)
+        assertEquals(batch.model, streaming.model)
+        assertArrayEquals(batch.coefficients, streaming.coefficients, 0.0)
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.BeaconIdTable
+import com.punchthrough.blestarterappandroid.IndoorPositioningCalculator.Fingerprint
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+
+class FingerprintDatabaseTest {
+    @Test
+    fun testRecordsSurviveReopenWithDifferentBeaconIds() {
+        val file = File.createTempFile("fingerprints", ".bin")
+        file.deleteOnExit()
+
+        val writeIds = BeaconIdTable()
+        val a = writeIds.intern("a")
+        val b = writeIds.intern("b")
+        FingerprintDatabase(file, 3, writeIds).use { database ->
+            database.write(0, fingerprint(Position(1.0, 2.0, 0.5, 100L), writeIds, a to -60f))
+            database.write(1, fingerprint(Position(3.0, 4.0, 0.7, 50L), writeIds, a to -70f, b to -80f))
+        }
+
+        // The next session interns the beacons in a different order
+        val readIds = BeaconIdTable()
+        val b2 = readIds.intern("b")
+        FingerprintDatabase(file, 3, readIds).use { database ->
+            val records = database.readAll()
+            assertEquals(2, records.size)
+            val a2 = readIds.find("a")
+
+            // Oldest first
+            assertEquals(50L, records[0].timestamp)
+            assertEquals(3.0, records[0].position.x, 0.0)
+            assertEquals(0.7, records[0].position.accuracy, 0.0)
+            assertEquals(-70f, records[0].rssiValues[a2])
+            assertEquals(-80f, records[0].rssiValues[b2])
+            assertEquals(-60f, records[1].rssiValues[a2])
+            assertTrue(records[1].rssiValues[b2].isNaN())
+        }
+
+        // A different layout is discarded
+        FingerprintDatabase(file, 4, readIds).use { database ->
+            assertEquals(0, database.readAll().size)
+        }
+    }
+
+    @Test
+    fun testNamesTooLongToStoreAreNotPersisted() {
+        val file = File.createTempFile("fingerprints", ".bin")
+        file.deleteOnExit()
+
+        // 31 two-byte characters fit the name table; one more would be cut mid-name
+        val fits = "é".repeat(31)
+        val tooLong = "é".repeat(32)
+        val writeIds = BeaconIdTable()
+        val a = writeIds.intern(fits)
+        val b = writeIds.intern(tooLong)
+        FingerprintDatabase(file, 2, writeIds).use { database ->
+            database.write(0, fingerprint(Position(1.0, 2.0, 0.5, 100L), writeIds, a to -60f, b to -70f))
+        }
+
+        val readIds = BeaconIdTable()
+        FingerprintDatabase(file, 2, readIds).use { database ->
+            val record = database.readAll().single()
+            assertEquals(1, readIds.size)
+            assertEquals(-60f, record.rssiValues[readIds.find(fits)])
+        }
+    }
+
+    @Test
+    fun testCalculatorLoadsWithoutRewritingRecords() {
+        val file = File.createTempFile("fingerprints", ".bin")
+        file.deleteOnExit()
+
+        val ids = BeaconIdTable()
+        val a = ids.intern("a")
+        FingerprintDatabase(file, 3, ids).use { database ->
+            // The newer record is in the lower slot, as after the store has wrapped around
+            database.write(0, fingerprint(Position(1.0, 2.0, 0.5, 100L), ids, a to -60f))
+            database.write(1, fingerprint(Position(3.0, 4.0, 0.7, 50L), ids, a to -70f))
+        }
+        val written = file.readBytes()
+
+        IndoorPositioningCalculator(maxFingerprints = 3, beaconIds = ids, fingerprintDatabase = FingerprintDatabase(file, 3, ids)).close()
+
+        assertArrayEquals(written, file.readBytes())
+    }
+
+    private fun fingerprint(position: Position, ids: BeaconIdTable, vararg rssi: Pair<Int, Float>): Fingerprint {
+        val rssiValues = FloatArray(ids.size) { Float.NaN }
+        for ((id, value) in rssi) rssiValues[id] = value
+        return Fingerprint(position, rssiValues, IntArray(0), LongArray(1), rssi.map { it.second }.average(), position.timestamp)
+    }
+}
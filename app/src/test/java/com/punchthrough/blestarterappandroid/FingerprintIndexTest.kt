@@ -0,0 +1,102 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.punchthrough.blestarterappandroid.IndoorPositioningCalculator.Fingerprint
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+private const val NUM_FINGERPRINTS = 2000
+private const val NUM_QUERIES = 200
+private const val VENUE_BEACONS = 60
+private const val RANKED_PER_FINGERPRINT = 5
+private const val VENUE_SIZE = 40.0 // in m
+
+class FingerprintIndexTest {
+    private val random = Random(42)
+
+    @Test
+    fun testQueryMatchesLinearScan() {
+        val index = FingerprintIndex()
+        val all = ArrayDeque<Fingerprint>()
+        repeat(NUM_FINGERPRINTS) {
+            val fingerprint = randomFingerprint()
+            index.add(fingerprint)
+            all.addLast(fingerprint)
+        }
+        // Evict some of the oldest, as the calculator does
+        repeat(NUM_FINGERPRINTS / 4) { index.remove(all.removeFirst()) }
+        assertEquals(all.size, index.size)
+
+        for (maxDistance in doubleArrayOf(3.0, index.gatingDistance, 1000.0)) {
+            repeat(NUM_QUERIES) {
+                val query = randomFingerprint()
+                val score = { f: Fingerprint -> f.rankedBeacons.count { it in query.rankedBeacons } + f.averageRssi / 1000 }
+
+                val expected = all
+                    .filter { distance(it.position, query.position) < maxDistance && score(it) > 0.0 }
+                    .sortedByDescending(score)
+                    .take(3)
+                    .map(score)
+                val actual = index.query(query, 3, maxDistance, score).map(score)
+
+                assertEquals(expected, actual)
+            }
+        }
+    }
+
+    @Test
+    fun testRemovingAbsentFingerprintKeepsSize() {
+        val index = FingerprintIndex()
+        val kept = randomFingerprint()
+        val removed = randomFingerprint()
+        index.add(kept)
+        index.add(removed)
+
+        assertTrue(index.remove(removed))
+        assertFalse(index.remove(removed))
+        assertFalse(index.remove(randomFingerprint()))
+        assertEquals(1, index.size)
+        assertEquals(listOf(kept), index.query(kept, 3, 1000.0) { 1.0 })
+    }
+
+    private fun randomFingerprint(): Fingerprint {
+        val ranked = (0 until VENUE_BEACONS).shuffled(random).take(RANKED_PER_FINGERPRINT).toIntArray()
+        val rssiValues = FloatArray(VENUE_BEACONS) { Float.NaN }
+        val rankedMask = LongArray((VENUE_BEACONS + 63) / 64)
+        for (id in ranked) {
+            rssiValues[id] = -random.nextDouble(40.0, 90.0).toFloat()
+            rankedMask[id ushr 6] = rankedMask[id ushr 6] or (1L shl id)
+        }
+        return Fingerprint(
+            position = Position(random.nextDouble(0.0, VENUE_SIZE), random.nextDouble(0.0, VENUE_SIZE), 1.0),
+            rssiValues = rssiValues,
+            rankedBeacons = ranked,
+            rankedMask = rankedMask,
+            averageRssi = -random.nextDouble(40.0, 90.0)
+        )
+    }
+
+    private fun distance(a: Position, b: Position): Double {
+        return sqrt((a.x - b.x) * (a.x - b.x) + (a.y - b.y) * (a.y - b.y))
+    }
+}
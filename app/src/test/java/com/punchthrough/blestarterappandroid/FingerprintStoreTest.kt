@@ -0,0 +1,83 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.punchthrough.blestarterappandroid.IndoorPositioningCalculator.Fingerprint
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class FingerprintStoreTest {
+    @Test
+    fun testOldestEvictionReusesSlotsInRingOrder() {
+        val store = FingerprintStore(4)
+        val added = List(10) { fingerprintAt(it.toDouble(), 0.0) }
+        val evicted = mutableListOf<Fingerprint>()
+        val slots = added.map { store.add(it) { e -> evicted.add(e) } }
+
+        assertEquals(listOf(0, 1, 2, 3, 0, 1, 2, 3, 0, 1), slots)
+        assertEquals(4, store.size)
+        assertEquals(added.take(6), evicted)
+        // Slots keep pointing at the fingerprint stored there, oldest first
+        val remaining = mutableListOf<Fingerprint>()
+        store.forEachSlot { remaining.add(store[it]) }
+        assertEquals(added.takeLast(4), remaining)
+        assertSame(added[9], store[1])
+    }
+
+    @Test
+    fun testSpatiallyRedundantEvictsCoveredFingerprint() {
+        val store = FingerprintStore(3, FingerprintStore.EvictionPolicy.SPATIALLY_REDUNDANT, redundancyRadius = 0.5)
+        val old = listOf(fingerprintAt(0.0, 0.0), fingerprintAt(5.0, 0.0), fingerprintAt(10.0, 0.0))
+        old.forEach { store.add(it) }
+
+        var evicted: Fingerprint? = null
+        val slot = store.add(fingerprintAt(5.2, 0.0)) { evicted = it }
+        assertSame(old[1], evicted)
+        assertEquals(1, slot)
+
+        // Nothing nearby: falls back to the oldest
+        store.add(fingerprintAt(20.0, 0.0)) { evicted = it }
+        assertSame(old[0], evicted)
+    }
+
+    @Test
+    fun testRestoreKeepsSlotsAndAgeOrder() {
+        val store = FingerprintStore(4)
+        val oldest = fingerprintAt(0.0, 0.0)
+        val middle = fingerprintAt(1.0, 0.0)
+        val newest = fingerprintAt(2.0, 0.0)
+        store.restore(intArrayOf(2, 0, 1), listOf(oldest, middle, newest))
+
+        assertEquals(3, store.size)
+        assertSame(oldest, store[2])
+        assertEquals(2.0, store.x(1), 0.0)
+        val restored = mutableListOf<Fingerprint>()
+        store.forEachSlot { restored.add(store[it]) }
+        assertEquals(listOf(oldest, middle, newest), restored)
+
+        // The free slot is filled next, then the oldest is evicted
+        assertEquals(3, store.add(fingerprintAt(3.0, 0.0)))
+        var evicted: Fingerprint? = null
+        assertEquals(2, store.add(fingerprintAt(4.0, 0.0)) { evicted = it })
+        assertSame(oldest, evicted)
+    }
+
+    private fun fingerprintAt(x: Double, y: Double): Fingerprint {
+        return Fingerprint(Position(x, y, 1.0), FloatArray(0), IntArray(0), LongArray(0), -60.0)
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+private const val FIXES = 200
+private const val SCAN_INTERVAL = 200L // in ms
+private const val WALK_SPEED = 1.2 // in m/s
+private const val FIX_NOISE = 1.0 // in m
+
+class KalmanTrackingCalculatorTest {
+    private val random = Random(3)
+    private var now = 0L
+    private var truth = doubleArrayOf(0.0, 0.0)
+    private var innerCalls = 0
+
+    /** Reports the true position with uniform noise, like a jittery calculator */
+    private val noisyCalculator = object : PositionCalculator {
+        override fun calculatePosition(beacons: List<Beacon>): Position {
+            innerCalls++
+            return Position(
+                truth[0] + FIX_NOISE * random.nextDouble(-1.0, 1.0),
+                truth[1] + FIX_NOISE * random.nextDouble(-1.0, 1.0),
+                FIX_NOISE
+            )
+        }
+    }
+
+    @Test
+    fun testSmoothsWalkingUser() {
+        val tracker = KalmanTrackingCalculator(noisyCalculator, clock = { now })
+        var rawError = 0.0
+        var trackedError = 0.0
+        for (i in 0 until FIXES) {
+            walk()
+            val raw = noisyCalculator.calculatePosition(emptyList())
+            val tracked = tracker.calculatePosition(emptyList())!!
+            // Skip the first seconds while the velocity estimate settles
+            if (i >= FIXES / 4) {
+                rawError += error(raw)
+                trackedError += error(tracked)
+            }
+        }
+        assertTrue("Tracked error $trackedError is not below raw error $rawError", trackedError < 0.7 * rawError)
+    }
+
+    @Test
+    fun testPredictsBetweenInnerFixes() {
+        val tracker = KalmanTrackingCalculator(noisyCalculator, innerIntervalMillis = 1000L, clock = { now })
+        innerCalls = 0
+        repeat(FIXES) {
+            walk()
+            tracker.calculatePosition(emptyList())
+        }
+        // One inner fix per second of walking, at five scans per second
+        assertEquals(FIXES * SCAN_INTERVAL / 1000.0, innerCalls.toDouble(), 1.0)
+    }
+
+    @Test
+    fun testSkipsInnerCalculatorWithinInterval() {
+        val tracker = KalmanTrackingCalculator(noisyCalculator, innerIntervalMillis = 3 * SCAN_INTERVAL, clock = { now })
+        innerCalls = 0
+        val calledAt = mutableListOf<Int>()
+        for (scan in 0 until 7) {
+            val before = innerCalls
+            assertNotNull(tracker.calculatePosition(emptyList()))
+            if (innerCalls > before) calledAt.add(scan)
+            walk()
+        }
+        // The first scan initializes the filter; the next two are predicted
+        assertEquals(listOf(0, 3, 6), calledAt)
+    }
+
+    private fun walk() {
+        now += SCAN_INTERVAL
+        truth = doubleArrayOf(truth[0] + WALK_SPEED * SCAN_INTERVAL / 1000.0, truth[1])
+    }
+
+    private fun error(position: Position): Double {
+        val dx = position.x - truth[0]
+        val dy = position.y - truth[1]
+        return sqrt(dx * dx + dy * dy)
+    }
+}
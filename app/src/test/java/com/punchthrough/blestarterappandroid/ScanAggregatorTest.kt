@@ -0,0 +1,111 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class ScanAggregatorTest {
+    /** Scanner replaying advertisements given as (address, RSSI) */
+    private class FakeScanner : BeaconScanner<String> {
+        private var listener: ScanListener<String>? = null
+
+        override fun startScan(listener: ScanListener<String>) {
+            this.listener = listener
+        }
+
+        override fun stopScan() {
+            listener = null
+        }
+
+        fun advertise(address: String, rssi: Int) {
+            listener?.onScanResult(address, rssi, "$address@$rssi")
+        }
+    }
+
+    /** Scheduler running tasks when the test advances its clock */
+    private class FakeScheduler : ScanAggregator.Scheduler {
+        var now = 0L
+        private val tasks = mutableListOf<Pair<Long, Runnable>>()
+
+        override fun schedule(delayMillis: Long, task: Runnable) {
+            tasks.add(now + delayMillis to task)
+        }
+
+        fun advanceTo(time: Long) {
+            now = time
+            while (true) {
+                val due = tasks.filter { it.first <= now }.minByOrNull { it.first } ?: return
+                tasks.remove(due)
+                due.second.run()
+            }
+        }
+    }
+
+    private val ids = mapOf("A" to 0, "B" to 1, "C" to 2)
+
+    @Test
+    fun testBurstIsCoalescedIntoRateLimitedSnapshots() {
+        val scheduler = FakeScheduler()
+        val snapshots = mutableListOf<List<String>>()
+        val aggregator = ScanAggregator<String>(
+            idOf = { ids[it] ?: -1 },
+            scheduler = scheduler,
+            minPublishIntervalMillis = 100L,
+            clock = { scheduler.now }
+        ) { snapshots.add(it) }
+        val scanner = FakeScanner()
+        scanner.startScan(aggregator)
+
+        // The first advertisement is published immediately
+        scanner.advertise("A", -70)
+        scheduler.advanceTo(0L)
+        assertEquals(listOf(listOf("A@-70")), snapshots)
+
+        // A 10 Hz burst from three beacons and a stranger within one interval
+        for (round in 0 until 10) {
+            scheduler.advanceTo(round * 10L + 1)
+            scanner.advertise("A", -70 - round)
+            scanner.advertise("B", -60)
+            scanner.advertise("C", -80)
+            scanner.advertise("unknown", -40)
+        }
+        assertEquals(1, snapshots.size)
+        scheduler.advanceTo(99L)
+        assertEquals(1, snapshots.size)
+        scheduler.advanceTo(100L)
+        assertEquals(2, snapshots.size)
+        assertEquals(listOf("B@-60", "A@-79", "C@-80"), snapshots[1])
+
+        val counters = aggregator.counters()
+        assertEquals(41L, counters.received)
+        assertEquals(10L, counters.dropped)
+        assertEquals(27L, counters.overwritten)
+        assertEquals(2L, counters.published)
+
+        // Quiet until the next advertisement, which waits out the rest of the interval
+        scheduler.advanceTo(150L)
+        scanner.advertise("C", -50)
+        scheduler.advanceTo(199L)
+        assertEquals(2, snapshots.size)
+        scheduler.advanceTo(200L)
+        assertEquals(listOf("C@-50", "B@-60", "A@-79"), snapshots[2])
+
+        aggregator.clear()
+        assertEquals(emptyList<String>(), aggregator.snapshot())
+    }
+}
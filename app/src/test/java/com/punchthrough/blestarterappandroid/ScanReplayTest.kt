@@ -0,0 +1,149 @@
+/*
+ * Copyright 2026 Punch Through Design LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.punchthrough.blestarterappandroid
+
+import com.matt.guidebeacons.beacons.Beacon
+import com.matt.guidebeacons.beacons.BeaconRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+
+class ScanReplayTest {
+    private val macA = BeaconRegistry.parseMacAddress("AA:BB:CC:DD:EE:01")
+    private val macB = BeaconRegistry.parseMacAddress("AA:BB:CC:DD:EE:02")
+    private val stranger = BeaconRegistry.parseMacAddress("12:34:56:78:9A:BC")
+
+    private fun record(file: File, start: Long, advertisements: List<Triple<Long, Long, Int>>) {
+        ScanRecorder(file, start).use { recorder ->
+            for ((timestamp, mac, rssi) in advertisements) recorder.record(timestamp, mac, rssi)
+        }
+    }
+
+    @Test
+    fun testRecordingRoundTripsAndSurvivesTornRecord() {
+        val file = File.createTempFile("scans", ".bin")
+        try {
+            val start = 1_700_000_000_000L
+            // Out of order and far apart timestamps, and out of range RSSI
+            val advertisements = listOf(
+                Triple(start + 5, macA, -60),
+                Triple(start + 3, macB, -70),
+                Triple(start + 100_000, stranger, -200)
+            )
+            record(file, start, advertisements)
+            // Header plus three records of 8, 8 and 10 bytes
+            assertEquals(16L + 26L, file.length())
+
+            val read = mutableListOf<Triple<Long, Long, Int>>()
+            assertEquals(3, ScanRecording(file).read { timestamp, mac, rssi -> read.add(Triple(timestamp, mac, rssi)) })
+            assertEquals(advertisements.take(2) + Triple(start + 100_000, stranger, -128), read)
+
+            RandomAccessFile(file, "rw").use { it.setLength(file.length() - 3) }
+            assertEquals(2, ScanRecording(file).read { _, _, _ -> })
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun testReplayIsPacedAndFixesEveryInterval() {
+        val file = File.createTempFile("scans", ".bin")
+        try {
+            val start = 1_700_000_000_000L
+            // One second of advertisements every 50 ms, alternating beacons, with a stranger
+            val advertisements = (0 until 20).map { i ->
+                Triple(start + i * 50L, if (i % 2 == 0) macA else macB, -60 - i % 2 * 10)
+            } + Triple(start + 999L, stranger, -40)
+            record(file, start, advertisements)
+
+            val registry = BeaconRegistry()
+            registry["AA:BB:CC:DD:EE:01"] = Beacon("replayA", -59, 0.0, 0.0, 0.0)
+            registry["AA:BB:CC:DD:EE:02"] = Beacon("replayB", -59, 3.0, 0.0, 0.0)
+            val solved = mutableListOf<List<String>>()
+            val calculator = object : PositionCalculator {
+                override fun calculatePosition(beacons: List<Beacon>): Position {
+                    solved.add(beacons.map { it.beaconName })
+                    return Position(0.0, 0.0, 1.0)
+                }
+            }
+
+            // Fake clock that only moves when the replay sleeps
+            var now = 0L
+            var slept = 0L
+            val replay = ScanReplay(
+                beacons = registry,
+                calculator = calculator,
+                speed = 2.0,
+                fixIntervalMillis = 200L,
+                sleep = { millis -> slept += millis; now += millis * 1_000_000L },
+                nanoTime = { now }
+            )
+            val fixTimes = mutableListOf<Long>()
+            val report = replay.run(ScanRecording(file)) { timestamp, _ -> fixTimes.add(timestamp) }
+
+            assertEquals(21, report.advertisements)
+            assertEquals(1, report.unknownAdvertisements)
+            assertEquals(5, report.fixes)
+            assertEquals(5, report.positions)
+            assertEquals(listOf(200L, 400L, 600L, 800L, 1000L).map { start + it }, fixTimes)
+            // The stronger beacon first
+            assertEquals(listOf("replayA", "replayB"), solved[0])
+            // The recorded second replays in half a second
+            assertEquals(499L, slept)
+            assertEquals(5L, report.fixLatencies.count)
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun testFixesIncludeEveryBeaconHeardSoFar() {
+        val file = File.createTempFile("scans", ".bin")
+        try {
+            val start = 1_700_000_000_000L
+            // B is only heard in the first interval, and nothing in the third
+            record(file, start, listOf(
+                Triple(start + 10, macA, -60),
+                Triple(start + 20, macB, -50),
+                Triple(start + 250, macA, -60),
+                Triple(start + 650, macA, -60)
+            ))
+
+            val registry = BeaconRegistry()
+            registry["AA:BB:CC:DD:EE:01"] = Beacon("latestA", -59, 0.0, 0.0, 0.0)
+            registry["AA:BB:CC:DD:EE:02"] = Beacon("latestB", -59, 3.0, 0.0, 0.0)
+            val solved = mutableListOf<List<String>>()
+            val calculator = object : PositionCalculator {
+                override fun calculatePosition(beacons: List<Beacon>): Position? {
+                    solved.add(beacons.map { it.beaconName })
+                    return null
+                }
+            }
+            val fixTimes = mutableListOf<Long>()
+            ScanReplay(registry, calculator, fixIntervalMillis = 200L).run(ScanRecording(file)) { timestamp, _ ->
+                fixTimes.add(timestamp - start)
+            }
+
+            // Intervals start at the first advertisement
+            assertEquals(listOf(210L, 410L, 810L), fixTimes)
+            assertEquals(List(3) { listOf("latestB", "latestA") }, solved)
+        } finally {
+            file.delete()
+        }
+    }
+}
@@ -73,6 +73,161 @@ class TestMath {
         assertTrue("Found location (within tolerance of ${ACCEPTABLE_TOLERANCE}) ${successes} out of ${CHECKS_PER_TEST} times", successes == CHECKS_PER_TEST)
     }
 
+    @Test
+    fun testReusedSolverMatchesFreshSolver() {
+        val solver = TrilaterationFunction(NUM_BEACONS)
+        val out = DoubleArray(3)
+        repeat(CHECKS_PER_TEST) {
+            val userTrue = doubleArrayOf(Random.nextDouble(0.0, USER_LOCATION_SQUARE), Random.nextDouble(0.0, USER_LOCATION_SQUARE), 1.0)
+            val prev = DoubleArray(3) { userTrue[it] + DISTANCE_FROM_PREV * Random.nextDouble(-1.0, 1.0) }
+            val distances = DoubleArray(NUM_BEACONS) { dist(coordinates[it], userTrue) * Random.nextDouble(1 - BEACON_ERROR, 1 + BEACON_ERROR) }
+
+            solver.setProblem(prev, coordinates, distances)
+            solver.solve(out)
+            val expected = getLocation(prev, coordinates, distances)
+
+            assertTrue("Reused solver returned ${out.joinToString()} but fresh solver returned ${expected.joinToString()}", out.contentEquals(expected))
+        }
+    }
+
+    @Test
+    fun testBatchSolverMatchesSerialSolver() {
+        val initialGuesses = DoubleArray(CHECKS_PER_TEST * 3)
+        val packedCoords = DoubleArray(CHECKS_PER_TEST * NUM_BEACONS * 3)
+        val packedDistances = DoubleArray(CHECKS_PER_TEST * NUM_BEACONS)
+        val problemDistances = Array(CHECKS_PER_TEST) { DoubleArray(NUM_BEACONS) }
+
+        for (p in 0 until CHECKS_PER_TEST) {
+            val userTrue = doubleArrayOf(Random.nextDouble(0.0, USER_LOCATION_SQUARE), Random.nextDouble(0.0, USER_LOCATION_SQUARE), 1.0)
+            for (k in 0 until 3) {
+                initialGuesses[3 * p + k] = userTrue[k] + DISTANCE_FROM_PREV * Random.nextDouble(-1.0, 1.0)
+            }
+            for (i in 0 until NUM_BEACONS) {
+                coordinates[i].copyInto(packedCoords, (p * NUM_BEACONS + i) * 3)
+                problemDistances[p][i] = dist(coordinates[i], userTrue) * Random.nextDouble(1 - BEACON_ERROR, 1 + BEACON_ERROR)
+                packedDistances[p * NUM_BEACONS + i] = problemDistances[p][i]
+            }
+        }
+
+        val results = BatchTrilateration(NUM_BEACONS).solveAll(initialGuesses, packedCoords, packedDistances)
+
+        for (p in 0 until CHECKS_PER_TEST) {
+            val expected = getLocation(initialGuesses.copyOfRange(3 * p, 3 * p + 3), coordinates, problemDistances[p])
+            val actual = results.copyOfRange(3 * p, 3 * p + 3)
+            assertTrue("Batch result ${actual.joinToString()} differs from serial result ${expected.joinToString()}", actual.contentEquals(expected))
+        }
+    }
+
+    @Test
+    fun testLinearInitializationFromUninformedGuess() {
+        val solver = TrilaterationFunction(NUM_BEACONS)
+        solver.setLinearInitialization(true)
+        val result = TrilaterationFunction.Result()
+        val farGuess = doubleArrayOf(-10 * USER_LOCATION_SQUARE, -10 * USER_LOCATION_SQUARE, 2.0)
+        var successes = 0
+        repeat(CHECKS_PER_TEST) {
+            val userTrue = doubleArrayOf(Random.nextDouble(0.0, USER_LOCATION_SQUARE), Random.nextDouble(0.0, USER_LOCATION_SQUARE), 1.0)
+            val distances = DoubleArray(NUM_BEACONS) { dist(coordinates[it], userTrue) }
+
+            solver.setProblem(farGuess, coordinates, distances)
+            solver.solve(result)
+
+            if (dist(userTrue, result.getPosition()) <= ACCEPTABLE_TOLERANCE && result.getStartPoint() == TrilaterationFunction.StartPoint.LINEAR) {
+                successes++
+            }
+        }
+        assertTrue("Found location from linear start ${successes} out of ${CHECKS_PER_TEST} times", successes == CHECKS_PER_TEST)
+    }
+
+    @Test
+    fun testEvaluationBudgetReturnsBestSoFar() {
+        val maxEvaluations = 3
+        val solver = TrilaterationFunction(NUM_BEACONS)
+        val result = TrilaterationFunction.Result()
+        repeat(CHECKS_PER_TEST) {
+            val userTrue = doubleArrayOf(Random.nextDouble(0.0, USER_LOCATION_SQUARE), Random.nextDouble(0.0, USER_LOCATION_SQUARE), 1.0)
+            val prev = DoubleArray(3) { userTrue[it] + 4 * DISTANCE_FROM_PREV * Random.nextDouble(-1.0, 1.0) }
+            val distances = DoubleArray(NUM_BEACONS) { dist(coordinates[it], userTrue) }
+
+            solver.setProblem(prev, coordinates, distances)
+            solver.solve(result, Long.MAX_VALUE, maxEvaluations)
+
+            assertTrue("Used ${result.getCostEvaluations()} cost evaluations, budget was $maxEvaluations", result.getCostEvaluations() <= maxEvaluations)
+            assertTrue("Cost increased from ${result.getInitialCost()} to ${result.getCost()}", result.getCost() <= result.getInitialCost())
+            assertTrue("Unexpected status ${result.getStatus()}", result.isConverged() || result.getStatus() == TrilaterationFunction.Status.EVALUATION_BUDGET_EXCEEDED)
+        }
+    }
+
+    @Test
+    fun testWarmStartNeedsFewerIterationsThanColdStart() {
+        val cold = TrilaterationFunction(NUM_BEACONS)
+        val warm = TrilaterationFunction(NUM_BEACONS)
+        warm.setWarmStart(true)
+        val result = TrilaterationFunction.Result()
+        val farGuess = doubleArrayOf(-10 * USER_LOCATION_SQUARE, -10 * USER_LOCATION_SQUARE, 2.0)
+        var coldIterations = 0
+        var warmIterations = 0
+        // A user walking slowly across the square, solved from the same uninformed guess
+        for (step in 0 until CHECKS_PER_TEST) {
+            val t = step.toDouble() / CHECKS_PER_TEST
+            val userTrue = doubleArrayOf(1.0 + 3.0 * t, 1.0 + 2.0 * t, 1.0)
+            val distances = DoubleArray(NUM_BEACONS) { dist(coordinates[it], userTrue) }
+
+            cold.setProblem(farGuess, coordinates, distances)
+            cold.solve(result)
+            coldIterations += result.getIterations()
+
+            warm.setProblem(farGuess, coordinates, distances)
+            warm.solve(result)
+            warmIterations += result.getIterations()
+            if (step > 0) assertTrue(result.getStartPoint() == TrilaterationFunction.StartPoint.WARM_START)
+        }
+        assertTrue("Warm start took $warmIterations iterations, cold start $coldIterations", warmIterations * 2 < coldIterations)
+    }
+
+    @Test
+    fun testBudgetExceededSolveDoesNotSeedWarmStart() {
+        val solver = TrilaterationFunction(NUM_BEACONS)
+        solver.setWarmStart(true)
+        val result = TrilaterationFunction.Result()
+        val userTrue = doubleArrayOf(2.0, 3.0, 1.0)
+        val distances = DoubleArray(NUM_BEACONS) { dist(coordinates[it], userTrue) }
+        val farGuess = doubleArrayOf(-10 * USER_LOCATION_SQUARE, -10 * USER_LOCATION_SQUARE, 2.0)
+
+        solver.setProblem(farGuess, coordinates, distances)
+        solver.solve(result, Long.MAX_VALUE, 2)
+        assertTrue(result.getStatus() == TrilaterationFunction.Status.EVALUATION_BUDGET_EXCEEDED)
+
+        solver.setProblem(farGuess, coordinates, distances)
+        solver.solve(result)
+        assertTrue(result.getStartPoint() == TrilaterationFunction.StartPoint.INITIAL_GUESS)
+        assertTrue(result.isConverged())
+
+        solver.solve(result)
+        assertTrue(result.getStartPoint() == TrilaterationFunction.StartPoint.WARM_START)
+    }
+
+    @Test
+    fun testIncrementalDistanceUpdatesTrackUser() {
+        val engine = IncrementalTrilateration(NUM_BEACONS)
+        val out = DoubleArray(3)
+        var userTrue = doubleArrayOf(USER_LOCATION_SQUARE / 2, USER_LOCATION_SQUARE / 2, 1.0)
+        for (i in 0 until NUM_BEACONS) {
+            engine.setBeacon(i, coordinates[i][0], coordinates[i][1], coordinates[i][2], dist(coordinates[i], userTrue))
+        }
+
+        repeat(CHECKS_PER_TEST) {
+            userTrue = doubleArrayOf(Random.nextDouble(0.0, USER_LOCATION_SQUARE), Random.nextDouble(0.0, USER_LOCATION_SQUARE), 1.0)
+            for (i in 0 until NUM_BEACONS) {
+                engine.updateDistance(i, dist(coordinates[i], userTrue))
+            }
+
+            assertTrue("Incremental engine failed to solve", engine.solve(out))
+            val d = dist(userTrue, out)
+            assertTrue("Found location (${out.joinToString()}) is $d from actual location (${userTrue.joinToString()})", d <= ACCEPTABLE_TOLERANCE)
+        }
+    }
+
     fun dist(p1: DoubleArray, p2: DoubleArray): Double {
         require(p1.size == p2.size) { "Points must have same dimension, p1: ${p1.size} and p2: ${p2.size}" }
         return sqrt(p1.indices.sumOf { (p2[it] - p1[it]).pow(2) })